@@ -1,22 +1,31 @@
 package architecture;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Scanner;
 
 import assembler.Assembler;
+import components.ArrayMemory;
 import components.Bus;
+import components.CacheHierarchy;
 import components.Memory;
+import components.MemoryBackend;
+import components.OutputDevice;
 import components.Register;
 import components.Ula;
+import components.Watchpoints;
 
 public class Architecture {
 	
+	public static final int DEFAULT_MEMORY_SIZE = 128;
+	private static final int CLOCK_CHECKS = 4096; //how many limit checks go without reading the clock
+	
 	private boolean simulation; //this boolean indicates if the execution is done in simulation mode.
 								//simulation mode shows the components' status after each instruction
+	private TraceSink traceSink; //receives the components' status in simulation mode
+	private Watchpoints watchpoints; //null when there is none
+	
 	
+	private ExecutionMode executionMode; //the engine used by controlUnitEexec
 	
 	private boolean halt;
 	private Bus extbus1;
@@ -36,13 +45,25 @@ public class Architecture {
 	
 	private ArrayList<String> commandsList;
 	private ArrayList<Register> registersList;
+	private Opcode.Microprogram microprograms[]; //the decode table: the microprogram of each command code
+	private InstructionCache instructionCache; //the decoded program, used by the fast engine
+	private JitCompiler jitCompiler; //the compiled blocks, used by the tiered mode
+	private Superinstructions superinstructions; //the fused sequences, used by the closure mode
+	private long instructionCount; //how many instructions were executed, by any engine
+	private long instructionLimit; //the count where the execution stops (0: no limit)
+	private long timeLimit; //the nanoseconds each execution can take (0: no limit)
+	private long deadline; //when the current execution must stop, if there is a time limit
+	private int clockChecks; //the clock is read only once every CLOCK_CHECKS checks
+	private boolean limitReached; //the last execution stopped at a limit
+	private PerformanceCounters counters; //the micro operations of each command
 	
 	
 
 	/**
 	 * Instanciates all components in this architecture
+	 * @param memoryBackend where the memory words are kept (its size is the memory size)
 	 */
-	private void componentsInstances() {
+	private void componentsInstances(MemoryBackend memoryBackend) {
 		//don't forget the instantiation order
 		//buses -> registers -> ula -> memory
 		extbus1 = new Bus();
@@ -57,11 +78,12 @@ public class Architecture {
 		Flags = new Register(3, intbus2);
 		fillRegistersList();
 		ula = new Ula(intbus1, intbus2);
-		memorySize = 128;
-		memory = new Memory(memorySize, extbus1);
+		memorySize = memoryBackend.size();
+		memory = new Memory(memoryBackend, extbus1);
 		demux = new Bus(); //this bus is used only for multiple register operations
 		
 		fillCommandsList();
+		counters = new PerformanceCounters(this);
 	}
 
 	/**
@@ -84,18 +106,45 @@ public class Architecture {
 	 * Constructor that instanciates all components according the architecture diagram
 	 */
 	public Architecture() {
-		componentsInstances();
+		componentsInstances(new ArrayMemory(DEFAULT_MEMORY_SIZE));
 		
 		//by default, the execution method is never simulation mode
 		simulation = false;
+		executionMode = ExecutionMode.MICROPROGRAM;
 	}
 
 	
 	public Architecture(boolean sim) {
-		componentsInstances();
+		componentsInstances(new ArrayMemory(DEFAULT_MEMORY_SIZE));
 		
 		//in this constructor we can set the simoualtion mode on or off
-		simulation = sim;
+		setSimulation(sim);
+		executionMode = ExecutionMode.MICROPROGRAM;
+	}
+	
+	/**
+	 * In this constructor we can also choose the execution engine
+	 * @param sim
+	 * @param mode
+	 */
+	public Architecture(boolean sim, ExecutionMode mode) {
+		this(sim, mode, new ArrayMemory(DEFAULT_MEMORY_SIZE));
+	}
+	
+	/**
+	 * In this constructor we can also choose the memory: its size and where the words
+	 * are kept (ArrayMemory, DirectMemory, PagedMemory or CowMemory).
+	 * Every backend runs in the chosen engine; the fast engines work directly over
+	 * the array of the dense one (ArrayMemory) and through MemoryBackend over the others,
+	 * which are not compiled in the tiered mode
+	 * @param sim
+	 * @param mode
+	 * @param memoryBackend
+	 */
+	public Architecture(boolean sim, ExecutionMode mode, MemoryBackend memoryBackend) {
+		componentsInstances(memoryBackend);
+		setSimulation(sim);
+		executionMode = mode;
 	}
 
 
@@ -150,9 +199,203 @@ public class Architecture {
 		return ula;
 	}
 
+	protected Bus getDemux() {
+		return demux;
+	}
+
 	public ArrayList<String> getCommandsList() {
 		return commandsList;
 	}
+	
+	/**
+	 * This method returns the decoded instructions of the program in the memory.
+	 * If no program was loaded by readExec, the instructions are decoded as they are executed.
+	 * @return
+	 */
+	protected InstructionCache getInstructionCache() {
+		if (instructionCache == null)
+			setInstructionCache(new InstructionCache(memory.getBackend()));
+		return instructionCache;
+	}
+	
+	private void setInstructionCache(InstructionCache cache) {
+		instructionCache = cache;
+		memory.setStoreListener(cache::invalidate); //stores into the program discard its decoded instructions
+	}
+	
+	/**
+	 * This method returns the compiler of the hot blocks (tiered mode) and its statistics
+	 * @return
+	 */
+	public JitCompiler getJitCompiler() {
+		if (jitCompiler == null)
+			jitCompiler = new JitCompiler();
+		return jitCompiler;
+	}
+	
+	/**
+	 * Replaces the compiler of the hot blocks (for instance, to use another threshold)
+	 * @param jitCompiler
+	 */
+	public void setJitCompiler(JitCompiler jitCompiler) {
+		this.jitCompiler = jitCompiler;
+	}
+	
+	/**
+	 * This method returns the sequences of commands fused by the closure engine
+	 * @return
+	 */
+	public Superinstructions getSuperinstructions() {
+		if (superinstructions == null)
+			superinstructions = Superinstructions.defaults();
+		return superinstructions;
+	}
+	
+	/**
+	 * Replaces the fused sequences (for instance, by the ones chosen from a profile)
+	 * @param superinstructions
+	 */
+	public void setSuperinstructions(Superinstructions superinstructions) {
+		this.superinstructions = superinstructions;
+	}
+	
+	/**
+	 * This method returns how many instructions were executed (the end of the program is not counted)
+	 * @return
+	 */
+	public long getInstructionCount() {
+		return instructionCount;
+	}
+	
+	/**
+	 * This method returns the counters of the bus transfers, memory accesses, ULA operations
+	 * and register transfers of each command executed by its microprogram
+	 * @return
+	 */
+	public PerformanceCounters getCounters() {
+		return counters;
+	}
+	
+	/**
+	 * This method limits the instructions executed: the execution stops once the count
+	 * (see getInstructionCount) reaches the limit. The fast engines check it between
+	 * their blocks, so they may execute a few instructions more
+	 * @param instructionLimit 0 for no limit
+	 */
+	public void setInstructionLimit(long instructionLimit) {
+		this.instructionLimit = instructionLimit;
+	}
+	
+	/**
+	 * This method limits the time each call of controlUnitEexec can take
+	 * @param millis 0 for no limit
+	 */
+	public void setTimeLimit(long millis) {
+		this.timeLimit = millis * 1000000;
+	}
+	
+	/**
+	 * @return true if the last execution was stopped by the instruction or the time limit
+	 * (the program did not end)
+	 */
+	public boolean isLimitReached() {
+		return limitReached;
+	}
+	
+	/**
+	 * The engines call this method before each instruction (or block) they execute
+	 * @param pending the instructions executed by the engine and not yet reported
+	 * @return true if the execution must stop
+	 */
+	boolean limitReached(long pending) {
+		if (instructionLimit > 0 && instructionCount + pending >= instructionLimit)
+			limitReached = true;
+		else if (timeLimit > 0 && --clockChecks <= 0) {
+			clockChecks = CLOCK_CHECKS;
+			limitReached = System.nanoTime() - deadline >= 0;
+		}
+		return limitReached;
+	}
+	
+	/**
+	 * The engines out of the microprograms report the instructions they executed
+	 * @param instructions
+	 */
+	protected void addInstructions(long instructions) {
+		instructionCount += instructions;
+	}
+	
+	/**
+	 * The simulation mode is the classic one: the components are shown in the console
+	 * and the execution waits for <Enter> after each instruction
+	 * @param sim
+	 */
+	private void setSimulation(boolean sim) {
+		setTraceSink(sim ? new InteractiveTraceSink() : null);
+	}
+	
+	public TraceSink getTraceSink() {
+		return traceSink;
+	}
+	
+	/**
+	 * This method chooses where the simulation trace goes. Any sink turns the
+	 * simulation mode on (the microprograms are always used) and null turns it off
+	 * @param traceSink
+	 */
+	public void setTraceSink(TraceSink traceSink) {
+		this.traceSink = traceSink;
+		simulation = traceSink != null;
+	}
+	
+	public Watchpoints getWatchpoints() {
+		return watchpoints;
+	}
+	
+	/**
+	 * This method sets the memory watchpoints (null removes them).
+	 * The fast engines do not use the memory component, so with watchpoints
+	 * the microprograms are always used
+	 * @param watchpoints
+	 */
+	public void setWatchpoints(Watchpoints watchpoints) {
+		this.watchpoints = watchpoints;
+		memory.setWatchpoints(watchpoints);
+	}
+	
+	/**
+	 * This method sets the cache model between the external bus and the memory
+	 * (null removes it). As the watchpoints, it makes the microprograms always used
+	 * @param cache
+	 */
+	public void setCache(CacheHierarchy cache) {
+		memory.setCache(cache);
+	}
+	
+	public CacheHierarchy getCache() {
+		return memory.getCache();
+	}
+	
+	/**
+	 * This method maps an output device into the memory (null removes it).
+	 * The program writes into it by storing into its ports (see OutputDevice)
+	 * @param device
+	 */
+	public void setOutputDevice(OutputDevice device) {
+		memory.setOutputDevice(device);
+	}
+	
+	public OutputDevice getOutputDevice() {
+		return memory.getOutputDevice();
+	}
+	
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+	
+	public void setExecutionMode(ExecutionMode executionMode) {
+		this.executionMode = executionMode;
+	}
 
 
 
@@ -174,38 +417,17 @@ public class Architecture {
 	
 	/**
 	 * This method fills the commands list arraylist with all commands used in this architecture
+	 * and the decode table with their microprograms.
+	 * Both come from the instruction set in Opcode, so the command codes used by the
+	 * assembler are always the ones executed here
 	 */
 	protected void fillCommandsList() {
 		commandsList = new ArrayList<String>();
-		
-		commandsList.add("addRegReg"); //0
-		commandsList.add("addMemReg"); //1
-		commandsList.add("addRegMem"); //2
-		commandsList.add("addImmReg"); //3
-
-		commandsList.add("subRegReg"); //4
-		commandsList.add("subMemReg"); //5
-		commandsList.add("subRegMem"); //6		
-		commandsList.add("subImmReg"); //7
-
-		commandsList.add("moveRegReg"); //8
-		commandsList.add("moveMemReg"); //9
-		commandsList.add("moveRegMem"); //10
-		commandsList.add("moveImmReg"); //11
-
-		commandsList.add("imulRegReg"); //12
-		commandsList.add("imulMemReg"); //13
-		commandsList.add("imulRegMem"); //14
-
-
-		commandsList.add("incReg"); //15
-		commandsList.add("jmp"); //16
-		commandsList.add("jn"); //17
-		commandsList.add("jz"); //18
-		commandsList.add("jeq"); //19
-		commandsList.add("jneq"); //20
-		commandsList.add("jgt"); //21
-		commandsList.add("jlw"); //22
+		microprograms = new Opcode.Microprogram[Opcode.count()];
+		for (Opcode op : Opcode.values()) {
+			commandsList.add(op.getMnemonic());
+			microprograms[op.getCode()] = op.getMicroprogram();
+		}
 	}
 
 	
@@ -328,6 +550,36 @@ public class Architecture {
 		PC.internalStore(); //now PC points to the next instruction. We go back to the FETCH status.
 	}	
 
+	public void addImmReg() {
+		PC.internalRead();
+		ula.internalStore(1);
+		ula.inc();
+		ula.internalRead(1);
+		PC.internalStore(); //now PC points to the first parameter (the immediate)
+		PC.read(); 
+		memory.read(); // the immediate is now in the external bus.
+		IR.store();
+		ula.inc();
+		ula.internalRead(1);
+		PC.internalStore(); //now PC points to the second parameter (the reg id)
+		PC.read();
+		memory.read();
+		demux.put(extbus1.get()); //points to the correct register
+		registersInternalRead(); //starts the read from the register identified into demux bus
+		ula.store(1);
+		IR.internalRead();
+		ula.internalStore(0);
+		ula.add();
+		ula.read(1);
+		setStatusFlags(intbus1.get());
+		registersInternalStore(); //performs an internal store for the register identified into demux bus
+		PC.internalRead(); //we need to make PC points to the next instruction address
+		ula.internalStore(1);
+		ula.inc();
+		ula.internalRead(1);
+		PC.internalStore(); //now PC points to the next instruction. We go back to the FETCH status.
+	}
+
 	public void addImmMem() {
 		PC.internalRead();
 		ula.internalStore(1);
@@ -459,6 +711,36 @@ public class Architecture {
 		PC.internalStore(); //now PC points to the next instruction. We go back to the FETCH status.
 	}	
 	
+	public void subImmReg() {
+		PC.internalRead();
+		ula.internalStore(1);
+		ula.inc();
+		ula.internalRead(1);
+		PC.internalStore(); //now PC points to the first parameter (the immediate)
+		PC.read(); 
+		memory.read(); // the immediate is now in the external bus.
+		IR.store();
+		ula.inc();
+		ula.internalRead(1);
+		PC.internalStore(); //now PC points to the second parameter (the reg id)
+		PC.read();
+		memory.read();
+		demux.put(extbus1.get()); //points to the correct register
+		IR.internalRead();
+		ula.internalStore(0);
+		registersInternalRead(); //starts the read from the register identified into demux bus
+		ula.store(1);
+		ula.sub();
+		ula.read(1);
+		setStatusFlags(intbus1.get());
+		registersInternalStore(); //performs an internal store for the register identified into demux bus
+		PC.internalRead(); //we need to make PC points to the next instruction address
+		ula.internalStore(1);
+		ula.inc();
+		ula.internalRead(1);
+		PC.internalStore(); //now PC points to the next instruction. We go back to the FETCH status.
+	}
+	
 	public void subImmMem() {
 		PC.internalRead();
 		ula.internalStore(1);
@@ -512,29 +794,10 @@ public class Architecture {
 		IR.internalRead();
 		ula.internalStore(1);
 		registersInternalRead();
-		if(intbus1.get()>0) {
-			for (int i = intbus1.get(); i>1; i--) {
-				ula.internalStore(0);
-				ula.add();
-			}	
-			ula.read(1);
-			registersInternalStore();
-		}else {
-			if(intbus1.get()<0) {
-				for (int i = intbus1.get(); i<1; i++) {
-					ula.read(1);
-					ula.store(0);
-					ula.internalStore(1);
-					ula.sub();
-				}
-				ula.read(1);
-				registersInternalStore();
-			}else {
-				if(intbus1.get()==0) {
-					registersInternalStore();
-				}
-			}
-		}
+		ula.store(0); //the multiplier
+		ula.mul();
+		ula.read(1);
+		registersInternalStore();
 		
 		setStatusFlags(intbus1.get());
 		PC.internalRead(); //we need to make PC points to the next instruction address
@@ -576,11 +839,9 @@ public class Architecture {
 		IR.internalRead();
 		ula.internalStore(1);
 		registersInternalRead();
-		if(intbus1.get()>0) {
-			for (int i = intbus1.get(); i>1; i--) {
-				ula.internalStore(0);
-				ula.add();
-			}
+		if(intbus1.get()!=0) {
+			ula.store(0); //the multiplier
+			ula.mul();
 			ula.internalRead(1);
 			IR.internalStore();
 			extbus1.put(aux);
@@ -588,30 +849,12 @@ public class Architecture {
 			memory.store();
 			IR.read();
 			memory.store();
-		}else {
-			if(intbus1.get()<0) {
-				for (int i = intbus1.get(); i<1; i++) {
-					ula.read(1);
-					ula.store(0);
-					ula.internalStore(1);
-					ula.sub();
-				}
-				ula.internalRead(1);
-				IR.internalStore();
-				extbus1.put(aux);
-				memory.read();
-				memory.store();
-				IR.read();
-				memory.store();
-			}else {
-				if(intbus1.get()==0) {
-					extbus1.put(aux);
-					memory.read();
-					memory.store();
-					extbus1.put(intbus1.get());
-					memory.store();
-				}
-			}
+		}else { //a zero multiplier stores 0 and keeps the multiplicand in IR
+			extbus1.put(aux);
+			memory.read();
+			memory.store();
+			extbus1.put(intbus1.get());
+			memory.store();
 		}
 		
 		setStatusFlags(extbus1.get());
@@ -642,31 +885,10 @@ public class Architecture {
 		IR.internalRead();
 		ula.internalStore(1);
 		registersInternalRead();
-		if(intbus1.get()>0) {
-			for (int i = intbus1.get(); i>1; i--) {
-				ula.internalStore(0);
-				ula.add();
-			}
-			ula.read(1);
-			registersInternalStore();
-		}else {
-			if(intbus1.get()<0) {
-				for (int i = intbus1.get(); i<1; i++) {
-					ula.read(1);
-					ula.store(0);
-					ula.internalStore(1);
-					ula.sub();
-				}
-				ula.read(1);
-				registersInternalStore();
-			
-			}else {
-				if(intbus1.get()==0) {
-					registersInternalStore();
-				}
-			}
-		}
-		
+		ula.store(0); //the multiplier
+		ula.mul();
+		ula.read(1);
+		registersInternalStore();
 		
 		setStatusFlags(intbus1.get());
 		PC.internalRead(); //we need to make PC points to the next instruction address
@@ -927,6 +1149,40 @@ public class Architecture {
 		}
 	}
 	
+	public void jneq() {
+		PC.internalRead();
+		ula.internalStore(1);
+		ula.inc();
+		ula.internalRead(1);
+		PC.internalStore(); //now PC points to the parameter address
+		PC.read();
+		memory.read();
+		demux.put(extbus1.get());//points to the correct register
+		registersRead(); //performs an internal store for the register identified into demux bus
+		IR.store();
+		ula.inc();
+		ula.internalRead(1);
+		PC.internalStore();
+		PC.read();
+		memory.read();
+		demux.put(extbus1.get());
+		ula.inc();
+		ula.internalRead(1);
+		PC.internalStore();
+		registersInternalRead();
+		IR.internalRead();
+		if (intbus1.get()!=intbus2.get()) { 
+			PC.read();
+			memory.read();
+			PC.store();
+		}
+		else {
+			ula.inc();
+			ula.internalRead(1);
+			PC.internalStore();
+		}
+	}
+	
 	public void jgt() {
 		PC.internalRead();
 		ula.internalStore(1);
@@ -1169,38 +1425,137 @@ public class Architecture {
 
 	/**
 	 * This method reads an entire file in machine code and
-	 * stores it into the memory
+	 * stores it into the memory.
+	 * The file is read at once (see ExecLoader) and copied into the memory
+	 * in bulk, without the bus.
+	 * The program is decoded once here, for the fast engine
 	 * NOT TESTED
 	 * @param filename
 	 * @throws IOException 
 	 */
 	public void readExec(String filename) throws IOException {
-		   BufferedReader br = new BufferedReader(new		 
-		   FileReader(filename+".dxf"));
-		   String linha;
-		   int i=0;
-		   while ((linha = br.readLine()) != null) {
-			     extbus1.put(i);
-			     memory.store();
-			   	 extbus1.put(Integer.parseInt(linha));
-			     memory.store();
-			     i++;
-			}
-			br.close();
+		ExecLoader.Words program = ExecLoader.read(filename+".dxf");
+		memory.load(0, program.words, 0, program.count);
+		predecode();
+	}
+	
+	/**
+	 * This method reads a binary executable (see Executable) and copies its code and
+	 * data sections into the memory.
+	 * The program is decoded once here, for the fast engine
+	 * @param filename without the extension (.dxb)
+	 * @return the executable read, with its symbol table
+	 * @throws IOException if the file can not be read or is not a valid executable
+	 */
+	public Executable readBinaryExec(String filename) throws IOException {
+		Executable executable = Executable.read(filename);
+		executable.load(memory);
+		predecode();
+		return executable;
+	}
+	
+	/**
+	 * The program is decoded for the fast engines
+	 */
+	private void predecode() {
+		InstructionCache cache = new InstructionCache(memory.getBackend());
+		cache.predecode();
+		setInstructionCache(cache);
+	}
+	
+	/**
+	 * This method saves the complete machine state (registers, Flags, ULA, buses and memory)
+	 * into a compact, versioned and checksummed array of bytes (see Snapshot).
+	 * It is also a checkpoint: the next checkpoint() saves only what changes after it
+	 * @return
+	 */
+	public byte[] snapshot() {
+		byte data[] = Snapshot.save(this);
+		memory.getDirtyPages().clear();
+		return data;
+	}
+	
+	/**
+	 * This method saves the machine state with only the memory pages written since
+	 * the last snapshot (or checkpoint), so its cost follows the writes and not the
+	 * memory size. A full snapshot followed by its checkpoints, replayed in order by
+	 * restore and restoreCheckpoint, gives the state of the last one
+	 * @return
+	 */
+	public byte[] checkpoint() {
+		byte data[] = Snapshot.saveDelta(this);
+		memory.getDirtyPages().clear();
+		return data;
 	}
 	
 	/**
-	 * This method executes a program that is stored in the memory
+	 * This method restores the machine state saved by snapshot().
+	 * The program in the restored memory is decoded again, as in readExec
+	 * @param snapshot
+	 * @throws IllegalArgumentException if the snapshot is corrupted or from another architecture
+	 */
+	public void restore(byte snapshot[]) {
+		Snapshot.restore(this, snapshot);
+		predecode();
+		memory.getDirtyPages().clear();
+	}
+	
+	/**
+	 * This method applies a checkpoint over the state it was saved from (the snapshot
+	 * restored and the previous checkpoints). The pages written are decoded again as
+	 * any store into the program
+	 * @param checkpoint
+	 * @throws IllegalArgumentException if the checkpoint is corrupted or from another architecture
+	 */
+	public void restoreCheckpoint(byte checkpoint[]) {
+		Snapshot.restoreDelta(this, checkpoint);
+		memory.getDirtyPages().clear();
+	}
+	
+	/**
+	 * This method executes a program that is stored in the memory.
+	 * Simulation mode always uses the microprograms, once it shows the buses at each step.
+	 * So do the watchpoints and the cache model. A watchpoint that pauses stops the execution after the
+	 * current instruction: calling this method again continues it. So does a limit
+	 * (see setInstructionLimit and setTimeLimit)
 	 */
 	public void controlUnitEexec() {
 		halt = false;
-		while (!halt) {
+		limitReached = false;
+		deadline = System.nanoTime() + timeLimit;
+		clockChecks = 0; //the clock is read in the first check
+		if (watchpoints != null)
+			watchpoints.resume();
+		boolean fast = !simulation && watchpoints == null && memory.getCache() == null;
+		if (executionMode == ExecutionMode.CLOSURE && fast) {
+			new ClosureEngine(this).run();
+			return;
+		}
+		if (executionMode != ExecutionMode.MICROPROGRAM && fast) {
+			new FastEngine(this).run();
+			return;
+		}
+		while (!halt && !limitReached(0)) {
 			fetch();
 			decodeExecute();
 		}
 
 	}
 	
+	/**
+	 * This method executes only one instruction (fetch, decode and execute)
+	 * by its microprogram.
+	 * @return true if the instruction stopped the execution
+	 */
+	protected boolean step() {
+		halt = false;
+		if (watchpoints != null)
+			watchpoints.resume();
+		fetch();
+		decodeExecute();
+		return halt;
+	}
+	
 
 	/**
 	 * This method implements The decode proccess,
@@ -1211,142 +1566,21 @@ public class Architecture {
 	private void decodeExecute() {
 		IR.internalRead(); //the instruction is in the internalbus2
 		int command = intbus2.get();
-		simulationDecodeExecuteBefore(command);
-		switch (command) {
-		case 0:
-			addRegReg();
-			break;
-		case 1:
-			addMemReg();
-			break;
-		case 2:
-			addRegMem();
-			break;
-		case 3:
-			addImmMem();
-			break;
-		case 4:
-			subRegReg();
-			break;
-		case 5:
-			subMemReg();
-			break;
-		case 6:
-			subRegMem();
-			break;
-		case 7:
-			subImmMem();
-			break;
-		case 8:
-			imulMemReg();
-			break;
-		case 9:
-			imulRegMem();
-			break;
-		case 10:
-			imulRegReg();
-			break;
-		case 11:
-			moveMemReg();
-			break;
-		case 12:
-			moveRegMem();
-			break;
-		case 13:
-			moveRegReg();
-			break;
-		case 14:
-			moveImmReg();
-			break;
-		case 15:
-			incReg();
-			break;
-		case 16:
-			incMem();
-			break;
-		case 17:
-			jmp();
-			break;
-		case 18:
-			jn();
-			break;
-		case 19:
-			jz();
-			break;
-		case 20:
-			jnz();
-			break;
-		case 21:
-			jeq();
-			break;
-		case 22:
-			jgt();
-			break;
-		case 23:
-			jlw();
-			break;
-		case 24:
-			ldi();
-			break;
-		case 25:
-			read();
-			break;
-		case 26:
-			store();
-			break;
-		default:
-			halt = true;
-			break;
-		}
 		if (simulation)
-			simulationDecodeExecuteAfter();
-	}
-
-
-	/**
-	 * This method is used to show the components status in simulation conditions
-	 * NOT TESTED
-	 * @param command 
-	 */
-	private void simulationDecodeExecuteBefore(int command) {
-		System.out.println("----------BEFORE Decode and Execute phases--------------");
-		String instruction;
-		int parameter = 0;
-		for (Register r:registersList) {
-			System.out.println(r.getRegisterName()+": "+r.getData());
+			traceSink.beforeExecute(this, command);
+		if (command >= 0 && command < microprograms.length) {
+			microprograms[command].execute(this);
+			instructionCount++;
 		}
-		if (command !=-1)
-			instruction = commandsList.get(command);
 		else
-			instruction = "END";
-		if (hasOperands(instruction)) {
-			parameter = memory.getDataList()[PC.getData()+1];
-			System.out.println("Instruction: "+instruction+" "+parameter);
-		}
-		else
-			System.out.println("Instruction: "+instruction);
-		if ("read".equals(instruction))
-			System.out.println("memory["+parameter+"]="+memory.getDataList()[parameter]);
-		
+			halt = true;
+		counters.end(command);
+		if (simulation)
+			traceSink.afterExecute(this, command);
+		if (watchpoints != null && watchpoints.isPaused())
+			halt = true; //controlUnitEexec continues from the next instruction
 	}
 
-	/**
-	 * This method is used to show the components status in simulation conditions
-	 * NOT TESTED 
-	 */
-	private void simulationDecodeExecuteAfter() {
-		String instruction;
-		System.out.println("-----------AFTER Decode and Execute phases--------------");
-		System.out.println("Internal Bus 1: "+intbus1.get());
-		System.out.println("Internal Bus 2: "+intbus2.get());
-		System.out.println("External Bus 1: "+extbus1.get());
-		for (Register r:registersList) {
-			System.out.println(r.getRegisterName()+": "+r.getData());
-		}
-		Scanner entrada = new Scanner(System.in);
-		System.out.println("Press <Enter>");
-		String mensagem = entrada.nextLine();
-	}
 
 	/**
 	 * This method uses PC to find, in the memory,
@@ -1355,36 +1589,14 @@ public class Architecture {
 	 * NOT TESTED!
 	 */
 	private void fetch() {
+		counters.begin();
+		if (watchpoints != null)
+			watchpoints.setPc(PC.getData());
 		PC.read();
 		memory.read();
 		IR.store();
-		simulationFetch();
-	}
-
-	/**
-	 * This method is used to show the components status in simulation conditions
-	 * NOT TESTED!!!!!!!!!
-	 */
-	private void simulationFetch() {
-		if (simulation) {
-			System.out.println("-------Fetch Phase------");
-			System.out.println("PC: "+PC.getData());
-			System.out.println("IR: "+IR.getData());
-		}
-	}
-
-	/**
-	 * This method is used to show in a correct way the operands (if there is any) of instruction,
-	 * when in simulation mode
-	 * NOT TESTED!!!!!
-	 * @param instruction 
-	 * @return
-	 */
-	private boolean hasOperands(String instruction) {
-		if ("inc".equals(instruction)) //inc is the only one instruction having no operands
-			return false;
-		else
-			return true;
+		if (simulation)
+			traceSink.fetch(this);
 	}
 
 	/**
@@ -1397,11 +1609,35 @@ public class Architecture {
 		return memorySize;
 	}
 	
+	/**
+	 * The first argument (optional) is the execution mode (microprogram, fast, tiered or closure).
+	 * The microprogram mode runs in simulation mode, showing each step in the console.
+	 * The second argument (optional) is a trace file that replaces the console (a .bin file
+	 * gets the binary trace) and the third one is the trace level (instructions, registers or buses)
+	 * @param args
+	 * @throws IOException
+	 */
 	public static void main(String[] args) throws IOException {
+		ExecutionMode mode = ExecutionMode.MICROPROGRAM;
+		if (args != null && args.length > 0)
+			mode = ExecutionMode.valueOf(args[0].toUpperCase());
 		Assembler.main(null);
-		Architecture arch = new Architecture(true);
+		Architecture arch = new Architecture(mode == ExecutionMode.MICROPROGRAM, mode);
+		if (args != null && args.length > 1) {
+			TraceSink.Level level = TraceSink.Level.REGISTERS;
+			if (args.length > 2)
+				level = TraceSink.Level.valueOf(args[2].toUpperCase());
+			if (args[1].endsWith(".bin"))
+				arch.setTraceSink(new BinaryTraceSink(args[1], level));
+			else
+				arch.setTraceSink(new TextTraceSink(args[1], level));
+		}
 		arch.readExec("program");
 		arch.controlUnitEexec();
+		if (arch.getTraceSink() != null)
+			arch.getTraceSink().close();
+		if (mode == ExecutionMode.TIERED)
+			System.out.println(arch.getJitCompiler());
 	}
 	
 
@@ -0,0 +1,462 @@
+package architecture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import components.ArrayMemory;
+import components.CowMemory;
+import components.Memory;
+import components.MemoryBackend;
+import components.MemoryImage;
+import components.PagedMemory;
+
+/**
+ * This class executes many programs (.dxf or .dxb files), each one in its own Architecture,
+ * over a bounded pool of threads. The architectures share nothing, so the
+ * throughput grows with the amount of threads (by default, one per core).
+ *
+ * Each program is read once into a MemoryImage, kept by the runner, so running
+ * it again (in another batch, with other inputs) does not read the file again.
+ * Each execution gets its memory from that image:
+ *   by default, an ArrayMemory with a copy of the image. It is dense, so the
+ *   chosen engine is used;
+ *   with copy on write, a CowMemory over the shared image, which copies only the
+ *   pages the program writes (the last page is cut at the memory size). It saves the
+ *   memory (and the copy) of large memories mostly untouched. The fast engines run
+ *   over it through MemoryBackend, but the tiered mode compiles no blocks (it needs
+ *   an array) and only interprets.
+ *
+ * Before each execution the initial inputs are stored in the memory. The result
+ * of each program (the final registers, the selected memory cells, the instruction
+ * count, the wall time and the totals of the performance counters) is reported
+ * as soon as the program ends, in the order they end.
+ *
+ * Usage: java architecture.BatchRunner [options] files or directories...
+ *   -mode m        the execution mode (microprogram, fast, tiered or closure). Default: fast
+ *   -threads n     the amount of programs executed at the same time. Default: the cores
+ *   -virtual       uses virtual threads (when the JVM has them)
+ *   -in addr=val   stores val in the position addr before the execution (repeatable)
+ *   -cells a,b,... the memory positions reported in the results
+ *   -memory n      the memory size of each architecture. Default: Architecture.DEFAULT_MEMORY_SIZE
+ *   -cow           the executions share the program image (copy on write)
+ *   -limit n       the instructions each program can execute. Default: no limit
+ *   -timeout ms    the time each program can take. Default: DEFAULT_TIME_LIMIT
+ *
+ * A program stopped by a limit (it never ends, for instance) gets an error result,
+ * so it does not hold the batch.
+ */
+public class BatchRunner {
+
+	public static final long DEFAULT_TIME_LIMIT = 60000; //milliseconds
+
+	/**
+	 * The final state of one program
+	 */
+	public static class Result {
+		private final String program;
+		private final int registers[]; //RPG0..RPG3, PC and IR
+		private final int flags[];
+		private final int cells[]; //the values of the selected memory positions
+		private final long instructions;
+		private final long nanos;
+		private final long events[]; //the totals of the performance counters, in the order of PerformanceCounters.Event
+		private final String error; //null if the program was executed
+
+		Result(String program, int registers[], int flags[], int cells[], long instructions, long nanos,
+				long events[], String error) {
+			this.program = program;
+			this.registers = registers;
+			this.flags = flags;
+			this.cells = cells;
+			this.instructions = instructions;
+			this.nanos = nanos;
+			this.events = events;
+			this.error = error;
+		}
+
+		public String getProgram() {
+			return program;
+		}
+
+		/**
+		 * @return RPG0, RPG1, RPG2, RPG3, PC and IR
+		 */
+		public int[] getRegisters() {
+			return registers;
+		}
+
+		/**
+		 * @return the bits zero, negative and not zero
+		 */
+		public int[] getFlags() {
+			return flags;
+		}
+
+		/**
+		 * @return the values of the selected memory positions, in the order they were selected
+		 */
+		public int[] getCells() {
+			return cells;
+		}
+
+		public long getInstructions() {
+			return instructions;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * The fast engines report the same totals as the microprograms (see PerformanceCounters)
+		 * @param event
+		 * @return the total of the event in the execution
+		 */
+		public long getEvents(PerformanceCounters.Event event) {
+			return events[event.ordinal()];
+		}
+
+		/**
+		 * @return the reason the program could not be executed or null
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * One line: program, registers, flags, cells, instructions, nanoseconds and
+		 * the performance counters (or the error)
+		 */
+		@Override
+		public String toString() {
+			if (error != null)
+				return program+";error;"+error;
+			StringBuilder text = new StringBuilder();
+			for (int i=0;i<events.length;i++) {
+				if (i > 0)
+					text.append(',');
+				text.append(events[i]);
+			}
+			return program+";"+join(registers)+";"+join(flags)+";"+join(cells)+";"+instructions+";"+nanos+";"+text;
+		}
+
+		private static String join(int values[]) {
+			StringBuilder text = new StringBuilder();
+			for (int i=0;i<values.length;i++) {
+				if (i > 0)
+					text.append(',');
+				text.append(values[i]);
+			}
+			return text.toString();
+		}
+	}
+
+	private ExecutionMode mode;
+	private int threads;
+	private boolean virtualThreads;
+	private LinkedHashMap<Integer, Integer> inputs; //position -> value, stored before each execution
+	private int cells[];
+	private int memorySize;
+	private long instructionLimit; //0: no limit
+	private long timeLimit; //milliseconds, 0: no limit
+	private boolean copyOnWrite;
+	private ConcurrentHashMap<String, MemoryImage> images; //the programs already read
+
+	/**
+	 * Creates a runner in the fast mode with one thread per core
+	 */
+	public BatchRunner() {
+		this(ExecutionMode.FAST, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param mode the engine used by each architecture (the simulation mode is never used)
+	 * @param threads how many programs are executed at the same time
+	 */
+	public BatchRunner(ExecutionMode mode, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("The batch needs at least one thread");
+		this.mode = mode;
+		this.threads = threads;
+		this.inputs = new LinkedHashMap<Integer, Integer>();
+		this.cells = new int[0];
+		this.memorySize = Architecture.DEFAULT_MEMORY_SIZE;
+		this.timeLimit = DEFAULT_TIME_LIMIT;
+		this.images = new ConcurrentHashMap<String, MemoryImage>();
+	}
+
+	/**
+	 * @param copyOnWrite true to run each program over its shared image (see CowMemory),
+	 * which is not compiled in the tiered mode
+	 */
+	public void setCopyOnWrite(boolean copyOnWrite) {
+		this.copyOnWrite = copyOnWrite;
+	}
+
+	/**
+	 * @param instructionLimit the instructions each program can execute (0 for no limit)
+	 */
+	public void setInstructionLimit(long instructionLimit) {
+		this.instructionLimit = instructionLimit;
+	}
+
+	/**
+	 * @param millis the time each program can take (0 for no limit)
+	 */
+	public void setTimeLimit(long millis) {
+		this.timeLimit = millis;
+	}
+
+	/**
+	 * @param memorySize the memory size of each architecture (a dense memory, see ArrayMemory, unless copy on write)
+	 */
+	public void setMemorySize(int memorySize) {
+		this.memorySize = memorySize;
+	}
+
+	/**
+	 * Virtual threads are used only if the JVM provides them; otherwise the pool has platform threads.
+	 * In both cases no more than threads programs are executed at the same time
+	 * @param virtualThreads
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * This method includes an initial input: the value is stored in the position
+	 * after each program is loaded
+	 * @param position
+	 * @param value
+	 */
+	public void addInput(int position, int value) {
+		inputs.put(position, value);
+	}
+
+	/**
+	 * @param cells the memory positions reported in the results
+	 */
+	public void setCells(int... cells) {
+		this.cells = cells.clone();
+	}
+
+	/**
+	 * This method executes all the programs and waits until the last one ends.
+	 * The consumer receives one result at a time (never from two threads at once),
+	 * as soon as each program ends
+	 * @param programs the .dxf or .dxb files
+	 * @param results
+	 * @throws InterruptedException
+	 */
+	public void run(ArrayList<File> programs, Consumer<Result> results) throws InterruptedException {
+		ExecutorService pool = newPool();
+		Semaphore running = new Semaphore(threads); //bounds the virtual threads, as the fixed pool does
+		Object lock = new Object();
+		try {
+			for (File program : programs) {
+				pool.execute(() -> {
+					running.acquireUninterruptibly();
+					Result result;
+					try {
+						result = execute(program);
+					}
+					finally {
+						running.release();
+					}
+					synchronized (lock) {
+						results.accept(result);
+					}
+				});
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+		while (!pool.awaitTermination(1, TimeUnit.MINUTES))
+			;
+	}
+
+	/**
+	 * This method executes one program in a new architecture
+	 * @param program the .dxf or .dxb file
+	 * @return
+	 */
+	public Result execute(File program) {
+		long start = System.nanoTime();
+		String name = program.getPath();
+		try {
+			MemoryImage image = image(program);
+			MemoryBackend backend;
+			if (copyOnWrite)
+				backend = new CowMemory(image);
+			else {
+				backend = new ArrayMemory(memorySize);
+				image.copyTo(backend);
+			}
+			Architecture arch = new Architecture(false, mode, backend);
+			arch.setInstructionLimit(instructionLimit);
+			arch.setTimeLimit(timeLimit);
+			Memory memory = arch.getMemory();
+			for (Map.Entry<Integer, Integer> input : inputs.entrySet())
+				memory.setData(input.getKey(), input.getValue()); //the decoded program is informed
+			arch.controlUnitEexec();
+			long nanos = System.nanoTime() - start;
+			if (arch.isLimitReached())
+				return new Result(name, null, null, null, arch.getInstructionCount(), nanos, null,
+						"limit reached after "+arch.getInstructionCount()+" instructions");
+			int registers[] = new int[6];
+			for (int i=0;i<registers.length;i++)
+				registers[i] = arch.getRegistersList().get(i).getData();
+			int flags[] = new int[3];
+			for (int i=0;i<flags.length;i++)
+				flags[i] = arch.getFlags().getBit(i);
+			int values[] = new int[cells.length];
+			for (int i=0;i<cells.length;i++)
+				values[i] = (cells[i] >= 0 && cells[i] < memory.getSize()) ? memory.getData(cells[i]) : 0;
+			PerformanceCounters.Event all[] = PerformanceCounters.Event.values();
+			long events[] = new long[all.length];
+			for (int i=0;i<all.length;i++)
+				events[i] = arch.getCounters().get(all[i]);
+			return new Result(name, registers, flags, values, arch.getInstructionCount(), nanos, events, null);
+		}
+		catch (Throwable e) { //one bad program does not stop the batch
+			return new Result(name, null, null, null, 0, System.nanoTime() - start, null, e.toString());
+		}
+	}
+
+	/**
+	 * This method gives the image of the program just loaded, reading the file only
+	 * the first time (or when it changed)
+	 * @param program the .dxf or .dxb file
+	 * @return
+	 * @throws IOException
+	 */
+	private MemoryImage image(File program) throws IOException {
+		String key = program.getPath()+":"+program.lastModified()+":"+memorySize;
+		MemoryImage image = images.get(key);
+		if (image != null)
+			return image;
+		String name = program.getPath();
+		Architecture loader = new Architecture(false, ExecutionMode.MICROPROGRAM, new PagedMemory(memorySize));
+		if (name.endsWith(Executable.EXTENSION))
+			loader.readBinaryExec(name.substring(0, name.length() - Executable.EXTENSION.length()));
+		else
+			loader.readExec(name.substring(0, name.length() - ".dxf".length()));
+		image = new MemoryImage(loader.getMemory());
+		MemoryImage read = images.putIfAbsent(key, image); //another thread may have read it meanwhile
+		return (read != null) ? read : image;
+	}
+
+	/**
+	 * The images of the programs already read are kept until this method is called
+	 */
+	public void clearImages() {
+		images.clear();
+	}
+
+	/**
+	 * Virtual threads exist from Java 21 on, so they are created by reflection
+	 */
+	private ExecutorService newPool() {
+		if (virtualThreads) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			}
+			catch (ReflectiveOperationException e) {
+				//no virtual threads in this JVM: the platform threads are used
+			}
+		}
+		return Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * This method lists the .dxf and .dxb files: the files given and the ones inside the directories given
+	 * @param paths
+	 * @return
+	 */
+	public static ArrayList<File> listPrograms(String... paths) {
+		ArrayList<File> programs = new ArrayList<File>();
+		for (String path : paths) {
+			File file = new File(path);
+			if (file.isDirectory()) {
+				File inside[] = file.listFiles((dir, name) -> name.endsWith(".dxf") || name.endsWith(Executable.EXTENSION));
+				if (inside != null) {
+					Arrays.sort(inside);
+					programs.addAll(Arrays.asList(inside));
+				}
+			}
+			else if (!path.endsWith(".dxf") && !path.endsWith(Executable.EXTENSION))
+				programs.add(new File(path+".dxf")); //the name without the extension, as in readExec
+			else
+				programs.add(file);
+		}
+		return programs;
+	}
+
+	/**
+	 * This method executes the programs given in the command line and prints
+	 * one line per program (see Result.toString)
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		ExecutionMode mode = ExecutionMode.FAST;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean virtual = false;
+		LinkedHashMap<Integer, Integer> inputs = new LinkedHashMap<Integer, Integer>();
+		int cells[] = new int[0];
+		int memorySize = Architecture.DEFAULT_MEMORY_SIZE;
+		long instructionLimit = 0;
+		long timeLimit = DEFAULT_TIME_LIMIT;
+		boolean copyOnWrite = false;
+		ArrayList<String> paths = new ArrayList<String>();
+		for (int i=0;i<args.length;i++) {
+			if ("-mode".equals(args[i]))
+				mode = ExecutionMode.valueOf(args[++i].toUpperCase());
+			else if ("-threads".equals(args[i]))
+				threads = Integer.parseInt(args[++i]);
+			else if ("-virtual".equals(args[i]))
+				virtual = true;
+			else if ("-in".equals(args[i])) {
+				String input[] = args[++i].split("=");
+				inputs.put(Integer.parseInt(input[0]), Integer.parseInt(input[1]));
+			}
+			else if ("-cells".equals(args[i]))
+				cells = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+			else if ("-memory".equals(args[i]))
+				memorySize = Integer.parseInt(args[++i]);
+			else if ("-limit".equals(args[i]))
+				instructionLimit = Long.parseLong(args[++i]);
+			else if ("-timeout".equals(args[i]))
+				timeLimit = Long.parseLong(args[++i]);
+			else if ("-cow".equals(args[i]))
+				copyOnWrite = true;
+			else
+				paths.add(args[i]);
+		}
+		BatchRunner runner = new BatchRunner(mode, threads);
+		runner.setVirtualThreads(virtual);
+		for (Map.Entry<Integer, Integer> input : inputs.entrySet())
+			runner.addInput(input.getKey(), input.getValue());
+		runner.setCells(cells);
+		runner.setMemorySize(memorySize);
+		runner.setInstructionLimit(instructionLimit);
+		runner.setTimeLimit(timeLimit);
+		runner.setCopyOnWrite(copyOnWrite);
+		long start = System.nanoTime();
+		ArrayList<File> programs = listPrograms(paths.toArray(new String[paths.size()]));
+		runner.run(programs, System.out::println);
+		System.err.println(programs.size()+" programs in "+(System.nanoTime() - start) / 1000000+" ms");
+	}
+
+}
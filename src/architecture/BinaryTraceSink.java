@@ -0,0 +1,63 @@
+package architecture;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This sink writes a compact binary trace.
+ * Header: "OACT", 1 byte version, 1 byte level (the Level ordinal).
+ * Then one record per instruction, with the numbers as variable length
+ * integers (zigzag, 7 bits per byte):
+ *   the address and the command (-1 or any code out of the set ends the program);
+ *   in the level REGISTERS or BUSES: RPG0..RPG3, PC and IR after the execution
+ *   and 1 byte with the Flags bits (bit 0 zero, bit 1 negative, bit 2 not zero);
+ *   in the level BUSES: extbus1, intbus1 and intbus2 after the execution.
+ * Most records take from 2 to 12 bytes.
+ */
+public class BinaryTraceSink extends BufferedTraceSink {
+
+	public static final int VERSION = 1;
+
+	private int pc; //the address of the instruction being executed
+
+	public BinaryTraceSink(String filename, Level level) throws IOException {
+		this(new FileOutputStream(filename), level);
+	}
+
+	public BinaryTraceSink(OutputStream out, Level level) {
+		super(out, level);
+		writeText("OACT");
+		writeByte(VERSION);
+		writeByte(level.ordinal());
+	}
+
+	@Override
+	public void fetch(Architecture arch) {
+	}
+
+	@Override
+	public void beforeExecute(Architecture arch, int command) {
+		pc = arch.getPC().getData();
+	}
+
+	@Override
+	public void afterExecute(Architecture arch, int command) {
+		writeVarint(pc);
+		writeVarint(command);
+		if (level == Level.INSTRUCTIONS)
+			return;
+		for (int i=0;i<6;i++) //RPG0..RPG3, PC and IR
+			writeVarint(arch.getRegistersList().get(i).getData());
+		int bits = 0;
+		for (int i=0;i<3;i++)
+			bits |= arch.getFlags().getBit(i) << i;
+		writeByte(bits);
+		if (level == Level.BUSES) {
+			writeVarint(arch.getExtbus1().get());
+			writeVarint(arch.getIntbus1().get());
+			writeVarint(arch.getIntbus2().get());
+		}
+	}
+
+}
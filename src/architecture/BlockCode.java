@@ -0,0 +1,19 @@
+package architecture;
+
+/**
+ * This interface is implemented by the classes generated by BlockCompiler.
+ * Each implementation executes one basic block of the program.
+ */
+interface BlockCode {
+
+	/**
+	 * This method executes the block
+	 * @param registers RPG0..RPG3
+	 * @param memory
+	 * @param flags the Flags bits
+	 * @param state receives the IR value in the position 0
+	 * @return the PC of the next instruction
+	 */
+	int run(int registers[], int memory[], int flags[], int state[]);
+
+}
@@ -0,0 +1,529 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class translates a basic block of the program into a JVM class
+ * implementing BlockCode, defined as a hidden class of this package.
+ *
+ * The generated run method has no branches: the flags and the conditional jumps
+ * are computed arithmetically, so the class needs no stack map frames.
+ * RPG0..RPG3 are kept in local variables during the block and the memory
+ * positions, immediates and register ids are constants of the code.
+ * Only instructions accepted by JitCompiler.isCompilable reach this class.
+ */
+class BlockCompiler {
+
+	//local variables of the generated run method
+	private static final int REGISTERS = 1;
+	private static final int MEMORY = 2;
+	private static final int FLAGS = 3;
+	private static final int STATE = 4;
+	private static final int RPG = 5; //RPG0..RPG3 are the locals 5..8
+	private static final int RES = 9; //the result of the last ULA operation
+	private static final int V = 10; //the data read by the last instruction
+	private static final int TMP = 11;
+	private static final int NEXT = 12;
+	private static final int MAX_LOCALS = 13;
+	private static final int MAX_STACK = 8;
+
+	//JVM instructions
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD = 0x19;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int IALOAD = 0x2e;
+	private static final int ISTORE = 0x36;
+	private static final int IASTORE = 0x4f;
+	private static final int IADD = 0x60;
+	private static final int LSUB = 0x65;
+	private static final int ISUB = 0x64;
+	private static final int IMUL = 0x68;
+	private static final int INEG = 0x74;
+	private static final int IUSHR = 0x7c;
+	private static final int LUSHR = 0x7d;
+	private static final int IOR = 0x80;
+	private static final int IXOR = 0x82;
+	private static final int I2L = 0x85;
+	private static final int L2I = 0x88;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKESPECIAL = 0xb7;
+
+	private int size;
+	private ByteArrayOutputStream code;
+	private ArrayList<byte[]> constants;
+	private Map<Integer, Integer> integers;
+	private boolean modified[];
+
+	/**
+	 * @param size the memory size (reads out of it give the address itself)
+	 */
+	BlockCompiler(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * This method generates and loads the class of a block
+	 * @param pcs the address of each instruction
+	 * @param ops the commands
+	 * @param operands the 3 operand words of each instruction
+	 * @param next the PC after the block, when its last instruction is not a jump
+	 * @return the block code
+	 */
+	BlockCode compile(int pcs[], Opcode ops[], int operands[][], int next) {
+		constants = new ArrayList<>();
+		integers = new HashMap<>();
+		modified = new boolean[4];
+		code = new ByteArrayOutputStream();
+		int thisClass = classConstant("architecture/CompiledBlock"); //hidden classes receive a unique suffix
+		int superClass = classConstant("java/lang/Object");
+		int blockInterface = classConstant("architecture/BlockCode");
+		int objectInit = methodConstant(superClass, "<init>", "()V");
+		int init = utf8("<init>");
+		int initType = utf8("()V");
+		int run = utf8("run");
+		int runType = utf8("([I[I[I[I)I");
+		int codeAttribute = utf8("Code");
+
+		for (int i=0;i<4;i++) { //the registers are loaded into the locals
+			load(REGISTERS);
+			push(i);
+			op(IALOAD);
+			store(RPG+i);
+		}
+		int lastFlags = -1;
+		for (int i=0;i<ops.length;i++)
+			if (setsFlags(ops[i]))
+				lastFlags = i;
+		boolean jumped = false;
+		for (int i=0;i<ops.length;i++) {
+			int a = operands[i][0], b = operands[i][1], c = operands[i][2];
+			instruction(pcs[i], ops[i], a, b, c, i == ops.length-1);
+			if (i == lastFlags)
+				statusFlags();
+			jumped = isJump(ops[i]);
+		}
+		if (!jumped) {
+			push(next);
+			store(NEXT);
+		}
+		for (int i=0;i<4;i++) { //only the changed registers are written back
+			if (modified[i]) {
+				load(REGISTERS);
+				push(i);
+				load(RPG+i);
+				op(IASTORE);
+			}
+		}
+		load(NEXT);
+		op(IRETURN);
+		byte runCode[] = code.toByteArray();
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(52); //java 8 class files need no stack maps for code without branches
+			out.writeShort(constants.size()+1);
+			for (byte constant[] : constants)
+				out.write(constant);
+			out.writeShort(0x0030); //final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(blockInterface);
+			out.writeShort(0); //no fields
+			out.writeShort(2); //the constructor and run
+			byte initCode[] = {(byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN};
+			method(out, init, initType, codeAttribute, 1, 1, initCode);
+			method(out, run, runType, codeAttribute, MAX_STACK, MAX_LOCALS, runCode);
+			out.writeShort(0); //no class attributes
+			out.flush();
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes.toByteArray(), true);
+			return (BlockCode) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+		} catch (Throwable e) {
+			throw new IllegalStateException("Error while compiling the block at "+pcs[0], e);
+		}
+	}
+
+	/**
+	 * This method generates the code of one instruction, with the same effects
+	 * the FastEngine has for it
+	 */
+	private void instruction(int pc, Opcode opcode, int a, int b, int c, boolean last) {
+		switch (opcode) {
+		case ADD_REG_REG:
+		case SUB_REG_REG:
+			load(RPG+a);
+			load(RPG+b);
+			op(opcode == Opcode.ADD_REG_REG ? IADD : ISUB);
+			store(RES);
+			setRegister(b, RES);
+			setIR(last, pc, opcode, -1);
+			break;
+		case ADD_MEM_REG:
+		case SUB_MEM_REG:
+		case IMUL_MEM_REG:
+			readMemory(a);
+			store(V);
+			load(V);
+			load(RPG+b);
+			op(opcode == Opcode.ADD_MEM_REG ? IADD : opcode == Opcode.SUB_MEM_REG ? ISUB : IMUL);
+			store(RES);
+			setRegister(b, RES);
+			setIR(last, pc, opcode, V);
+			break;
+		case ADD_REG_MEM:
+		case SUB_REG_MEM:
+			load(RPG+a);
+			readMemory(b);
+			op(opcode == Opcode.ADD_REG_MEM ? IADD : ISUB);
+			store(RES);
+			writeMemory(b, RES);
+			setIR(last, pc, opcode, RES);
+			break;
+		case ADD_IMM_REG:
+		case SUB_IMM_REG:
+			push(a);
+			load(RPG+b);
+			op(opcode == Opcode.ADD_IMM_REG ? IADD : ISUB);
+			store(RES);
+			setRegister(b, RES);
+			push(a);
+			store(V);
+			setIR(last, pc, opcode, V);
+			break;
+		case ADD_IMM_MEM:
+		case SUB_IMM_MEM:
+			push(a);
+			readMemory(b);
+			op(opcode == Opcode.ADD_IMM_MEM ? IADD : ISUB);
+			store(RES);
+			writeMemory(b, RES);
+			setIR(last, pc, opcode, RES);
+			break;
+		case IMUL_REG_REG:
+			load(RPG+a);
+			store(V);
+			load(V);
+			load(RPG+b);
+			op(IMUL);
+			store(RES);
+			setRegister(b, RES);
+			setIR(last, pc, opcode, V);
+			break;
+		case MOVE_MEM_REG:
+		case READ:
+			readMemory(a);
+			store(V);
+			setRegister(b, V);
+			setIR(last, pc, opcode, V);
+			break;
+		case MOVE_REG_MEM:
+		case STORE:
+			writeMemory(b, RPG+a);
+			setIR(last, pc, opcode, -1);
+			break;
+		case MOVE_REG_REG:
+			setRegister(b, RPG+a);
+			setIR(last, pc, opcode, -1);
+			break;
+		case MOVE_IMM_REG:
+			push(a);
+			store(V);
+			setRegister(b, V);
+			setIR(last, pc, opcode, V);
+			break;
+		case LDI:
+			push(b);
+			store(V);
+			setRegister(a, V);
+			setIR(last, pc, opcode, -1);
+			break;
+		case INC_REG:
+			load(RPG+a);
+			push(1);
+			op(IADD);
+			store(RES);
+			setRegister(a, RES);
+			setIR(last, pc, opcode, -1);
+			break;
+		case INC_MEM:
+			readMemory(a);
+			push(1);
+			op(IADD);
+			store(RES);
+			writeMemory(a, RES);
+			setIR(last, pc, opcode, RES);
+			break;
+		case JMP:
+			setIR(last, pc, opcode, -1);
+			push(a);
+			store(NEXT);
+			break;
+		case JN:
+		case JZ:
+		case JNZ:
+			setIR(last, pc, opcode, -1);
+			load(FLAGS);
+			push(opcode == Opcode.JZ ? 0 : opcode == Opcode.JN ? 1 : 2);
+			op(IALOAD);
+			push(1);
+			op(IXOR);
+			isZero(); //the jump happens when the bit is 1
+			select(a, pc+2);
+			break;
+		case JEQ:
+		case JNEQ:
+			setIR(last, pc, opcode, RPG+a);
+			load(RPG+a);
+			load(RPG+b);
+			op(IXOR);
+			if (opcode == Opcode.JEQ)
+				isZero();
+			else
+				isNotZero();
+			select(c, pc+4);
+			break;
+		case JGT:
+		case JLW:
+			setIR(last, pc, opcode, RPG+a);
+			//the sign of the difference computed in 64 bits gives the comparison
+			load(RPG + (opcode == Opcode.JGT ? b : a));
+			op(I2L);
+			load(RPG + (opcode == Opcode.JGT ? a : b));
+			op(I2L);
+			op(LSUB);
+			push(63);
+			op(LUSHR);
+			op(L2I);
+			select(c, pc+4);
+			break;
+		default:
+			throw new IllegalArgumentException("The command "+opcode.getMnemonic()+" can not be compiled");
+		}
+	}
+
+	static boolean setsFlags(Opcode op) {
+		switch (op) {
+		case ADD_REG_REG: case ADD_MEM_REG: case ADD_REG_MEM: case ADD_IMM_REG: case ADD_IMM_MEM:
+		case SUB_REG_REG: case SUB_MEM_REG: case SUB_REG_MEM: case SUB_IMM_REG: case SUB_IMM_MEM:
+		case IMUL_REG_REG: case IMUL_MEM_REG: case INC_REG: case INC_MEM:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	static boolean isJump(Opcode op) {
+		switch (op) {
+		case JMP: case JN: case JZ: case JNZ: case JEQ: case JNEQ: case JGT: case JLW:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * The IR keeps the command code unless the last instruction moved a data into it.
+	 * Only the last instruction of the block matters
+	 * @param local the local with the IR value, or -1 for the command code
+	 */
+	private void setIR(boolean last, int pc, Opcode opcode, int local) {
+		if (!last)
+			return;
+		load(STATE);
+		push(0);
+		if (local < 0)
+			push(opcode.getCode());
+		else
+			load(local);
+		op(IASTORE);
+	}
+
+	/**
+	 * flags[0] = result==0, flags[1] = result<0, flags[2] = result!=0
+	 */
+	private void statusFlags() {
+		load(RES);
+		isNotZero();
+		store(TMP);
+		load(FLAGS);
+		push(0);
+		load(TMP);
+		push(1);
+		op(IXOR);
+		op(IASTORE);
+		load(FLAGS);
+		push(1);
+		load(RES);
+		push(31);
+		op(IUSHR);
+		op(IASTORE);
+		load(FLAGS);
+		push(2);
+		load(TMP);
+		op(IASTORE);
+	}
+
+	/**
+	 * Replaces the value on the stack by 1 if it is not zero or 0 otherwise
+	 */
+	private void isNotZero() {
+		store(TMP);
+		load(TMP);
+		load(TMP);
+		op(INEG);
+		op(IOR);
+		push(31);
+		op(IUSHR);
+	}
+
+	/**
+	 * Replaces the value on the stack by 1 if it is zero or 0 otherwise
+	 */
+	private void isZero() {
+		isNotZero();
+		push(1);
+		op(IXOR);
+	}
+
+	/**
+	 * With a condition (0 or 1) on the stack, stores in NEXT the target or the following address
+	 */
+	private void select(int target, int following) {
+		push(target - following);
+		op(IMUL);
+		push(following);
+		op(IADD);
+		store(NEXT);
+	}
+
+	private void readMemory(int address) {
+		if (address >= 0 && address < size) {
+			load(MEMORY);
+			push(address);
+			op(IALOAD);
+		}
+		else //the memory read out of range leaves the address in the bus
+			push(address);
+	}
+
+	private void writeMemory(int address, int local) {
+		load(MEMORY);
+		push(address);
+		load(local);
+		op(IASTORE);
+	}
+
+	private void setRegister(int register, int local) {
+		load(local);
+		store(RPG+register);
+		modified[register] = true;
+	}
+
+	private void push(int value) {
+		if (value >= -1 && value <= 5)
+			op(ICONST_0 + value);
+		else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			op(BIPUSH);
+			op(value & 0xff);
+		}
+		else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			op(SIPUSH);
+			op((value >> 8) & 0xff);
+			op(value & 0xff);
+		}
+		else {
+			int index = integerConstant(value);
+			op(LDC_W);
+			op(index >> 8);
+			op(index & 0xff);
+		}
+	}
+
+	private void load(int local) {
+		op(local >= REGISTERS && local <= STATE ? ALOAD : ILOAD); //the arrays are the parameters
+		op(local);
+	}
+
+	private void store(int local) {
+		op(ISTORE);
+		op(local);
+	}
+
+	private void op(int opcode) {
+		code.write(opcode);
+	}
+
+	private static void method(DataOutputStream out, int name, int type, int codeAttribute,
+			int maxStack, int maxLocals, byte code[]) throws IOException {
+		out.writeShort(0x0001); //public
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(codeAttribute);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); //no exceptions table
+		out.writeShort(0); //no code attributes
+	}
+
+	//constant pool
+
+	private int utf8(String value) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(1);
+			out.writeUTF(value);
+			return constant(bytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private int classConstant(String name) {
+		int index = utf8(name);
+		return constant(new byte[] {7, (byte) (index >> 8), (byte) index});
+	}
+
+	private int methodConstant(int owner, String name, String type) {
+		int nameIndex = utf8(name);
+		int typeIndex = utf8(type);
+		int nameAndType = constant(new byte[] {12, (byte) (nameIndex >> 8), (byte) nameIndex,
+				(byte) (typeIndex >> 8), (byte) typeIndex});
+		return constant(new byte[] {10, (byte) (owner >> 8), (byte) owner,
+				(byte) (nameAndType >> 8), (byte) nameAndType});
+	}
+
+	private int integerConstant(int value) {
+		Integer index = integers.get(value);
+		if (index == null) {
+			index = constant(new byte[] {3, (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value});
+			integers.put(value, index);
+		}
+		return index;
+	}
+
+	private int constant(byte entry[]) {
+		constants.add(entry);
+		return constants.size();
+	}
+
+}
@@ -0,0 +1,183 @@
+package architecture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * This class is the base of the sinks that write the trace into a stream (a file).
+ * The trace is encoded into chunks of memory; each full chunk is handed to a
+ * writer thread, so the execution does not wait for the disk. Only when the
+ * writer falls behind by many chunks the execution waits for it, so the memory
+ * used by the trace stays bounded.
+ */
+abstract class BufferedTraceSink implements TraceSink {
+
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final int PENDING_CHUNKS = 8; //the chunks waiting for the writer thread
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	protected final Level level;
+	private OutputStream out;
+	private ByteBuffer chunk;
+	private ArrayBlockingQueue<ByteBuffer> full;
+	private ArrayBlockingQueue<ByteBuffer> free; //the chunks already written, used again
+	private Thread writer;
+	private volatile IOException error; //the first error of the writer thread
+	private boolean closed;
+
+	BufferedTraceSink(OutputStream out, Level level) {
+		this.out = out;
+		this.level = level;
+		this.chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		this.full = new ArrayBlockingQueue<ByteBuffer>(PENDING_CHUNKS);
+		this.free = new ArrayBlockingQueue<ByteBuffer>(PENDING_CHUNKS + 1);
+		this.writer = new Thread(this::write, "trace writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * The writer thread: writes the chunks until the end of the trace
+	 */
+	private void write() {
+		while (true) {
+			ByteBuffer next = take();
+			if (next == END)
+				return;
+			if (error == null) {
+				try {
+					out.write(next.array(), 0, next.limit());
+				}
+				catch (IOException e) {
+					error = e; //reported by close()
+				}
+			}
+			next.clear();
+			free.offer(next);
+		}
+	}
+
+	private ByteBuffer take() {
+		while (true) {
+			try {
+				return full.take();
+			}
+			catch (InterruptedException e) {
+				//the writer only stops at the end of the trace
+			}
+		}
+	}
+
+	/**
+	 * This method hands the chunk to the writer thread, waiting if it is too far behind
+	 */
+	private void submit(ByteBuffer buffer) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				full.put(buffer);
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * This method guarantees room for more bytes in the current chunk
+	 * @param bytes at most the chunk size
+	 */
+	protected void reserve(int bytes) {
+		if (chunk.remaining() >= bytes)
+			return;
+		chunk.flip();
+		submit(chunk);
+		chunk = free.poll();
+		if (chunk == null)
+			chunk = ByteBuffer.allocate(CHUNK_SIZE);
+	}
+
+	protected void writeByte(int value) {
+		reserve(1);
+		chunk.put((byte) value);
+	}
+
+	/**
+	 * Writes the characters of the text, which must be ASCII
+	 * @param text
+	 */
+	protected void writeText(String text) {
+		for (int i=0;i<text.length();i++)
+			writeByte(text.charAt(i));
+	}
+
+	/**
+	 * Writes the number in decimal, without creating a String
+	 * @param value
+	 */
+	protected void writeDecimal(int value) {
+		reserve(11);
+		if (value == Integer.MIN_VALUE) {
+			writeText("-2147483648");
+			return;
+		}
+		if (value < 0) {
+			chunk.put((byte) '-');
+			value = -value;
+		}
+		int divisor = 1;
+		while (divisor <= value / 10)
+			divisor *= 10;
+		for (;divisor>0;divisor/=10)
+			chunk.put((byte) ('0' + value / divisor % 10));
+	}
+
+	/**
+	 * Writes the number with a variable length (zigzag, 7 bits per byte),
+	 * so the small values (positive or negative) take a single byte
+	 * @param value
+	 */
+	protected void writeVarint(int value) {
+		reserve(5);
+		int zigzag = (value << 1) ^ (value >> 31);
+		while ((zigzag & ~0x7F) != 0) {
+			chunk.put((byte) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		chunk.put((byte) zigzag);
+	}
+
+	/**
+	 * This method writes what is still in memory, waits for the writer thread and closes the stream
+	 * @throws IOException the first error of the writer thread
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		chunk.flip();
+		submit(chunk);
+		submit(END);
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		out.close();
+		if (error != null)
+			throw error;
+	}
+
+}
@@ -0,0 +1,334 @@
+package architecture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class executes the program as a chain of closures (ExecutionMode.CLOSURE).
+ * Each instruction of a basic block (from its first instruction until a jump)
+ * becomes a lambda with its operands already resolved, so running a block is a
+ * sequence of direct calls, without fetch or decode.
+ * The blocks are built the first time they are reached, so short programs do not
+ * pay for the code they never execute.
+ *
+ * The closures are built from the instruction cache: a store into the program
+ * discards all the blocks, which are built again from the new instructions.
+ * Instructions out of the fast contract (and imulRegMem, that searches a free
+ * position at run time) end the block and are executed by the FastEngine rules.
+ *
+ * The sequences listed in the architecture Superinstructions are fused into a
+ * single closure, keeping the effects (and the count) of each instruction.
+ */
+class ClosureEngine extends FastEngine {
+
+	private static final int MAX_BLOCK = 256; //the maximum amount of instructions in a block
+
+	/**
+	 * One instruction with its operands
+	 */
+	interface Closure {
+		/**
+		 * @return the address of the next instruction
+		 */
+		int execute();
+	}
+
+	//the tables cover the code region (see InstructionCache.getLimit) and grow with it
+	private Closure blocks[][]; //the block starting in each address
+	private int lengths[][]; //how many instructions each closure of the block executes
+	private boolean interpreted[]; //the addresses whose first instruction has no closure
+	private int generation; //the instruction cache generation the blocks were built from
+	private Superinstructions superinstructions;
+
+	ClosureEngine(Architecture arch) {
+		super(arch);
+		superinstructions = arch.getSuperinstructions();
+		discardBlocks();
+	}
+
+	@Override
+	void run() {
+		if (synchronize())
+			return;
+		while (true) {
+			if (arch.limitReached(executed)) {
+				store();
+				return;
+			}
+			if (pc >= blocks.length && pc < size)
+				growBlocks(pc);
+			if (pc >= 0 && pc < size && !interpreted[pc]) {
+				Closure block[] = blocks[pc];
+				if (block == null)
+					block = buildBlock(pc);
+				if (block != null) {
+					int length[] = lengths[pc];
+					for (int i = 0; i < block.length; i++) {
+						pc = block[i].execute();
+						executed += length[i];
+						if (cache.getGeneration() != generation) { //the block stored into the program
+							discardBlocks();
+							break;
+						}
+					}
+					continue;
+				}
+			}
+			if (interpret())
+				return;
+			if (cache.getGeneration() != generation)
+				discardBlocks();
+		}
+	}
+
+	/**
+	 * The blocks are cleared: the tables are kept, so a store into the program
+	 * costs the code region and not the memory size
+	 */
+	private void discardBlocks() {
+		int region = Math.min(size, cache.getLimit() + 1);
+		if (blocks == null || blocks.length < region) {
+			blocks = new Closure[region][];
+			lengths = new int[region][];
+			interpreted = new boolean[region];
+		}
+		else {
+			Arrays.fill(blocks, null);
+			Arrays.fill(lengths, null);
+			Arrays.fill(interpreted, false);
+		}
+		generation = cache.getGeneration();
+	}
+
+	/**
+	 * A jump out of the code region: the tables grow to reach pc
+	 * @param pc inside the memory
+	 */
+	private void growBlocks(int pc) {
+		int length = Math.min(size, Math.max(pc + 1, blocks.length * 2));
+		blocks = Arrays.copyOf(blocks, length);
+		lengths = Arrays.copyOf(lengths, length);
+		interpreted = Arrays.copyOf(interpreted, length);
+	}
+
+	/**
+	 * This method builds the closures of the block starting in pc
+	 * @param pc
+	 * @return null if the first instruction must be interpreted
+	 */
+	private Closure[] buildBlock(int pc) {
+		ArrayList<Opcode> ops = new ArrayList<Opcode>();
+		ArrayList<Integer> pcs = new ArrayList<Integer>();
+		ArrayList<Closure> closures = new ArrayList<Closure>();
+		int p = pc;
+		while (closures.size() < MAX_BLOCK && p >= 0 && p < size) {
+			Opcode op = cache.opcode(p);
+			if (op == null || p >= size - op.getOperands()) //the end, or operands beyond the memory
+				break;
+			Closure closure = closure(op, p);
+			if (closure == null)
+				break;
+			ops.add(op);
+			pcs.add(p);
+			closures.add(closure);
+			if (BlockCompiler.isJump(op))
+				break;
+			p += op.getOperands() + 1;
+		}
+		if (closures.isEmpty()) {
+			interpreted[pc] = true;
+			return null;
+		}
+		ArrayList<Closure> block = new ArrayList<Closure>();
+		ArrayList<Integer> length = new ArrayList<Integer>();
+		int i = 0;
+		while (i < closures.size()) {
+			if (i+2 < closures.size() && superinstructions.contains(ops.get(i), ops.get(i+1), ops.get(i+2))) {
+				Closure pair = fuse(stores(ops.get(i)), closures.get(i), closures.get(i+1), 1);
+				block.add(fuse(stores(ops.get(i)) || stores(ops.get(i+1)), pair, closures.get(i+2), 1));
+				length.add(3);
+				i += 3;
+			}
+			else if (i+1 < closures.size() && superinstructions.contains(ops.get(i), ops.get(i+1))) {
+				Closure fused = superinstruction(ops.get(i), pcs.get(i), ops.get(i+1), pcs.get(i+1));
+				if (fused == null)
+					fused = fuse(stores(ops.get(i)), closures.get(i), closures.get(i+1), 1);
+				block.add(fused);
+				length.add(2);
+				i += 2;
+			}
+			else {
+				block.add(closures.get(i++));
+				length.add(1);
+			}
+		}
+		Closure result[] = block.toArray(new Closure[block.size()]);
+		int resultLengths[] = new int[result.length];
+		for (int j = 0; j < resultLengths.length; j++)
+			resultLengths[j] = length.get(j);
+		blocks[pc] = result;
+		lengths[pc] = resultLengths;
+		return result;
+	}
+
+	/**
+	 * This method chains two closures into one.
+	 * When the first instruction stores into the program, the second one is not
+	 * executed: the engine discards the blocks and decodes it again
+	 * @param firstStores true if the first closure stores in the memory
+	 * @param secondLength how many instructions the second closure executes
+	 */
+	private Closure fuse(boolean firstStores, Closure first, Closure second, int secondLength) {
+		if (!firstStores)
+			return () -> { first.execute(); return second.execute(); };
+		return () -> {
+			int next = first.execute();
+			if (cache.getGeneration() != generation) {
+				executed -= secondLength; //the engine counts the whole sequence
+				return next;
+			}
+			return second.execute();
+		};
+	}
+
+	/**
+	 * The specialized superinstructions for the sequences generated by the assembler.
+	 * The operands were already checked by closure(op, p)
+	 * @return null if there is no specialized version for the sequence
+	 */
+	private Closure superinstruction(Opcode first, int p1, Opcode second, int p2) {
+		final int a1 = cache.operand1(p1), b1 = cache.operand2(p1);
+		final int a2 = cache.operand1(p2), b2 = cache.operand2(p2);
+		final int next1 = p1 + first.getOperands() + 1, next2 = p2 + second.getOperands() + 1;
+		final int code2 = second.getCode(), slot1 = first.getCode() << 1, slot2 = code2 << 1;
+		if (first == Opcode.MOVE_IMM_REG && second == Opcode.MOVE_REG_MEM && b1 == a2) {
+			//move imm %reg / move %reg mem: the store is the last effect, no check is needed after it
+			return () -> { regs[b1] = a1; write(b2, a1); ir = code2; profile[slot1]++; return count(slot2, next2); };
+		}
+		if (first == Opcode.SUB_REG_MEM && (second == Opcode.JZ || second == Opcode.JN || second == Opcode.JNZ)) {
+			//sub %reg mem / conditional jump: the condition comes from the result, the Flags are still updated
+			return () -> {
+				int res = regs[a1] - word(b1);
+				write(b1, res);
+				setStatusFlags(res);
+				profile[slot1]++;
+				if (cache.getGeneration() != generation) { //the jump itself may have changed
+					ir = res;
+					executed--;
+					return next1;
+				}
+				ir = code2;
+				boolean jump = (second == Opcode.JZ) ? res == 0 : (second == Opcode.JN) ? res < 0 : res != 0;
+				return jump ? count(slot2 | 1, a2) : count(slot2, next2);
+			};
+		}
+		return null;
+	}
+
+	private static boolean stores(Opcode op) {
+		switch (op) {
+		case ADD_REG_MEM: case SUB_REG_MEM: case ADD_IMM_MEM: case SUB_IMM_MEM:
+		case MOVE_REG_MEM: case STORE: case INC_MEM:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * This method binds the instruction in the address p to its operands.
+	 * The closures reproduce the cases of FastEngine.execute
+	 * @param op
+	 * @param p
+	 * @return null if the instruction is out of the fast contract
+	 */
+	private Closure closure(Opcode op, int p) {
+		final int a = cache.operand1(p), b = cache.operand2(p), c = cache.operand3(p);
+		final int code = op.getCode(), slot = code << 1;
+		final int next = p + op.getOperands() + 1;
+		switch (op) {
+		case ADD_REG_REG:
+			if (!isRegister(a) || !isRegister(b)) return null;
+			return () -> { int res = regs[a] + regs[b]; regs[b] = res; ir = code; setStatusFlags(res); return count(slot, next); };
+		case ADD_MEM_REG:
+			if (!isAddress(a) || !isRegister(b)) return null;
+			return () -> { int v = word(a); int res = v + regs[b]; regs[b] = res; ir = v; setStatusFlags(res); return count(slot, next); };
+		case ADD_REG_MEM:
+			if (!isRegister(a) || !isAddress(b)) return null;
+			return () -> { int res = regs[a] + word(b); write(b, res); ir = res; setStatusFlags(res); return count(slot, next); };
+		case ADD_IMM_REG:
+			if (!isRegister(b)) return null;
+			return () -> { int res = a + regs[b]; regs[b] = res; ir = a; setStatusFlags(res); return count(slot, next); };
+		case ADD_IMM_MEM:
+			if (!isAddress(b)) return null;
+			return () -> { int res = a + word(b); write(b, res); ir = res; setStatusFlags(res); return count(slot, next); };
+		case SUB_REG_REG:
+			if (!isRegister(a) || !isRegister(b)) return null;
+			return () -> { int res = regs[a] - regs[b]; regs[b] = res; ir = code; setStatusFlags(res); return count(slot, next); };
+		case SUB_MEM_REG:
+			if (!isAddress(a) || !isRegister(b)) return null;
+			return () -> { int v = word(a); int res = v - regs[b]; regs[b] = res; ir = v; setStatusFlags(res); return count(slot, next); };
+		case SUB_REG_MEM:
+			if (!isRegister(a) || !isAddress(b)) return null;
+			return () -> { int res = regs[a] - word(b); write(b, res); ir = res; setStatusFlags(res); return count(slot, next); };
+		case SUB_IMM_REG:
+			if (!isRegister(b)) return null;
+			return () -> { int res = a - regs[b]; regs[b] = res; ir = a; setStatusFlags(res); return count(slot, next); };
+		case SUB_IMM_MEM:
+			if (!isAddress(b)) return null;
+			return () -> { int res = a - word(b); write(b, res); ir = res; setStatusFlags(res); return count(slot, next); };
+		case IMUL_MEM_REG:
+			if (!isAddress(a) || !isRegister(b)) return null;
+			return () -> { int v = word(a); if (compatible) multiplied(op, regs[b]); int res = v * regs[b]; regs[b] = res; ir = v; setStatusFlags(res); return count(slot, next); };
+		case IMUL_REG_REG:
+			if (!isRegister(a) || !isRegister(b)) return null;
+			return () -> { int v = regs[a]; if (compatible) multiplied(op, regs[b]); int res = v * regs[b]; regs[b] = res; ir = v; setStatusFlags(res); return count(slot, next); };
+		case MOVE_MEM_REG:
+		case READ:
+			if (!isAddress(a) || !isRegister(b)) return null;
+			return () -> { int v = word(a); regs[b] = v; ir = v; return count(slot, next); };
+		case MOVE_REG_MEM:
+		case STORE:
+			if (!isRegister(a) || !isAddress(b)) return null;
+			return () -> { write(b, regs[a]); ir = code; return count(slot, next); };
+		case MOVE_REG_REG:
+			if (!isRegister(a) || !isRegister(b)) return null;
+			return () -> { regs[b] = regs[a]; ir = code; return count(slot, next); };
+		case MOVE_IMM_REG:
+			if (!isRegister(b)) return null;
+			return () -> { regs[b] = a; ir = a; return count(slot, next); };
+		case LDI:
+			if (!isRegister(a)) return null;
+			return () -> { regs[a] = b; ir = code; return count(slot, next); };
+		case INC_REG:
+			if (!isRegister(a)) return null;
+			return () -> { int res = regs[a] + 1; regs[a] = res; ir = code; setStatusFlags(res); return count(slot, next); };
+		case INC_MEM:
+			if (!isAddress(a)) return null;
+			return () -> { int res = word(a) + 1; write(a, res); ir = res; setStatusFlags(res); return count(slot, next); };
+		case JMP:
+			return () -> { ir = code; return count(slot, a); };
+		case JN:
+			return () -> { ir = code; return (flags[1] == 1) ? count(slot | 1, a) : count(slot, next); };
+		case JZ:
+			return () -> { ir = code; return (flags[0] == 1) ? count(slot | 1, a) : count(slot, next); };
+		case JNZ:
+			return () -> { ir = code; return (flags[2] == 1) ? count(slot | 1, a) : count(slot, next); };
+		case JEQ:
+			if (!isRegister(a) || !isRegister(b)) return null;
+			return () -> { ir = regs[a]; return (regs[a] == regs[b]) ? count(slot | 1, c) : count(slot, next); };
+		case JNEQ:
+			if (!isRegister(a) || !isRegister(b)) return null;
+			return () -> { ir = regs[a]; return (regs[a] != regs[b]) ? count(slot | 1, c) : count(slot, next); };
+		case JGT:
+			if (!isRegister(a) || !isRegister(b)) return null;
+			return () -> { ir = regs[a]; return (regs[a] > regs[b]) ? count(slot | 1, c) : count(slot, next); };
+		case JLW:
+			if (!isRegister(a) || !isRegister(b)) return null;
+			return () -> { ir = regs[a]; return (regs[a] < regs[b]) ? count(slot | 1, c) : count(slot, next); };
+		default: //imulRegMem
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package architecture;
+
+/**
+ * This class measures the cost of the decode phase.
+ * The same looping program is executed step by step twice: once choosing the
+ * microprogram with the old hand-written switch (kept here only as the baseline)
+ * and once with the decode table built from Opcode.
+ * Both loops use the real microprograms, so the difference between them is the
+ * dispatch cost per instruction.
+ * Usage: java architecture.DispatchBenchmark [instructions per round]
+ */
+public class DispatchBenchmark {
+
+	private static final int ROUNDS = 10;
+
+	/*
+	 * 0: moveImmReg 1 %RPG1
+	 * 3: addRegReg %RPG1 %RPG0
+	 * 6: moveRegMem %RPG0 100
+	 * 9: incReg %RPG2
+	 * 11: addImmReg 1 %RPG3
+	 * 14: moveMemReg 100 %RPG3
+	 * 17: subRegReg %RPG1 %RPG2
+	 * 20: jmp 3
+	 */
+	private static final int PROGRAM[] = {11, 1, 1, 0, 1, 0, 10, 0, 100, 15, 2, 3, 1, 3, 9, 100, 3, 4, 1, 2, 16, 3};
+
+	private static Architecture newArchitecture() {
+		Architecture arch = new Architecture();
+		System.arraycopy(PROGRAM, 0, arch.getMemory().getDataList(), 0, PROGRAM.length);
+		return arch;
+	}
+
+	/**
+	 * The fetch phase, as done by Architecture
+	 */
+	private static int fetch(Architecture arch) {
+		arch.getPC().read();
+		arch.getMemory().read();
+		arch.getIR().store();
+		return arch.getIR().getData();
+	}
+
+	private static long runSwitch(Architecture arch, int instructions) {
+		long start = System.nanoTime();
+		for (int i=0;i<instructions;i++)
+			switchDispatch(arch, fetch(arch));
+		return System.nanoTime() - start;
+	}
+
+	private static long runTable(Architecture arch, int instructions) {
+		Opcode.Microprogram table[] = new Opcode.Microprogram[Opcode.count()];
+		for (Opcode op : Opcode.values())
+			table[op.getCode()] = op.getMicroprogram();
+		long start = System.nanoTime();
+		for (int i=0;i<instructions;i++)
+			table[fetch(arch)].execute(arch);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * The decode switch as it was written before the instruction set registry
+	 * (with the codes of the registry, so both loops execute the same program)
+	 */
+	private static void switchDispatch(Architecture arch, int command) {
+		switch (command) {
+		case 0: arch.addRegReg(); break;
+		case 1: arch.addMemReg(); break;
+		case 2: arch.addRegMem(); break;
+		case 3: arch.addImmReg(); break;
+		case 4: arch.subRegReg(); break;
+		case 5: arch.subMemReg(); break;
+		case 6: arch.subRegMem(); break;
+		case 7: arch.subImmReg(); break;
+		case 8: arch.moveRegReg(); break;
+		case 9: arch.moveMemReg(); break;
+		case 10: arch.moveRegMem(); break;
+		case 11: arch.moveImmReg(); break;
+		case 12: arch.imulRegReg(); break;
+		case 13: arch.imulMemReg(); break;
+		case 14: arch.imulRegMem(); break;
+		case 15: arch.incReg(); break;
+		case 16: arch.jmp(); break;
+		case 17: arch.jn(); break;
+		case 18: arch.jz(); break;
+		case 19: arch.jeq(); break;
+		case 20: arch.jneq(); break;
+		case 21: arch.jgt(); break;
+		case 22: arch.jlw(); break;
+		case 23: arch.incMem(); break;
+		case 24: arch.addImmMem(); break;
+		case 25: arch.subImmMem(); break;
+		case 26: arch.jnz(); break;
+		case 27: arch.ldi(); break;
+		case 28: arch.read(); break;
+		case 29: arch.store(); break;
+		default: break;
+		}
+	}
+
+	public static void main(String[] args) {
+		int instructions = 2000000;
+		if (args.length > 0)
+			instructions = Integer.parseInt(args[0]);
+		for (int round=1;round<=ROUNDS;round++) {
+			long switchTime = runSwitch(newArchitecture(), instructions);
+			long tableTime = runTable(newArchitecture(), instructions);
+			System.out.printf("round %2d: switch %.2f ns/instruction, table %.2f ns/instruction%n", round,
+					(double) switchTime / instructions, (double) tableTime / instructions);
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+package architecture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads the text executable files (.dxf): one integer per line, in decimal
+ * (the binary ones, .dxb, are read by Executable).
+ * The file is read at once (large files are mapped into memory with
+ * FileChannel.map) and the numbers are parsed directly from the bytes,
+ * with no String per line.
+ * The words are then copied into the memory by Memory.load, without the bus.
+ */
+class ExecLoader {
+
+	//smaller files are read into the heap: mapping costs more than reading them,
+	//and a mapped file stays locked (in some systems) until the buffer is collected
+	private static final int MAP_THRESHOLD = 1 << 20;
+
+	/**
+	 * This method reads all the words of the executable
+	 * @param filename with the extension
+	 * @return the words (the array may be longer than the amount of words)
+	 * @throws IOException
+	 */
+	static Words read(String filename) throws IOException {
+		return parse(bytes(filename), filename);
+	}
+
+	/**
+	 * This method reads all the bytes of a file
+	 * @param filename
+	 * @return the bytes, from the position 0 to the limit
+	 * @throws IOException
+	 */
+	static ByteBuffer bytes(String filename) throws IOException {
+		Path path = Paths.get(filename);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(filename+" is too large");
+			if (size >= MAP_THRESHOLD)
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			ByteBuffer bytes = ByteBuffer.allocate((int) size);
+			while (bytes.hasRemaining() && channel.read(bytes) >= 0)
+				;
+			bytes.flip();
+			return bytes;
+		}
+	}
+
+	/**
+	 * The words of an executable and how many there are
+	 */
+	static class Words {
+		final int words[];
+		final int count;
+
+		Words(int words[], int count) {
+			this.words = words;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * This method parses the integers separated by line breaks (or any blank)
+	 * @param bytes
+	 * @param filename used in the error messages
+	 * @return
+	 * @throws NumberFormatException if there is anything else, as Integer.parseInt
+	 */
+	private static Words parse(ByteBuffer bytes, String filename) {
+		int limit = bytes.limit();
+		int words[] = new int[limit / 2 + 1]; //every word takes at least 2 bytes (a digit and a line break)
+		int count = 0;
+		int i = bytes.position();
+		while (i < limit) {
+			byte b = bytes.get(i);
+			if (b == '\n' || b == '\r' || b == ' ' || b == '\t') {
+				i++;
+				continue;
+			}
+			boolean negative = false;
+			if (b == '-' || b == '+') {
+				negative = b == '-';
+				i++;
+			}
+			long value = 0;
+			int digits = 0;
+			while (i < limit && (b = bytes.get(i)) >= '0' && b <= '9') {
+				value = value * 10 + (b - '0');
+				if (value > 1L + Integer.MAX_VALUE)
+					throw new NumberFormatException("Out of range in "+filename+", word "+count);
+				digits++;
+				i++;
+			}
+			if (negative)
+				value = -value;
+			if (digits == 0 || value > Integer.MAX_VALUE || (i < limit && !isBlank(bytes.get(i))))
+				throw new NumberFormatException("Not a number in "+filename+", word "+count);
+			words[count++] = (int) value;
+		}
+		return new Words(words, count);
+	}
+
+	private static boolean isBlank(byte b) {
+		return b == '\n' || b == '\r' || b == ' ' || b == '\t';
+	}
+
+}
@@ -0,0 +1,236 @@
+package architecture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import components.Memory;
+
+/**
+ * This class is the binary executable (.dxb), the alternative to the text .dxf:
+ * the words are stored as they are, so the loader only copies them into the memory.
+ * It has a code section (the program, loaded from the position 0, with the -1 at the end),
+ * an initialized data section (loaded from its own address) and the symbol table
+ * (the labels and the variables of the assembly program with their addresses).
+ *
+ * Format (version 1, big endian):
+ *   "OACX" magic, 1 byte version,
+ *   the code address, the code size, the data address, the data size and the
+ *   amount of symbols (4 bytes each),
+ *   the code words and the data words (4 bytes each),
+ *   each symbol: 1 byte kind, the name (2 bytes length and the UTF-8 bytes) and its address,
+ *   and the CRC32 of all the previous bytes.
+ */
+public class Executable {
+
+	public static final String EXTENSION = ".dxb";
+	private static final int MAGIC = 0x4F414358; //OACX
+	static final int VERSION = 1;
+	private static final int HEADER = 4 + 1 + 5 * 4;
+
+	public enum SymbolKind {
+		LABEL,
+		VARIABLE
+	}
+
+	/**
+	 * A name of the assembly program and the address it refers to
+	 */
+	public static class Symbol {
+		private String name;
+		private SymbolKind kind;
+		private int address;
+
+		public Symbol(String name, SymbolKind kind, int address) {
+			this.name = name;
+			this.kind = kind;
+			this.address = address;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public SymbolKind getKind() {
+			return kind;
+		}
+
+		public int getAddress() {
+			return address;
+		}
+	}
+
+	private int code[];
+	private int dataAddress;
+	private int data[];
+	private ArrayList<Symbol> symbols;
+
+	/**
+	 * @param code the program, from the position 0
+	 * @param dataAddress where the data section starts
+	 * @param data the initial values of the data section
+	 */
+	public Executable(int code[], int dataAddress, int data[]) {
+		this.code = code;
+		this.dataAddress = dataAddress;
+		this.data = data;
+		this.symbols = new ArrayList<Symbol>();
+	}
+
+	public void addSymbol(String name, SymbolKind kind, int address) {
+		symbols.add(new Symbol(name, kind, address));
+	}
+
+	public int[] getCode() {
+		return code;
+	}
+
+	public int getDataAddress() {
+		return dataAddress;
+	}
+
+	public int[] getData() {
+		return data;
+	}
+
+	public ArrayList<Symbol> getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * @param name
+	 * @return the symbol with the name or null if there is no such symbol
+	 */
+	public Symbol getSymbol(String name) {
+		for (Symbol symbol : symbols)
+			if (symbol.getName().equals(name))
+				return symbol;
+		return null;
+	}
+
+	/**
+	 * This method copies both sections into the memory, without the bus
+	 * @param memory
+	 * @throws IndexOutOfBoundsException if a section does not fit in the memory
+	 */
+	public void load(Memory memory) {
+		memory.load(0, code, 0, code.length);
+		memory.load(dataAddress, data, 0, data.length);
+	}
+
+	/**
+	 * This method saves the executable
+	 * @param filename without the extension
+	 * @throws IOException
+	 */
+	public void save(String filename) throws IOException {
+		try (OutputStream out = new FileOutputStream(filename + EXTENSION)) {
+			out.write(toBytes());
+		}
+	}
+
+	public byte[] toBytes() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER + 4 * (code.length + data.length) + 16 * symbols.size() + 4);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(0); //the code address
+			out.writeInt(code.length);
+			out.writeInt(dataAddress);
+			out.writeInt(data.length);
+			out.writeInt(symbols.size());
+			for (int word : code)
+				out.writeInt(word);
+			for (int word : data)
+				out.writeInt(word);
+			for (Symbol symbol : symbols) {
+				byte name[] = symbol.getName().getBytes(StandardCharsets.UTF_8);
+				out.writeByte(symbol.getKind().ordinal());
+				out.writeShort(name.length);
+				out.write(name);
+				out.writeInt(symbol.getAddress());
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bytes.toByteArray());
+			out.writeInt((int) crc.getValue());
+		}
+		catch (IOException e) { //a ByteArrayOutputStream does not throw it
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * This method reads an executable
+	 * @param filename without the extension
+	 * @return
+	 * @throws IOException if the file can not be read or is not a valid executable
+	 */
+	public static Executable read(String filename) throws IOException {
+		return parse(ExecLoader.bytes(filename + EXTENSION), filename + EXTENSION);
+	}
+
+	/**
+	 * @param bytes from the position 0 to the limit
+	 * @param name used in the error messages
+	 * @return
+	 * @throws IOException if the bytes are not a valid executable
+	 */
+	static Executable parse(ByteBuffer bytes, String name) throws IOException {
+		int length = bytes.limit();
+		if (length < HEADER + 4)
+			throw new IOException(name+" is truncated");
+		CRC32 crc = new CRC32();
+		ByteBuffer checked = bytes.duplicate();
+		checked.position(0).limit(length - 4);
+		crc.update(checked);
+		if (bytes.getInt(length - 4) != (int) crc.getValue())
+			throw new IOException(name+": the checksum does not match");
+		if (bytes.getInt(0) != MAGIC)
+			throw new IOException(name+" is not a binary executable");
+		int version = bytes.get(4);
+		if (version != VERSION)
+			throw new IOException(name+": unknown version "+version);
+		ByteBuffer in = bytes.duplicate();
+		in.position(5).limit(length - 4);
+		try {
+			if (in.getInt() != 0)
+				throw new IOException(name+": the code must start at 0");
+			int codeSize = in.getInt();
+			int dataAddress = in.getInt();
+			int dataSize = in.getInt();
+			int symbolsCount = in.getInt();
+			if (codeSize < 0 || dataSize < 0 || symbolsCount < 0 || 4L * codeSize + 4L * dataSize > in.remaining())
+				throw new IOException(name+" is corrupted");
+			int code[] = new int[codeSize];
+			int data[] = new int[dataSize];
+			in.asIntBuffer().get(code).get(data); //the words are copied in bulk
+			in.position(in.position() + 4 * (codeSize + dataSize));
+			Executable executable = new Executable(code, dataAddress, data);
+			SymbolKind kinds[] = SymbolKind.values();
+			for (int i=0;i<symbolsCount;i++) {
+				int kind = in.get();
+				if (kind < 0 || kind >= kinds.length)
+					throw new IOException(name+" is corrupted");
+				byte text[] = new byte[in.getShort() & 0xFFFF];
+				in.get(text);
+				executable.addSymbol(new String(text, StandardCharsets.UTF_8), kinds[kind], in.getInt());
+			}
+			if (in.hasRemaining())
+				throw new IOException(name+" is corrupted");
+			return executable;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException(name+" is truncated");
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package architecture;
+
+/**
+ * This enum lists the ways a program stored in the memory can be executed.
+ * MICROPROGRAM is the reference (teaching) mode: every instruction runs its
+ * microprogram, moving each data through the buses, registers and ULA.
+ * FAST runs the same instruction set over a plain int register file and
+ * the memory array, producing the same final registers, flags and memory.
+ * TIERED starts as FAST and compiles the hot basic blocks into JVM classes
+ * (see JitCompiler).
+ * CLOSURE turns each basic block into a chain of closures with the operands
+ * already resolved (see ClosureEngine), with no cost of class generation.
+ */
+public enum ExecutionMode {
+	MICROPROGRAM,
+	FAST,
+	TIERED,
+	CLOSURE
+}
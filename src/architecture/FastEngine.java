@@ -0,0 +1,582 @@
+package architecture;
+
+import java.util.ArrayList;
+
+import components.DirtyPages;
+import components.MemoryBackend;
+import components.OutputDevice;
+import components.Register;
+
+/**
+ * This class executes the program stored in the memory without the buses.
+ * Each instruction is computed directly over an int register file and the
+ * memory words (the array of a dense memory, or any other backend through
+ * MemoryBackend), reproducing exactly the final effects of the corresponding
+ * microprogram in Architecture: the general purpose registers, PC, IR,
+ * the Flags bits and the memory cells.
+ *
+ * Instructions outside the fast contract (register operands that are not
+ * RPG0..RPG3, reads and stores out of the memory range, operands beyond the
+ * end of the memory, ...) are executed by the microprogram itself: the register
+ * file is written back, Architecture runs that single instruction and the
+ * register file is loaded again.
+ *
+ * The executions of each command are counted and reported to the
+ * PerformanceCounters, which add the cost of their microprograms.
+ *
+ * In the tiered mode, each block entry (the start, jump targets and the
+ * addresses reached after a compiled block) is reported to the JitCompiler,
+ * and the block is executed by its compiled code once it is hot. The compiled
+ * code works over the array, so the other backends are only interpreted. It is
+ * not used in the multiply compatibility mode either, where the cycles of mul
+ * depend on the multiplier.
+ */
+class FastEngine {
+
+	private static final int GENERAL_REGISTERS = 4; //RPG0..RPG3 are the first registers in the registers list
+
+	protected Architecture arch;
+	protected InstructionCache cache;
+	protected int memory[]; //the words of a dense memory, or null
+	protected MemoryBackend backend; //used when there is no array
+	protected DirtyPages dirtyPages; //every write into memory is marked
+	private OutputDevice device; //the stores into its ports go to it (optional)
+	protected int size;
+	protected int regs[];
+	protected int flags[];
+	protected int pc;
+	protected int ir;
+	protected boolean leader; //the pc is the first instruction of a block
+	protected long executed; //instructions executed since the last store()
+	protected boolean stored; //a store was made since the last store() (the memory store position is -1)
+	protected long profile[]; //the executions of each command since the last store() (see PerformanceCounters.add)
+	protected int branch; //1 if the last instruction jumped (or imulRegMem had a zero multiplier)
+	protected boolean compatible; //mul counts the cycles of the compatibility mode (see Ula.mulCycles)
+	private JitCompiler jit; //null out of the tiered mode
+	private int state[]; //receives the IR from the compiled blocks
+	private ArrayList<JitCompiler.CompiledBlock> compiledRuns; //the blocks with runs not yet in profile
+
+	FastEngine(Architecture arch) {
+		this.arch = arch;
+		this.cache = arch.getInstructionCache();
+		this.backend = arch.getMemory().getBackend();
+		this.memory = backend.array();
+		this.dirtyPages = arch.getMemory().getDirtyPages();
+		this.size = backend.size();
+		this.regs = new int[GENERAL_REGISTERS];
+		this.flags = new int[3];
+		this.state = new int[1];
+		this.compiledRuns = new ArrayList<JitCompiler.CompiledBlock>();
+		this.device = arch.getMemory().getOutputDevice();
+		this.profile = new long[PerformanceCounters.slots()];
+		this.compatible = arch.getUla().isMultiplyCompatibility();
+		//the compiled blocks work directly over the array, so they are not used with a device
+		if (arch.getExecutionMode() == ExecutionMode.TIERED && device == null && memory != null && !compatible)
+			this.jit = arch.getJitCompiler();
+	}
+
+	/**
+	 * This method executes the program until the end (-1 or any unknown command),
+	 * or until a limit of the architecture is reached, and writes the final state back into the architecture registers
+	 */
+	void run() {
+		if (synchronize())
+			return;
+		leader = true;
+		long compiledStart = 0; //when the current sequence of compiled blocks started
+		while (true) {
+			if (arch.limitReached(executed)) {
+				store();
+				return;
+			}
+			if (leader && jit != null && pc >= 0 && pc < size) {
+				JitCompiler.CompiledBlock block = jit.enter(cache, pc);
+				if (block != null) {
+					if (compiledStart == 0)
+						compiledStart = System.nanoTime();
+					pc = block.code.run(regs, memory, flags, state);
+					ir = state[0];
+					for (int address : block.writes) {
+						cache.invalidate(address);
+						dirtyPages.mark(address);
+						stored = true;
+					}
+					jit.executed(block);
+					executed += block.instructions;
+					if (block.runs++ == 0)
+						compiledRuns.add(block);
+					if (block.jump != null && (block.target >= 0 ? pc == block.target : jumped(block.jump, block.jumpOperands[0], block.jumpOperands[1])))
+						block.jumps++;
+					continue;
+				}
+			}
+			if (compiledStart != 0) {
+				jit.addCompiledTime(System.nanoTime() - compiledStart);
+				compiledStart = 0;
+			}
+			if (interpret())
+				return;
+		}
+	}
+
+	/**
+	 * This method executes the instruction in the pc with the switch of execute
+	 * or, out of the fast contract, with its microprogram
+	 * @return true if the execution ended (the registers were already written back)
+	 */
+	protected boolean interpret() {
+		leader = false;
+		Opcode op;
+		if (pc >= 0 && pc < size) {
+			op = cache.opcode(pc); //the instruction was decoded when the program was loaded
+			ir = word(pc);
+		}
+		else { //the fetch out of the memory gets the address itself
+			op = Opcode.decode(pc);
+			ir = pc;
+		}
+		if (op == null) { //the end of the program, counted by its microprogram
+			store();
+			arch.step();
+			return true;
+		}
+		if (!(pc >= 0 && pc < size - op.getOperands()) || !execute(op)) {
+			//out of the fast contract: the microprogram executes this instruction
+			store();
+			if (arch.step() || synchronize())
+				return true;
+			leader = true;
+		}
+		else {
+			executed++;
+			profile[(op.getCode() << 1) | branch]++;
+			branch = 0;
+			if (BlockCompiler.isJump(op))
+				leader = true;
+		}
+		return false;
+	}
+
+	/**
+	 * A store to a negative address leaves the memory waiting for a data.
+	 * While it is waiting, the next stores land in unexpected positions, so
+	 * the microprograms keep executing until the memory is released.
+	 * @return true if the execution stopped meanwhile
+	 */
+	protected boolean synchronize() {
+		while (arch.getMemory().isStoring()) {
+			if (arch.limitReached(0) || arch.step())
+				return true;
+		}
+		load();
+		return false;
+	}
+
+	/**
+	 * This method executes one instruction over the register file.
+	 * The operands come from the instruction cache.
+	 * @param op
+	 * @return false if the instruction must be executed by its microprogram
+	 */
+	private boolean execute(Opcode op) {
+		int p = pc;
+		int a, b, v, res;
+		switch (op) {
+		case ADD_REG_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(a) || !isRegister(b)) return false;
+			res = regs[a] + regs[b];
+			regs[b] = res;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case ADD_MEM_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isAddress(a) || !isRegister(b)) return false;
+			v = word(a);
+			res = v + regs[b];
+			regs[b] = res;
+			ir = v;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case ADD_REG_MEM:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(a) || !isAddress(b)) return false;
+			res = regs[a] + word(b);
+			write(b, res);
+			ir = res;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case ADD_IMM_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(b)) return false;
+			res = a + regs[b];
+			regs[b] = res;
+			ir = a;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case ADD_IMM_MEM:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isAddress(b)) return false;
+			res = a + word(b);
+			write(b, res);
+			ir = res;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case SUB_REG_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(a) || !isRegister(b)) return false;
+			res = regs[a] - regs[b];
+			regs[b] = res;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case SUB_MEM_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isAddress(a) || !isRegister(b)) return false;
+			v = word(a);
+			res = v - regs[b];
+			regs[b] = res;
+			ir = v;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case SUB_REG_MEM:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(a) || !isAddress(b)) return false;
+			res = regs[a] - word(b);
+			write(b, res);
+			ir = res;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case SUB_IMM_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(b)) return false;
+			res = a - regs[b];
+			regs[b] = res;
+			ir = a;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case SUB_IMM_MEM:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isAddress(b)) return false;
+			res = a - word(b);
+			write(b, res);
+			ir = res;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case IMUL_MEM_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isAddress(a) || !isRegister(b)) return false;
+			v = word(a);
+			if (compatible)
+				multiplied(op, regs[b]);
+			res = v * regs[b];
+			regs[b] = res;
+			ir = v;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case IMUL_REG_MEM:
+			return imulRegMem(p);
+		case IMUL_REG_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(a) || !isRegister(b)) return false;
+			v = regs[a];
+			if (compatible)
+				multiplied(op, regs[b]);
+			res = v * regs[b];
+			regs[b] = res;
+			ir = v;
+			setStatusFlags(res);
+			pc = p+3;
+			return true;
+		case MOVE_MEM_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isAddress(a) || !isRegister(b)) return false;
+			v = word(a);
+			regs[b] = v;
+			ir = v;
+			pc = p+3;
+			return true;
+		case MOVE_REG_MEM:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(a) || !isAddress(b)) return false;
+			write(b, regs[a]);
+			pc = p+3;
+			return true;
+		case MOVE_REG_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(a) || !isRegister(b)) return false;
+			regs[b] = regs[a];
+			pc = p+3;
+			return true;
+		case MOVE_IMM_REG:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(b)) return false;
+			regs[b] = a;
+			ir = a;
+			pc = p+3;
+			return true;
+		case INC_REG:
+			a = cache.operand1(p);
+			if (!isRegister(a)) return false;
+			res = regs[a] + 1;
+			regs[a] = res;
+			setStatusFlags(res);
+			pc = p+2;
+			return true;
+		case INC_MEM:
+			a = cache.operand1(p);
+			if (!isAddress(a)) return false;
+			res = word(a) + 1;
+			write(a, res);
+			ir = res;
+			setStatusFlags(res);
+			pc = p+2;
+			return true;
+		case JMP:
+			pc = cache.operand1(p);
+			return true;
+		case JN:
+			branch = flags[1];
+			pc = (branch == 1) ? cache.operand1(p) : p+2;
+			return true;
+		case JZ:
+			branch = flags[0];
+			pc = (branch == 1) ? cache.operand1(p) : p+2;
+			return true;
+		case JNZ:
+			branch = flags[2];
+			pc = (branch == 1) ? cache.operand1(p) : p+2;
+			return true;
+		case JEQ:
+		case JNEQ:
+		case JGT:
+		case JLW:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(a) || !isRegister(b)) return false;
+			ir = regs[a];
+			boolean jump;
+			if (op == Opcode.JEQ)
+				jump = regs[a] == regs[b];
+			else if (op == Opcode.JNEQ)
+				jump = regs[a] != regs[b];
+			else if (op == Opcode.JGT)
+				jump = regs[a] > regs[b];
+			else
+				jump = regs[a] < regs[b];
+			branch = jump ? 1 : 0;
+			pc = jump ? cache.operand3(p) : p+4;
+			return true;
+		case LDI:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(a)) return false;
+			regs[a] = b;
+			pc = p+3;
+			return true;
+		case READ:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isAddress(a) || !isRegister(b)) return false;
+			v = word(a);
+			regs[b] = v;
+			ir = v;
+			pc = p+3;
+			return true;
+		case STORE:
+			a = cache.operand1(p); b = cache.operand2(p);
+			if (!isRegister(a) || !isAddress(b)) return false;
+			write(b, regs[a]);
+			pc = p+3;
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * The imulRegMem microprogram uses the highest free (zero) memory position
+	 * to keep the target address during the multiplication, so it is reproduced here
+	 * @param p
+	 * @return false if the instruction must be executed by its microprogram
+	 */
+	protected boolean imulRegMem(int p) {
+		int a = cache.operand1(p);
+		int b = cache.operand2(p);
+		if (!isRegister(a) || !isAddress(b)) return false;
+		int aux = size-1;
+		while (word(aux) != 0) {
+			aux--;
+			if (aux < 0) return false; //no free position: the microprogram never stops
+		}
+		if (aux < size-1)
+			arch.getCounters().addScan(size-1 - aux);
+		write(aux, b);
+		int v = word(b);
+		int n = regs[a];
+		int res = v * n;
+		write(b, res);
+		if (n != 0) {
+			ir = res;
+			if (compatible)
+				multiplied(Opcode.IMUL_REG_MEM, n);
+		}
+		else {
+			ir = v;
+			branch = 1; //the microprogram of a zero multiplier takes another path
+		}
+		setStatusFlags(res);
+		pc = p+3;
+		return true;
+	}
+
+	/**
+	 * A compiled block does not tell if its last jump was taken. The jump does not
+	 * change the flags or the registers, so they still give the condition
+	 * @param op a conditional jump
+	 * @param a the first register of JEQ, JNEQ, JGT and JLW
+	 * @param b the second one
+	 * @return true if the jump was taken
+	 */
+	protected boolean jumped(Opcode op, int a, int b) {
+		switch (op) {
+		case JN:
+			return flags[1] == 1;
+		case JZ:
+			return flags[0] == 1;
+		case JNZ:
+			return flags[2] == 1;
+		case JEQ:
+			return regs[a] == regs[b];
+		case JNEQ:
+			return regs[a] != regs[b];
+		case JGT:
+			return regs[a] > regs[b];
+		case JLW:
+			return regs[a] < regs[b];
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * In the compatibility mode mul counts more cycles than the single one of the
+	 * PerformanceCounters table
+	 * @param op
+	 * @param multiplier the value the microprogram puts in the ULA reg1
+	 */
+	protected void multiplied(Opcode op, int multiplier) {
+		arch.getCounters().addCycles(op, arch.getUla().mulCycles(multiplier) - 1);
+	}
+
+	/**
+	 * The closures count the execution of their instruction with this method
+	 * @param slot the position in profile
+	 * @param next the address of the next instruction
+	 * @return next
+	 */
+	protected int count(int slot, int next) {
+		profile[slot]++;
+		return next;
+	}
+
+	/**
+	 * @param address inside the memory
+	 * @return the word, from the array when the memory is dense
+	 */
+	protected int word(int address) {
+		return (memory != null) ? memory[address] : backend.get(address);
+	}
+
+	/**
+	 * Every store goes through the instruction cache, so the code changed
+	 * by the program is decoded again, and marks its page as dirty.
+	 * The stores into the output device go to it
+	 * @param address
+	 * @param value
+	 */
+	protected void write(int address, int value) {
+		stored = true;
+		if (device != null && device.contains(address)) {
+			device.write(address, value);
+			return;
+		}
+		if (memory != null)
+			memory[address] = value;
+		else
+			backend.set(address, value);
+		cache.invalidate(address);
+		dirtyPages.mark(address);
+	}
+
+	protected boolean isAddress(int address) {
+		return address >= 0 && address < size;
+	}
+
+	protected boolean isRegister(int id) {
+		return id >= 0 && id < GENERAL_REGISTERS;
+	}
+
+	/**
+	 * The same rules of Architecture.setStatusFlags
+	 * @param result
+	 */
+	protected void setStatusFlags(int result) {
+		flags[0] = (result == 0) ? 1 : 0;
+		flags[1] = (result < 0) ? 1 : 0;
+		flags[2] = (result != 0) ? 1 : 0;
+	}
+
+	/**
+	 * This method copies the architecture registers into the register file
+	 */
+	private void load() {
+		ArrayList<Register> registers = arch.getRegistersList();
+		for (int i = 0; i < GENERAL_REGISTERS; i++)
+			regs[i] = registers.get(i).getData();
+		pc = arch.getPC().getData();
+		ir = arch.getIR().getData();
+		for (int i = 0; i < flags.length; i++)
+			flags[i] = arch.getFlags().getBit(i);
+	}
+
+	/**
+	 * This method copies the register file back into the architecture registers
+	 * and reports the executions to the PerformanceCounters.
+	 * After a store the memory store position is left as the microprograms
+	 * leave it: -1. Without stores it is not changed
+	 */
+	protected void store() {
+		for (JitCompiler.CompiledBlock block : compiledRuns) {
+			for (int slot : block.slots)
+				profile[slot] += block.runs;
+			int last = block.slots[block.slots.length - 1];
+			profile[last] -= block.jumps;
+			profile[last | 1] += block.jumps;
+			block.runs = 0;
+			block.jumps = 0;
+		}
+		compiledRuns.clear();
+		arch.getCounters().add(profile);
+		if (stored) {
+			arch.getMemory().setStorePosition(-1);
+			stored = false;
+		}
+		ArrayList<Register> registers = arch.getRegistersList();
+		for (int i = 0; i < GENERAL_REGISTERS; i++)
+			registers.get(i).setData(regs[i]);
+		arch.getPC().setData(pc);
+		arch.getIR().setData(ir);
+		for (int i = 0; i < flags.length; i++)
+			arch.getFlags().setBit(i, flags[i]);
+		arch.addInstructions(executed);
+		executed = 0;
+	}
+}
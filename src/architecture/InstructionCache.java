@@ -0,0 +1,164 @@
+package architecture;
+
+import java.util.Arrays;
+
+import components.MemoryBackend;
+
+/**
+ * This class keeps the instructions of the program already decoded, indexed by
+ * their address (the PC value): the command and the words of its operands.
+ * It is filled when the program is loaded (readExec) and, for the addresses
+ * reached only by jumps, on the first execution.
+ * Every store in the memory must be reported by invalidate(address), so the
+ * instructions covering that address are decoded again (self-modifying code).
+ * The tables cover the addresses decoded so far (the program, not the whole
+ * memory) and grow when an instruction after them is decoded.
+ */
+class InstructionCache {
+
+	private static final int MAX_LENGTH = 4; //the longest instruction: the command and 3 operands
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int memory[]; //the array of a dense backend, or null
+	private MemoryBackend backend;
+	private int size;
+	private Opcode opcodes[];
+	private boolean decoded[];
+	private int operand1[];
+	private int operand2[];
+	private int operand3[];
+	private int limit; //the highest address read by any decoded instruction
+	private int generation; //incremented every time a decoded instruction is discarded
+
+	InstructionCache(MemoryBackend backend) {
+		this.backend = backend;
+		this.memory = backend.array();
+		this.size = backend.size();
+		int capacity = Math.min(size, INITIAL_CAPACITY);
+		this.opcodes = new Opcode[capacity];
+		this.decoded = new boolean[capacity];
+		this.operand1 = new int[capacity];
+		this.operand2 = new int[capacity];
+		this.operand3 = new int[capacity];
+		this.limit = -1;
+	}
+
+	/**
+	 * This method decodes the program from the address 0 until the end of the program
+	 */
+	void predecode() {
+		int pc = 0;
+		while (pc >= 0 && pc < size) {
+			decode(pc);
+			Opcode op = opcodes[pc];
+			if (op == null)
+				break;
+			pc += op.getOperands() + 1;
+		}
+	}
+
+	/**
+	 * This method returns the command stored in the address, decoding it if necessary
+	 * @param pc must be inside the memory
+	 * @return the command or null if the address has the end of the program
+	 */
+	Opcode opcode(int pc) {
+		if (pc >= decoded.length || !decoded[pc])
+			decode(pc);
+		return opcodes[pc];
+	}
+
+	/**
+	 * The operands getters must be used only after opcode(pc)
+	 */
+	int operand1(int pc) {
+		return operand1[pc];
+	}
+
+	int operand2(int pc) {
+		return operand2[pc];
+	}
+
+	int operand3(int pc) {
+		return operand3[pc];
+	}
+
+	/**
+	 * This method discards the decoded instructions that use the address
+	 * (as command or as operand)
+	 * @param address
+	 */
+	void invalidate(int address) {
+		if (address > limit || address < 0)
+			return; //out of the code region
+		int first = Math.max(0, address - MAX_LENGTH + 1);
+		for (int pc = first; pc <= address && pc < decoded.length; pc++)
+			decoded[pc] = false;
+		generation++;
+	}
+
+	/**
+	 * @return the memory size
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the highest address read by any decoded instruction
+	 */
+	int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * The code compiled from the decoded instructions is valid only while the generation is the same
+	 * @return how many stores hit the code region
+	 */
+	int getGeneration() {
+		return generation;
+	}
+
+	private void decode(int pc) {
+		if (pc >= decoded.length)
+			grow(pc);
+		Opcode op = Opcode.decode(word(pc));
+		opcodes[pc] = op;
+		if (op != null) {
+			operand1[pc] = read(pc+1);
+			operand2[pc] = read(pc+2);
+			operand3[pc] = read(pc+3);
+		}
+		decoded[pc] = true;
+		if (pc + MAX_LENGTH - 1 > limit)
+			limit = pc + MAX_LENGTH - 1;
+	}
+
+	/**
+	 * The tables grow (at least doubling, so the program is decoded in a few steps) to reach pc
+	 * @param pc inside the memory
+	 */
+	private void grow(int pc) {
+		int capacity = Math.min(size, Math.max(pc + 1, decoded.length * 2));
+		opcodes = Arrays.copyOf(opcodes, capacity);
+		decoded = Arrays.copyOf(decoded, capacity);
+		operand1 = Arrays.copyOf(operand1, capacity);
+		operand2 = Arrays.copyOf(operand2, capacity);
+		operand3 = Arrays.copyOf(operand3, capacity);
+	}
+
+	/**
+	 * The same rule of the memory read through the bus:
+	 * positions out of the memory range give the address itself
+	 */
+	private int read(int address) {
+		if (address >= 0 && address < size)
+			return word(address);
+		return address;
+	}
+
+	private int word(int address) {
+		return (memory != null) ? memory[address] : backend.get(address);
+	}
+
+}
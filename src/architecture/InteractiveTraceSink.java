@@ -0,0 +1,85 @@
+package architecture;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Scanner;
+
+import components.Memory;
+import components.Register;
+
+/**
+ * This sink is the classic simulation mode: it shows the components status at
+ * each phase and waits for <Enter> after every instruction
+ */
+public class InteractiveTraceSink implements TraceSink {
+
+	private PrintStream out;
+	private Scanner in;
+	private Level level;
+
+	/**
+	 * Shows everything in the console and reads the <Enter> from the keyboard
+	 */
+	public InteractiveTraceSink() {
+		this(System.out, System.in, Level.BUSES);
+	}
+
+	public InteractiveTraceSink(PrintStream out, InputStream in, Level level) {
+		this.out = out;
+		this.in = new Scanner(in);
+		this.level = level;
+	}
+
+	@Override
+	public void fetch(Architecture arch) {
+		out.println("-------Fetch Phase------");
+		out.println("PC: "+arch.getPC().getData());
+		out.println("IR: "+arch.getIR().getData());
+	}
+
+	@Override
+	public void beforeExecute(Architecture arch, int command) {
+		out.println("----------BEFORE Decode and Execute phases--------------");
+		if (level != Level.INSTRUCTIONS)
+			printRegisters(arch);
+		Opcode op = Opcode.decode(command);
+		Memory memory = arch.getMemory();
+		if (op == null)
+			out.println("Instruction: END");
+		else if (op.getOperands() > 0) {
+			int address = arch.getPC().getData()+1;
+			int parameter = (address < memory.getSize()) ? memory.getData(address) : address;
+			out.println("Instruction: "+op.getMnemonic()+" "+parameter);
+			if (op == Opcode.READ && parameter >= 0 && parameter < memory.getSize())
+				out.println("memory["+parameter+"]="+memory.getData(parameter));
+		}
+		else
+			out.println("Instruction: "+op.getMnemonic());
+	}
+
+	@Override
+	public void afterExecute(Architecture arch, int command) {
+		out.println("-----------AFTER Decode and Execute phases--------------");
+		if (level == Level.BUSES) {
+			out.println("Internal Bus 1: "+arch.getIntbus1().get());
+			out.println("Internal Bus 2: "+arch.getIntbus2().get());
+			out.println("External Bus 1: "+arch.getExtbus1().get());
+		}
+		if (level != Level.INSTRUCTIONS)
+			printRegisters(arch);
+		out.println("Press <Enter>");
+		if (in.hasNextLine())
+			in.nextLine();
+	}
+
+	private void printRegisters(Architecture arch) {
+		for (Register r : arch.getRegistersList())
+			out.println(r.getRegisterName()+": "+r.getData());
+	}
+
+	@Override
+	public void close() {
+		out.flush();
+	}
+
+}
@@ -0,0 +1,308 @@
+package architecture;
+
+import java.util.Arrays;
+
+/**
+ * This class implements the tiered execution used by ExecutionMode.TIERED.
+ * The fast engine counts how many times each basic block (the instructions from a
+ * jump target until the next jump) is entered. When a block reaches the threshold,
+ * it is translated into JVM bytecode by BlockCompiler and, from then on, each entry
+ * into that block runs the compiled code.
+ *
+ * The compiled code has the operands of the instructions as constants, so any
+ * store into the program (reported by the instruction cache) discards all the
+ * compiled blocks and the execution goes back to the interpreter. Blocks storing
+ * into the program itself are never compiled.
+ * A compiled block always returns to the engine with the next PC, so jumps to
+ * addresses without compiled code continue in the interpreter.
+ */
+public class JitCompiler {
+
+	public static final int DEFAULT_THRESHOLD = 50;
+	private static final int MAX_BLOCK = 256; //the maximum amount of instructions in a block
+
+	/**
+	 * A compiled block and what the engine needs to know about it
+	 */
+	static class CompiledBlock {
+		final BlockCode code;
+		final int instructions; //the amount of instructions in the block
+		final int writes[]; //the memory positions stored by the block
+		final int slots[]; //the position of each instruction in the engine profile, a jump not taken
+		final Opcode jump; //the last instruction if it is a conditional jump, or null
+		final int jumpOperands[];
+		final int target; //where the jump goes, or negative when the pc does not tell it (see FastEngine.jumped)
+		long runs; //the executions not yet reported by the engine
+		long jumps; //how many of them ended jumping
+
+		CompiledBlock(BlockCode code, int instructions, int writes[], int slots[], Opcode jump, int jumpOperands[], int target) {
+			this.code = code;
+			this.instructions = instructions;
+			this.writes = writes;
+			this.slots = slots;
+			this.jump = jump;
+			this.jumpOperands = jumpOperands;
+			this.target = target;
+		}
+	}
+
+	private int threshold;
+	private InstructionCache cache; //the program the blocks were compiled from
+	private int generation; //the cache generation the blocks were compiled from
+	private BlockCompiler compiler;
+	//the tables cover the code region (see InstructionCache.getLimit) and grow with it
+	private int entries[];
+	private CompiledBlock blocks[];
+	private boolean rejected[]; //blocks that can not be compiled
+
+	//statistics
+	private int compiledBlocks;
+	private int deoptimizations;
+	private long compiledRuns;
+	private long compiledInstructions;
+	private long compiledNanos;
+	private long compilationNanos;
+
+	public JitCompiler() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * @param threshold how many entries make a block hot
+	 */
+	public JitCompiler(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * This method is called by the engine at each block entry.
+	 * It counts the entry and compiles the block when it gets hot
+	 * @param cache the decoded program being executed
+	 * @param pc the first address of the block
+	 * @return the compiled block or null if the block must be interpreted
+	 */
+	CompiledBlock enter(InstructionCache cache, int pc) {
+		if (cache != this.cache || cache.getGeneration() != generation)
+			reset(cache);
+		if (pc >= blocks.length)
+			grow(pc);
+		CompiledBlock block = blocks[pc];
+		if (block != null || rejected[pc])
+			return block;
+		if (++entries[pc] < threshold)
+			return null;
+		long start = System.nanoTime();
+		block = compile(pc);
+		compilationNanos += System.nanoTime() - start;
+		if (block == null)
+			rejected[pc] = true;
+		else {
+			blocks[pc] = block;
+			compiledBlocks++;
+		}
+		return block;
+	}
+
+	/**
+	 * This method is called by the engine after running a compiled block
+	 * @param block
+	 */
+	void executed(CompiledBlock block) {
+		compiledRuns++;
+		compiledInstructions += block.instructions;
+	}
+
+	/**
+	 * @param nanos time spent in a sequence of compiled blocks
+	 */
+	void addCompiledTime(long nanos) {
+		compiledNanos += nanos;
+	}
+
+	/**
+	 * The program changed (or a new one was loaded): all the compiled code is discarded
+	 */
+	private void reset(InstructionCache cache) {
+		if (this.cache != null) {
+			int discarded = 0;
+			for (CompiledBlock block : blocks)
+				if (block != null)
+					discarded++;
+			if (discarded > 0)
+				deoptimizations++;
+		}
+		this.cache = cache;
+		this.generation = cache.getGeneration();
+		this.compiler = new BlockCompiler(cache.size());
+		int region = Math.min(cache.size(), cache.getLimit() + 1);
+		this.entries = new int[region];
+		this.blocks = new CompiledBlock[region];
+		this.rejected = new boolean[region];
+	}
+
+	/**
+	 * A block out of the code region: the tables grow to reach pc
+	 * @param pc inside the memory
+	 */
+	private void grow(int pc) {
+		int length = Math.min(cache.size(), Math.max(pc + 1, blocks.length * 2));
+		entries = Arrays.copyOf(entries, length);
+		blocks = Arrays.copyOf(blocks, length);
+		rejected = Arrays.copyOf(rejected, length);
+	}
+
+	/**
+	 * This method finds the instructions of the block starting in pc and compiles them
+	 * @param pc
+	 * @return null if the block has no compilable instruction or stores into the program
+	 */
+	private CompiledBlock compile(int pc) {
+		int size = cache.size();
+		int pcs[] = new int[MAX_BLOCK];
+		Opcode ops[] = new Opcode[MAX_BLOCK];
+		int operands[][] = new int[MAX_BLOCK][];
+		int writes[] = new int[MAX_BLOCK];
+		int count = 0, writesCount = 0;
+		int p = pc;
+		while (count < MAX_BLOCK && p >= 0 && p < size) {
+			Opcode op = cache.opcode(p);
+			if (op == null || p >= size - op.getOperands()) //the end, or operands beyond the memory
+				break;
+			int a = cache.operand1(p), b = cache.operand2(p), c = cache.operand3(p);
+			if (!isCompilable(op, a, b, size))
+				break;
+			int written = writtenAddress(op, a, b);
+			if (written >= 0)
+				writes[writesCount++] = written;
+			pcs[count] = p;
+			ops[count] = op;
+			operands[count] = new int[] {a, b, c};
+			count++;
+			p += op.getOperands() + 1;
+			if (BlockCompiler.isJump(op))
+				break;
+		}
+		if (count == 0)
+			return null;
+		for (int i=0;i<writesCount;i++)
+			if (writes[i] <= cache.getLimit())
+				return null; //self-modifying code stays in the interpreter
+		BlockCode code = compiler.compile(Arrays.copyOf(pcs, count), Arrays.copyOf(ops, count),
+				Arrays.copyOf(operands, count), p);
+		int slots[] = new int[count];
+		for (int i=0;i<count;i++)
+			slots[i] = ops[i].getCode() << 1;
+		Opcode last = ops[count-1];
+		Opcode jump = (BlockCompiler.isJump(last) && last != Opcode.JMP) ? last : null;
+		int target = -1;
+		if (jump != null)
+			target = operands[count-1][jump.getOperands() - 1];
+		if (target == p) //the jump and the next address are the same
+			target = -1;
+		return new CompiledBlock(code, count, Arrays.copyOf(writes, writesCount), slots, jump, operands[count-1], target);
+	}
+
+	/**
+	 * The same contract of the fast engine: register operands must be RPG0..RPG3
+	 * and the positions read or stored must be inside the memory.
+	 * imulRegMem searches a free position at run time, so it is never compiled
+	 */
+	static boolean isCompilable(Opcode op, int a, int b, int size) {
+		switch (op) {
+		case ADD_REG_REG: case SUB_REG_REG: case MOVE_REG_REG: case IMUL_REG_REG:
+		case JEQ: case JNEQ: case JGT: case JLW:
+			return isRegister(a) && isRegister(b);
+		case ADD_MEM_REG: case SUB_MEM_REG: case IMUL_MEM_REG: case MOVE_MEM_REG: case READ:
+			return a >= 0 && a < size && isRegister(b);
+		case ADD_IMM_REG: case SUB_IMM_REG: case MOVE_IMM_REG:
+			return isRegister(b);
+		case ADD_REG_MEM: case SUB_REG_MEM: case MOVE_REG_MEM: case STORE:
+			return isRegister(a) && b >= 0 && b < size;
+		case ADD_IMM_MEM: case SUB_IMM_MEM:
+			return b >= 0 && b < size;
+		case INC_REG: case LDI:
+			return isRegister(a);
+		case INC_MEM:
+			return a >= 0 && a < size;
+		case JMP: case JN: case JZ: case JNZ:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return the memory position stored by the instruction or -1
+	 */
+	private static int writtenAddress(Opcode op, int a, int b) {
+		switch (op) {
+		case ADD_REG_MEM: case SUB_REG_MEM: case MOVE_REG_MEM: case STORE:
+		case ADD_IMM_MEM: case SUB_IMM_MEM:
+			return b;
+		case INC_MEM:
+			return a;
+		default:
+			return -1;
+		}
+	}
+
+	private static boolean isRegister(int id) {
+		return id >= 0 && id < 4;
+	}
+
+	//statistics getters
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @return how many blocks were compiled
+	 */
+	public int getCompiledBlocks() {
+		return compiledBlocks;
+	}
+
+	/**
+	 * @return how many times the compiled code was discarded due to stores into the program
+	 */
+	public int getDeoptimizations() {
+		return deoptimizations;
+	}
+
+	/**
+	 * @return how many times a compiled block was executed
+	 */
+	public long getCompiledRuns() {
+		return compiledRuns;
+	}
+
+	/**
+	 * @return how many instructions were executed by compiled code
+	 */
+	public long getCompiledInstructions() {
+		return compiledInstructions;
+	}
+
+	/**
+	 * @return the time spent executing compiled code, in nanoseconds
+	 */
+	public long getCompiledNanos() {
+		return compiledNanos;
+	}
+
+	/**
+	 * @return the time spent generating and loading the compiled blocks, in nanoseconds
+	 */
+	public long getCompilationNanos() {
+		return compilationNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "compiled blocks: "+compiledBlocks+", deoptimizations: "+deoptimizations
+				+", compiled block runs: "+compiledRuns+", instructions in compiled code: "+compiledInstructions
+				+", time in compiled code: "+(compiledNanos/1000)+" us, compilation time: "+(compilationNanos/1000)+" us";
+	}
+
+}
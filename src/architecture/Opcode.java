@@ -0,0 +1,108 @@
+package architecture;
+
+/**
+ * This enum is the instruction set of the architecture.
+ * The position of each command is its machine code, so this is the only place
+ * where the codes are defined: the commands list used by the assembler and the
+ * decode table used by the control unit are both built from it.
+ * Each command knows its mnemonic, how many operands follow it in the memory
+ * and the microprogram that executes it.
+ */
+public enum Opcode {
+
+	ADD_REG_REG("addRegReg", 2, Architecture::addRegReg), //0
+	ADD_MEM_REG("addMemReg", 2, Architecture::addMemReg), //1
+	ADD_REG_MEM("addRegMem", 2, Architecture::addRegMem), //2
+	ADD_IMM_REG("addImmReg", 2, Architecture::addImmReg), //3
+
+	SUB_REG_REG("subRegReg", 2, Architecture::subRegReg), //4
+	SUB_MEM_REG("subMemReg", 2, Architecture::subMemReg), //5
+	SUB_REG_MEM("subRegMem", 2, Architecture::subRegMem), //6
+	SUB_IMM_REG("subImmReg", 2, Architecture::subImmReg), //7
+
+	MOVE_REG_REG("moveRegReg", 2, Architecture::moveRegReg), //8
+	MOVE_MEM_REG("moveMemReg", 2, Architecture::moveMemReg), //9
+	MOVE_REG_MEM("moveRegMem", 2, Architecture::moveRegMem), //10
+	MOVE_IMM_REG("moveImmReg", 2, Architecture::moveImmReg), //11
+
+	IMUL_REG_REG("imulRegReg", 2, Architecture::imulRegReg), //12
+	IMUL_MEM_REG("imulMemReg", 2, Architecture::imulMemReg), //13
+	IMUL_REG_MEM("imulRegMem", 2, Architecture::imulRegMem), //14
+
+	INC_REG("incReg", 1, Architecture::incReg), //15
+	JMP("jmp", 1, Architecture::jmp), //16
+	JN("jn", 1, Architecture::jn), //17
+	JZ("jz", 1, Architecture::jz), //18
+	JEQ("jeq", 3, Architecture::jeq), //19
+	JNEQ("jneq", 3, Architecture::jneq), //20
+	JGT("jgt", 3, Architecture::jgt), //21
+	JLW("jlw", 3, Architecture::jlw), //22
+
+	INC_MEM("incMem", 1, Architecture::incMem), //23
+	ADD_IMM_MEM("addImmMem", 2, Architecture::addImmMem), //24
+	SUB_IMM_MEM("subImmMem", 2, Architecture::subImmMem), //25
+	JNZ("jnz", 1, Architecture::jnz), //26
+	LDI("ldi", 2, Architecture::ldi), //27
+	READ("read", 2, Architecture::read), //28
+	STORE("store", 2, Architecture::store); //29
+
+	/**
+	 * A microprogram is the sequence of micro operations of a command
+	 */
+	interface Microprogram {
+		void execute(Architecture arch);
+	}
+
+	private static final Opcode CODES[] = values();
+
+	private final String mnemonic;
+	private final int operands;
+	private final Microprogram microprogram;
+
+	private Opcode(String mnemonic, int operands, Microprogram microprogram) {
+		this.mnemonic = mnemonic;
+		this.operands = operands;
+		this.microprogram = microprogram;
+	}
+
+	public String getMnemonic() {
+		return mnemonic;
+	}
+
+	/**
+	 * @return how many memory positions follow the command code
+	 */
+	public int getOperands() {
+		return operands;
+	}
+
+	/**
+	 * @return the machine code of this command
+	 */
+	public int getCode() {
+		return ordinal();
+	}
+
+	Microprogram getMicroprogram() {
+		return microprogram;
+	}
+
+	/**
+	 * This method finds the command identified by a machine code
+	 * @param code
+	 * @return the command or null if the code is not an instruction (the end of the program)
+	 */
+	public static Opcode decode(int code) {
+		if (code >= 0 && code < CODES.length)
+			return CODES[code];
+		return null;
+	}
+
+	/**
+	 * @return the amount of commands in the instruction set
+	 */
+	public static int count() {
+		return CODES.length;
+	}
+
+}
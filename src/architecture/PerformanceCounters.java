@@ -0,0 +1,290 @@
+package architecture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import components.Register;
+
+/**
+ * This class keeps the hardware-style counters of an architecture, per command and
+ * in total: the data put into each bus, the memory reads and stores, the ULA
+ * operations and the register transfers (each read or store of a register).
+ * The fetch of a command is counted as part of that command; the end of the
+ * program (or any code out of the instruction set) is counted as END.
+ *
+ * The components count their own operations; the architecture only takes the
+ * difference of those counters around each instruction, so the counters are
+ * always collected.
+ * The fast engines (FAST, TIERED and CLOSURE) do not use the components: they
+ * count how many times each command was executed and add the cost of its
+ * microprogram, measured once (see Costs). The counters are the same in every mode.
+ */
+public class PerformanceCounters {
+
+	/**
+	 * What is counted
+	 */
+	public enum Event {
+		EXTBUS1,
+		INTBUS1,
+		INTBUS2,
+		MEMORY_READ,
+		MEMORY_STORE,
+		ULA,
+		REGISTER
+	}
+
+	private static final Event EVENTS[] = Event.values();
+	private static final int END = Opcode.count(); //the row of the codes out of the instruction set
+
+	private Architecture arch;
+	private ArrayList<Register> registers; //all the registers that can be read or stored
+	private long counts[][]; //[command][event]
+	private long instructions[]; //[command]
+	private long mark[]; //the components counters when the current instruction started
+	private long now[];
+
+	PerformanceCounters(Architecture arch) {
+		this.arch = arch;
+		this.registers = new ArrayList<Register>(arch.getRegistersList());
+		this.registers.add(arch.getUla().getRegister(0));
+		this.registers.add(arch.getUla().getRegister(1));
+		this.counts = new long[END + 1][EVENTS.length];
+		this.instructions = new long[END + 1];
+		this.mark = new long[EVENTS.length];
+		this.now = new long[EVENTS.length];
+	}
+
+	/**
+	 * This method is called before the fetch
+	 */
+	void begin() {
+		read(mark);
+	}
+
+	/**
+	 * This method is called after the execution of the command
+	 * @param command
+	 */
+	void end(int command) {
+		int row = (command >= 0 && command < END) ? command : END;
+		long total[] = counts[row];
+		read(now);
+		for (int i=0;i<EVENTS.length;i++)
+			total[i] += now[i] - mark[i];
+		instructions[row]++;
+	}
+
+	/**
+	 * The fast engines report the commands they executed without the components
+	 * @param executions how many times each command was executed, in the position
+	 * (code << 1) | branch (see Costs), with END for the end of the program.
+	 * The positions are cleared
+	 */
+	void add(long executions[]) {
+		for (int slot=0;slot<executions.length;slot++) {
+			long times = executions[slot];
+			if (times == 0)
+				continue;
+			int row = slot >> 1;
+			long cost[] = Costs.TABLE[slot];
+			for (int i=0;i<EVENTS.length;i++)
+				counts[row][i] += times * cost[i];
+			instructions[row] += times;
+			executions[slot] = 0;
+		}
+	}
+
+	/**
+	 * The fast engines add the positions imulRegMem read below the last one of the
+	 * memory while it searched a free position (the table has only the last one)
+	 * @param words
+	 */
+	void addScan(long words) {
+		for (int i=0;i<EVENTS.length;i++)
+			counts[Opcode.IMUL_REG_MEM.getCode()][i] += words * Costs.SCAN[i];
+	}
+
+	/**
+	 * The fast engines add the ULA cycles of a multiplication beyond the single one
+	 * of the table (see Ula.mulCycles)
+	 * @param op
+	 * @param cycles
+	 */
+	void addCycles(Opcode op, long cycles) {
+		counts[row(op)][Event.ULA.ordinal()] += cycles;
+	}
+
+	/**
+	 * @return the size of the executions array of add
+	 */
+	static int slots() {
+		return (END + 1) << 1;
+	}
+
+	/**
+	 * This method reads the current counters of the components
+	 * @param values in the order of Event
+	 */
+	private void read(long values[]) {
+		values[0] = arch.getExtbus1().getTransfers();
+		values[1] = arch.getIntbus1().getTransfers();
+		values[2] = arch.getIntbus2().getTransfers();
+		values[3] = arch.getMemory().getReads();
+		values[4] = arch.getMemory().getStores();
+		values[5] = arch.getUla().getCycles();
+		long transfers = 0;
+		for (int i=0;i<registers.size();i++)
+			transfers += registers.get(i).getTransfers();
+		values[6] = transfers;
+	}
+
+	/**
+	 * @param op the command or null for the end of the program
+	 * @param event
+	 * @return how many times the event happened in the executions of the command
+	 */
+	public long get(Opcode op, Event event) {
+		return counts[row(op)][event.ordinal()];
+	}
+
+	/**
+	 * @param event
+	 * @return how many times the event happened in all the executions
+	 */
+	public long get(Event event) {
+		long total = 0;
+		for (long row[] : counts)
+			total += row[event.ordinal()];
+		return total;
+	}
+
+	/**
+	 * @param op the command or null for the end of the program
+	 * @return how many times the command was executed
+	 */
+	public long getInstructions(Opcode op) {
+		return instructions[row(op)];
+	}
+
+	/**
+	 * @return how many instructions were executed
+	 */
+	public long getInstructions() {
+		long total = 0;
+		for (int row=0;row<END;row++) //the end of the program is not an instruction
+			total += instructions[row];
+		return total;
+	}
+
+	/**
+	 * @return the sum of all the events: a single cost of the execution
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (Event event : EVENTS)
+			total += get(event);
+		return total;
+	}
+
+	public void reset() {
+		for (long row[] : counts)
+			Arrays.fill(row, 0);
+		Arrays.fill(instructions, 0);
+	}
+
+	private static int row(Opcode op) {
+		return (op == null) ? END : op.getCode();
+	}
+
+	/**
+	 * The cost of each command, measured once by running its microprogram over a new
+	 * architecture. Each microprogram moves the same data every time, except:
+	 *   the conditional jumps, that jump or not (branch 1 is the jump);
+	 *   imulRegMem, whose zero multiplier takes another path (branch 1) and that
+	 *   searches the highest free position (SCAN is the cost of each position read below the last one);
+	 *   mul, that counts more cycles in the compatibility mode (see Ula.mulCycles).
+	 */
+	private static class Costs {
+		static final long TABLE[][] = new long[slots()][];
+		static final long SCAN[] = new long[EVENTS.length];
+
+		static {
+			for (int slot=0;slot<TABLE.length;slot++)
+				TABLE[slot] = measure(slot >> 1, slot & 1, 0);
+			long scan[] = measure(Opcode.IMUL_REG_MEM.getCode(), 0, 1);
+			for (int i=0;i<SCAN.length;i++)
+				SCAN[i] = scan[i] - TABLE[Opcode.IMUL_REG_MEM.getCode() << 1][i];
+		}
+
+		/**
+		 * The command gets the operands 0, 1 and 1: RPG0 and RPG1 for the registers,
+		 * the positions 0 and 1 for the memory
+		 * @param code the command (END for the end of the program)
+		 * @param branch 1 to jump, or for a zero multiplier in imulRegMem
+		 * @param busy how many of the highest positions are not free
+		 * @return the events of one execution
+		 */
+		private static long[] measure(int code, int branch, int busy) {
+			Architecture arch = new Architecture();
+			int size = arch.getMemorySize();
+			arch.getMemory().load(0, new int[] {(code < END) ? code : -1, 0, 1, 1}, 0, 4);
+			for (int i=0;i<busy;i++)
+				arch.getMemory().setData(size - 1 - i, 1);
+			Opcode op = Opcode.decode(code);
+			int first = 1, second = 2; //RPG0 and RPG1
+			if (op != null) switch (op) {
+			case JEQ:
+				second = (branch == 1) ? 1 : 2;
+				break;
+			case JNEQ:
+				second = (branch == 1) ? 2 : 1;
+				break;
+			case JGT:
+				first = (branch == 1) ? 3 : 1;
+				break;
+			case JLW:
+				first = (branch == 1) ? 1 : 3;
+				break;
+			case IMUL_REG_MEM:
+				first = (branch == 1) ? 0 : 2; //the multiplier
+				break;
+			default:
+				break;
+			}
+			arch.getRegistersList().get(0).setData(first);
+			arch.getRegistersList().get(1).setData(second);
+			for (int i=0;i<3;i++)
+				arch.getFlags().setBit(i, branch); //JN, JZ and JNZ jump with branch 1
+			arch.step();
+			return arch.getCounters().counts[code].clone();
+		}
+	}
+
+	/**
+	 * A table with one line per command executed and the total
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("%-12s %12s", "command", "executions"));
+		for (Event event : EVENTS)
+			text.append(String.format(" %12s", event.name().toLowerCase()));
+		text.append('\n');
+		for (int row=0;row<=END;row++) {
+			if (instructions[row] == 0)
+				continue;
+			String name = (row == END) ? "end" : Opcode.decode(row).getMnemonic();
+			text.append(String.format("%-12s %12d", name, instructions[row]));
+			for (long count : counts[row])
+				text.append(String.format(" %12d", count));
+			text.append('\n');
+		}
+		text.append(String.format("%-12s %12d", "total", getInstructions()));
+		for (Event event : EVENTS)
+			text.append(String.format(" %12d", get(event)));
+		text.append('\n');
+		return text.toString();
+	}
+
+}
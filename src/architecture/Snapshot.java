@@ -0,0 +1,320 @@
+package architecture;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import components.Bus;
+import components.DirtyPages;
+import components.Memory;
+import components.Register;
+
+/**
+ * This class saves the complete state of an architecture into a compact array of
+ * bytes and restores it: RPG0..RPG3, PC, IR, the Flags bits, the ULA internal
+ * registers, the contents of every bus, the position the memory is waiting to
+ * store (if any) and all the memory cells.
+ * The statistics (instruction count, ULA cycles, compiled blocks) are not part
+ * of the state.
+ *
+ * Format (version 1):
+ *   "OACS" magic, 1 byte version,
+ *   the memory size, the registers, the flags, the ULA registers, the buses and the
+ *   store position as variable length integers (zigzag, 7 bits per byte),
+ *   the memory as runs: zeros count, values count and the values,
+ *   and the CRC32 of all the previous bytes (4 bytes, big endian).
+ * Most of the memory is zero, so a small program takes a few hundred bytes.
+ *
+ * A delta ("OACD" magic) has the same header and state, followed by the amount of
+ * memory pages written since the last checkpoint and, for each one, its index and
+ * its words as runs. Applied over the state it was saved from, it gives the new state.
+ */
+class Snapshot {
+
+	private static final int MAGIC = 0x4F414353; //OACS
+	private static final int DELTA_MAGIC = 0x4F414344; //OACD
+	static final int VERSION = 1;
+
+	private byte buffer[];
+	private int position;
+
+	private Snapshot(byte buffer[]) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * This method saves the state of the architecture
+	 * @param arch
+	 * @return
+	 */
+	static byte[] save(Architecture arch) {
+		Memory memory = arch.getMemory();
+		int size = memory.getSize();
+		Snapshot out = new Snapshot(new byte[64 + Math.min(size, 1 << 16)]);
+		out.writeFixed(MAGIC);
+		out.writeByte(VERSION);
+		out.writeState(arch);
+		out.writeRuns(memory, 0, size);
+		return out.finish();
+	}
+
+	/**
+	 * This method saves the state of the architecture with only the memory pages
+	 * written since the last checkpoint (see Memory.getDirtyPages)
+	 * @param arch
+	 * @return
+	 */
+	static byte[] saveDelta(Architecture arch) {
+		Memory memory = arch.getMemory();
+		DirtyPages dirty = memory.getDirtyPages();
+		Snapshot out = new Snapshot(new byte[256]);
+		out.writeFixed(DELTA_MAGIC);
+		out.writeByte(VERSION);
+		out.writeState(arch);
+		out.writeInt(dirty.count());
+		for (int page=dirty.next(0);page>=0;page=dirty.next(page + 1)) {
+			int start = page << DirtyPages.PAGE_BITS;
+			out.writeInt(page);
+			out.writeRuns(memory, start, (int) Math.min((long) start + DirtyPages.PAGE_SIZE, memory.getSize()));
+		}
+		return out.finish();
+	}
+
+	private void writeState(Architecture arch) {
+		writeInt(arch.getMemory().getSize());
+		for (Register register : registers(arch))
+			writeInt(register.getData());
+		Register flags = arch.getFlags();
+		writeInt(flags.getNumberOfBits());
+		int bits = 0;
+		for (int i=0;i<flags.getNumberOfBits();i++)
+			bits |= flags.getBit(i) << i;
+		writeInt(bits);
+		for (Bus bus : buses(arch))
+			writeInt(bus.get());
+		writeInt(arch.getMemory().getStorePosition());
+	}
+
+	/**
+	 * The memory from start to end as runs: zeros count, values count and the values
+	 */
+	private void writeRuns(Memory memory, int start, int end) {
+		int i = start;
+		while (i < end) {
+			int zeros = i;
+			while (i < end && memory.getData(i) == 0)
+				i++;
+			int values = i;
+			while (i < end && memory.getData(i) != 0)
+				i++;
+			writeInt(values - zeros);
+			writeInt(i - values);
+			for (int j=values;j<i;j++)
+				writeInt(memory.getData(j));
+		}
+	}
+
+	private byte[] finish() {
+		CRC32 crc = new CRC32();
+		crc.update(buffer, 0, position);
+		writeFixed((int) crc.getValue());
+		return Arrays.copyOf(buffer, position);
+	}
+
+	/**
+	 * This method overwrites the state of the architecture with the saved one
+	 * @param arch
+	 * @param data
+	 * @throws IllegalArgumentException if the data is not a valid snapshot of this architecture
+	 */
+	static void restore(Architecture arch, byte data[]) {
+		Snapshot in = open(data, MAGIC);
+		int state[] = in.readState(arch);
+		Memory memory = arch.getMemory();
+		int runs = in.position;
+		in.readRuns(memory, 0, memory.getSize(), false);
+		in.position = runs;
+		setState(arch, state);
+		in.readRuns(memory, 0, memory.getSize(), true);
+	}
+
+	/**
+	 * This method applies a delta (see saveDelta) over the state it was saved from
+	 * @param arch
+	 * @param data
+	 * @throws IllegalArgumentException if the data is not a valid delta of this architecture
+	 */
+	static void restoreDelta(Architecture arch, byte data[]) {
+		Snapshot in = open(data, DELTA_MAGIC);
+		int state[] = in.readState(arch);
+		int pages = in.position;
+		in.readPages(arch.getMemory(), false);
+		in.position = pages;
+		setState(arch, state);
+		in.readPages(arch.getMemory(), true);
+	}
+
+	/**
+	 * This method checks the checksum, the magic and the version
+	 * @return the reader after the version
+	 */
+	private static Snapshot open(byte data[], int magic) {
+		if (data.length < 9)
+			throw new IllegalArgumentException("The snapshot is truncated");
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length - 4);
+		Snapshot in = new Snapshot(data);
+		in.position = data.length - 4;
+		if (in.readFixed() != (int) crc.getValue())
+			throw new IllegalArgumentException("The snapshot checksum does not match");
+		in.position = 0;
+		if (in.readFixed() != magic)
+			throw new IllegalArgumentException("The data is not a "+(magic == MAGIC ? "snapshot" : "delta"));
+		int version = in.readByte();
+		if (version != VERSION)
+			throw new IllegalArgumentException("Unknown snapshot version "+version);
+		return in;
+	}
+
+	/**
+	 * This method reads and checks the state, without changing the architecture
+	 * (the whole data is checked before anything is restored)
+	 * @return the registers, the flags bits, the buses and the store position, in the order of the format
+	 */
+	private int[] readState(Architecture arch) {
+		if (readInt() != arch.getMemory().getSize())
+			throw new IllegalArgumentException("The snapshot has another memory size");
+		Register registers[] = registers(arch);
+		Bus buses[] = buses(arch);
+		int state[] = new int[registers.length + 1 + buses.length + 1];
+		int n = 0;
+		for (int i=0;i<registers.length;i++)
+			state[n++] = readInt();
+		if (readInt() != arch.getFlags().getNumberOfBits())
+			throw new IllegalArgumentException("The snapshot has other flags");
+		state[n++] = readInt();
+		for (int i=0;i<buses.length;i++)
+			state[n++] = readInt();
+		state[n++] = readInt();
+		return state;
+	}
+
+	/**
+	 * @param state read by readState
+	 */
+	private static void setState(Architecture arch, int state[]) {
+		int n = 0;
+		for (Register register : registers(arch))
+			register.setData(state[n++]);
+		Register flags = arch.getFlags();
+		int bits = state[n++];
+		for (int i=0;i<flags.getNumberOfBits();i++)
+			flags.setBit(i, (bits >> i) & 1);
+		for (Bus bus : buses(arch))
+			bus.put(state[n++]);
+		arch.getMemory().setStorePosition(state[n++]);
+	}
+
+	/**
+	 * This method reads the pages of a delta
+	 * @param apply false to only check them
+	 */
+	private void readPages(Memory memory, boolean apply) {
+		int pages = readInt();
+		int last = -1;
+		for (int i=0;i<pages;i++) {
+			int page = readInt();
+			if (page <= last || page >= memory.getDirtyPages().getPages())
+				throw new IllegalArgumentException("The delta pages are corrupted");
+			int start = page << DirtyPages.PAGE_BITS;
+			readRuns(memory, start, (int) Math.min((long) start + DirtyPages.PAGE_SIZE, memory.getSize()), apply);
+			last = page;
+		}
+	}
+
+	/**
+	 * @param apply false to only check the runs
+	 */
+	private void readRuns(Memory memory, int start, int end, boolean apply) {
+		int i = start;
+		while (i < end) {
+			int zeros = readInt();
+			int values = readInt();
+			if (zeros < 0 || values < 0 || (long) i + zeros + values > end)
+				throw new IllegalArgumentException("The snapshot memory is corrupted");
+			if (!apply) {
+				for (int j=0;j<values;j++)
+					readInt();
+				i += zeros + values;
+				continue;
+			}
+			for (int j=0;j<zeros;j++)
+				memory.setData(i++, 0);
+			for (int j=0;j<values;j++)
+				memory.setData(i++, readInt());
+		}
+	}
+
+	/**
+	 * The registers saved, in the order of the format
+	 */
+	private static Register[] registers(Architecture arch) {
+		return new Register[] {arch.getRPG(), arch.getRPG1(), arch.getRPG2(), arch.getRPG3(),
+				arch.getPC(), arch.getIR(), arch.getUla().getRegister(0), arch.getUla().getRegister(1)};
+	}
+
+	/**
+	 * The buses saved, in the order of the format
+	 */
+	private static Bus[] buses(Architecture arch) {
+		return new Bus[] {arch.getExtbus1(), arch.getIntbus1(), arch.getIntbus2(), arch.getDemux(),
+				arch.getUla().getInternalBus()};
+	}
+
+	private void writeByte(int value) {
+		if (position == buffer.length)
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		buffer[position++] = (byte) value;
+	}
+
+	private void writeFixed(int value) {
+		for (int shift=24;shift>=0;shift-=8)
+			writeByte(value >>> shift);
+	}
+
+	/**
+	 * The zigzag encoding keeps the small negative values (as -1) in a single byte
+	 */
+	private void writeInt(int value) {
+		int zigzag = (value << 1) ^ (value >> 31);
+		while ((zigzag & ~0x7F) != 0) {
+			writeByte((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		writeByte(zigzag);
+	}
+
+	private int readByte() {
+		if (position >= buffer.length - 4) //the checksum is not part of the data
+			throw new IllegalArgumentException("The snapshot is truncated");
+		return buffer[position++] & 0xFF;
+	}
+
+	private int readFixed() {
+		int value = 0;
+		for (int i=0;i<4;i++)
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		return value;
+	}
+
+	private int readInt() {
+		int zigzag = 0;
+		for (int shift=0;shift<35;shift+=7) {
+			int b = readByte();
+			zigzag |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+		}
+		throw new IllegalArgumentException("The snapshot is corrupted");
+	}
+
+}
@@ -0,0 +1,172 @@
+package architecture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * This class keeps the sequences of commands (pairs and triples) that the closure
+ * engine executes as a single fused closure (a superinstruction).
+ * The sequences are only fused inside a basic block, and each instruction of the
+ * sequence keeps its own effects (registers, memory, IR and Flags).
+ *
+ * The set can be the default one or chosen from a profile: the programs of a
+ * corpus are loaded and the most frequent adjacent sequences are selected.
+ * Usage: java architecture.Superinstructions pairs triples program1 program2 ...
+ * (the programs are .dxf files, given without the extension as in readExec)
+ */
+public class Superinstructions {
+
+	private HashSet<Integer> pairs;
+	private HashSet<Integer> triples;
+
+	/**
+	 * Creates an empty set (no fusion)
+	 */
+	public Superinstructions() {
+		pairs = new HashSet<Integer>();
+		triples = new HashSet<Integer>();
+	}
+
+	/**
+	 * This method returns the set used when no profile is given.
+	 * The sequences come from the code generated by the assembler
+	 * (move 1 %RPG3 / move %RPG3 a, sub followed by a conditional jump, ...)
+	 * @return
+	 */
+	public static Superinstructions defaults() {
+		Superinstructions set = new Superinstructions();
+		set.add(Opcode.MOVE_IMM_REG, Opcode.MOVE_REG_MEM);
+		set.add(Opcode.SUB_REG_MEM, Opcode.JZ);
+		set.add(Opcode.SUB_REG_MEM, Opcode.JN);
+		set.add(Opcode.SUB_REG_MEM, Opcode.JNZ);
+		set.add(Opcode.MOVE_REG_REG, Opcode.ADD_REG_REG);
+		set.add(Opcode.INC_REG, Opcode.JN);
+		set.add(Opcode.MOVE_IMM_REG, Opcode.MOVE_REG_MEM, Opcode.JNZ);
+		return set;
+	}
+
+	/**
+	 * This method includes a sequence of 2 or 3 commands in the set
+	 * @param sequence
+	 */
+	public void add(Opcode... sequence) {
+		if (sequence.length == 2)
+			pairs.add(key(sequence[0], sequence[1]));
+		else if (sequence.length == 3)
+			triples.add(key(sequence[0], sequence[1], sequence[2]));
+		else
+			throw new IllegalArgumentException("A superinstruction has 2 or 3 commands");
+	}
+
+	public boolean contains(Opcode first, Opcode second) {
+		return pairs.contains(key(first, second));
+	}
+
+	public boolean contains(Opcode first, Opcode second, Opcode third) {
+		return triples.contains(key(first, second, third));
+	}
+
+	/**
+	 * @return how many sequences are in the set
+	 */
+	public int size() {
+		return pairs.size() + triples.size();
+	}
+
+	/**
+	 * This method counts the adjacent sequences of commands inside the basic blocks
+	 * of the programs and selects the most frequent ones
+	 * @param programs the programs already loaded in the memory of each architecture
+	 * @param maxPairs how many pairs are selected
+	 * @param maxTriples how many triples are selected
+	 * @return
+	 */
+	public static Superinstructions profile(ArrayList<Architecture> programs, int maxPairs, int maxTriples) {
+		HashMap<Integer, Integer> pairsCount = new HashMap<Integer, Integer>();
+		HashMap<Integer, Integer> triplesCount = new HashMap<Integer, Integer>();
+		for (Architecture arch : programs) {
+			InstructionCache cache = arch.getInstructionCache();
+			Opcode previous = null, beforePrevious = null;
+			int pc = 0;
+			while (pc >= 0 && pc < cache.size()) {
+				Opcode op = cache.opcode(pc);
+				if (op == null)
+					break;
+				if (previous != null)
+					count(pairsCount, key(previous, op));
+				if (beforePrevious != null)
+					count(triplesCount, key(beforePrevious, previous, op));
+				if (BlockCompiler.isJump(op)) { //the sequences do not cross the basic blocks
+					beforePrevious = null;
+					previous = null;
+				}
+				else {
+					beforePrevious = previous;
+					previous = op;
+				}
+				pc += op.getOperands() + 1;
+			}
+		}
+		Superinstructions set = new Superinstructions();
+		set.pairs.addAll(mostFrequent(pairsCount, maxPairs));
+		set.triples.addAll(mostFrequent(triplesCount, maxTriples));
+		return set;
+	}
+
+	private static void count(HashMap<Integer, Integer> counts, int key) {
+		Integer count = counts.get(key);
+		counts.put(key, count == null ? 1 : count + 1);
+	}
+
+	private static ArrayList<Integer> mostFrequent(HashMap<Integer, Integer> counts, int max) {
+		ArrayList<Map.Entry<Integer, Integer>> entries = new ArrayList<Map.Entry<Integer, Integer>>(counts.entrySet());
+		//the most frequent first, the lowest key breaks the ties (the same corpus gives the same set)
+		entries.sort((x, y) -> x.getValue().equals(y.getValue()) ? x.getKey().compareTo(y.getKey())
+				: y.getValue().compareTo(x.getValue()));
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (int i=0;i<max && i<entries.size();i++)
+			keys.add(entries.get(i).getKey());
+		return keys;
+	}
+
+	private static int key(Opcode first, Opcode second) {
+		return first.getCode() * Opcode.count() + second.getCode();
+	}
+
+	private static int key(Opcode first, Opcode second, Opcode third) {
+		return key(first, second) * Opcode.count() + third.getCode();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		int n = Opcode.count();
+		for (int key : pairs)
+			text.append(Opcode.decode(key / n).getMnemonic()+" "+Opcode.decode(key % n).getMnemonic()+"\n");
+		for (int key : triples)
+			text.append(Opcode.decode(key / (n*n)).getMnemonic()+" "+Opcode.decode(key / n % n).getMnemonic()
+					+" "+Opcode.decode(key % n).getMnemonic()+"\n");
+		return text.toString();
+	}
+
+	/**
+	 * This method prints the superinstructions chosen from the profile of the programs
+	 * @param args the amount of pairs, of triples and the programs
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int maxPairs = Integer.parseInt(args[0]);
+		int maxTriples = Integer.parseInt(args[1]);
+		ArrayList<Architecture> programs = new ArrayList<Architecture>();
+		for (int i=2;i<args.length;i++) {
+			Architecture arch = new Architecture();
+			arch.readExec(args[i]);
+			programs.add(arch);
+		}
+		System.out.print(profile(programs, maxPairs, maxTriples));
+	}
+
+}
@@ -2,12 +2,25 @@ package architecture;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 
 import org.junit.Test;
 
+import components.ArrayMemory;
+import components.Cache;
+import components.CacheHierarchy;
+import components.CowMemory;
+import components.DirectMemory;
 import components.Memory;
+import components.MemoryBackend;
+import components.MemoryImage;
+import components.OutputDevice;
+import components.PagedMemory;
+import components.Watchpoints;
 
 public class TestArchitecture {
 	
@@ -476,6 +489,40 @@ public class TestArchitecture {
 		assertTrue("jlw".equals(commands.get(22)));		
 	}
 	
+	@Test
+	public void testCommandsListFollowsOpcodes() {
+		//the commands list (used by the assembler) and the decode table come from the same registry
+		Architecture arch = new Architecture();
+		ArrayList<String> commands = arch.getCommandsList();
+		assertEquals(Opcode.count(), commands.size());
+		for (Opcode op : Opcode.values()) {
+			assertEquals(op.getMnemonic(), commands.get(op.getCode()));
+			assertEquals(op, Opcode.decode(commands.indexOf(op.getMnemonic())));
+		}
+		assertEquals(null, Opcode.decode(-1)); //the end of the program
+	}
+	
+	@Test
+	public void testAddImmReg() {
+		Architecture arch = new Architecture();
+		//addImmReg 5 %RPG1 stored at position 10
+		arch.getMemory().getDataList()[10]=Opcode.ADD_IMM_REG.getCode();
+		arch.getMemory().getDataList()[11]=5;
+		arch.getMemory().getDataList()[12]=1;
+		arch.getExtbus1().put(10);
+		arch.getPC().store();
+		//RPG1 has -5
+		arch.getExtbus1().put(-5);
+		arch.getRPG1().store();
+		
+		arch.addImmReg();
+		//RPG1 must have 0 and the flag zero must be set
+		assertEquals(0, arch.getRPG1().getData());
+		assertEquals(1, arch.getFlags().getBit(0));
+		//PC must be pointing to 13
+		assertEquals(13, arch.getPC().getData());
+	}
+	
 	@Test
 	public void testReadExec() throws IOException {
 		Architecture arch = new Architecture();
@@ -487,5 +534,171 @@ public class TestArchitecture {
 		assertEquals(1, arch.getMemory().getDataList()[4]);
 		assertEquals(0, arch.getMemory().getDataList()[5]);
 	}
+	
+	@Test
+	public void testReadExecFormat() throws IOException {
+		File file = File.createTempFile("loader", ".dxf");
+		String name = file.getPath().substring(0, file.getPath().length() - 4);
+		FileWriter writer = new FileWriter(file);
+		writer.write("11\r\n-2147483648\n2147483647\n\n-1");
+		writer.close();
+		Architecture arch = new Architecture();
+		arch.readExec(name);
+		assertEquals(11, arch.getMemory().getData(0));
+		assertEquals(Integer.MIN_VALUE, arch.getMemory().getData(1));
+		assertEquals(Integer.MAX_VALUE, arch.getMemory().getData(2));
+		assertEquals(-1, arch.getMemory().getData(3));
+		assertEquals(0, arch.getMemory().getData(4));
+
+		String wrong[] = {"12\nab\n", "2147483648\n", "-\n", "1-2\n"};
+		for (String text : wrong) {
+			writer = new FileWriter(file);
+			writer.write(text);
+			writer.close();
+			try {
+				arch.readExec(name);
+				fail(text);
+			}
+			catch (NumberFormatException e) {
+			}
+		}
+		file.delete();
+	}
+	
+	@Test
+	public void testCowMemory() {
+		//0: moveMemReg 127 %RPG0 (the input)
+		//3: incReg %RPG0
+		//5: moveRegMem %RPG0 126 (the output)
+		//8: end
+		int program[] = {Opcode.MOVE_MEM_REG.getCode(), 127, 0, Opcode.INC_REG.getCode(), 0,
+				Opcode.MOVE_REG_MEM.getCode(), 0, 126, -1};
+		Architecture loaded = new Architecture();
+		loaded.getMemory().load(0, program, 0, program.length);
+		MemoryImage image = new MemoryImage(loaded.getMemory());
+		for (int input=0;input<100;input++) {
+			CowMemory backend = new CowMemory(image);
+			Architecture arch = new Architecture(false, ExecutionMode.FAST, backend);
+			arch.getMemory().setData(127, input);
+			arch.controlUnitEexec();
+			assertEquals(input + 1, arch.getMemory().getData(126));
+			assertEquals(1, backend.getCopiedPages());
+		}
+		assertEquals(0, image.get(126));
+	}
+	
+	@Test
+	public void testWatchpoints() {
+		//0: moveImmReg -3 %RPG0
+		//3: incReg %RPG0
+		//5: moveRegMem %RPG0 100
+		//8: jn 3
+		//10: end
+		int program[] = {11, -3, 0, 15, 0, 10, 0, 100, 17, 3, -1};
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			Architecture arch = new Architecture(false, mode);
+			arch.getMemory().load(0, program, 0, program.length);
+			arch.setWatchpoints(new Watchpoints(arch.getMemorySize(), null)); //pauses at each hit
+			arch.getWatchpoints().watchWrite(100);
+			int values[] = {-2, -1, 0};
+			for (int value : values) {
+				arch.controlUnitEexec();
+				assertTrue(arch.getWatchpoints().isPaused());
+				Watchpoints.Hit hit = arch.getWatchpoints().getLastHit();
+				assertEquals(5, hit.getPc());
+				assertEquals(value, hit.getNewValue());
+				assertEquals(8, arch.getPC().getData()); //the instruction was completed
+			}
+			arch.controlUnitEexec();
+			assertFalse(arch.getWatchpoints().isPaused());
+			assertEquals(3, arch.getWatchpoints().getHits());
+			assertEquals(0, arch.getMemory().getData(100));
+		}
+	}
+	
+	@Test
+	public void testCache() {
+		//the loop of testWatchpoints: the same results, now with the memory accesses modeled
+		int program[] = {11, -3, 0, 15, 0, 10, 0, 100, 17, 3, -1};
+		Architecture arch = new Architecture(false, ExecutionMode.FAST);
+		arch.getMemory().load(0, program, 0, program.length);
+		CacheHierarchy cache = new CacheHierarchy(100);
+		cache.addLevel(new Cache("L1", 16, 2, 4, 1, Cache.WritePolicy.WRITE_BACK, Cache.Replacement.LRU));
+		arch.setCache(cache);
+		arch.controlUnitEexec();
+		assertEquals(0, arch.getMemory().getData(100));
+		Cache l1 = cache.getLevels().get(0);
+		assertEquals(arch.getMemory().getReads() + arch.getMemory().getStores() / 2, l1.getAccesses());
+		assertTrue(l1.getHits() > l1.getMisses()); //the loop stays in the cache
+	}
+	
+	@Test
+	public void testOutputDevice() throws IOException {
+		//the loop of testWatchpoints, storing RPG0 into the device at 100
+		int program[] = {11, -3, 0, 15, 0, 10, 0, 100, 17, 3, -1};
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			Architecture arch = new Architecture(false, mode);
+			arch.getMemory().load(0, program, 0, program.length);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			arch.setOutputDevice(new OutputDevice(100, out));
+			arch.controlUnitEexec();
+			arch.getOutputDevice().close();
+			assertEquals(mode.name(), "-2\n-1\n0\n", out.toString());
+			assertEquals(0, arch.getMemory().getData(100));
+			assertEquals(0, arch.getRPG().getData());
+		}
+	}
+	
+	@Test
+	public void testImulRegReg() {
+		Architecture arch = new Architecture();
+		//imulRegReg %RPG0 %RPG1 stored at position 10
+		arch.getMemory().getDataList()[10]=Opcode.IMUL_REG_REG.getCode();
+		arch.getMemory().getDataList()[11]=0;
+		arch.getMemory().getDataList()[12]=1;
+		arch.getExtbus1().put(10);
+		arch.getPC().store();
+		//RPG0 has 100000 and RPG1 (the multiplier) has -3
+		arch.getExtbus1().put(100000);
+		arch.getRPG().store();
+		arch.getExtbus1().put(-3);
+		arch.getRPG1().store();
+		arch.getUla().setMultiplyCompatibility(true);
+		long cycles = arch.getUla().getCycles();
+		
+		arch.imulRegReg();
+		//RPG1 must have -300000 and the flag negative must be set
+		assertEquals(-300000, arch.getRPG1().getData());
+		assertEquals(1, arch.getFlags().getBit(1));
+		//the old microprogram subtracted 100000 four times, and PC was incremented three times
+		assertEquals(4+3, arch.getUla().getCycles() - cycles);
+		//PC must be pointing to 13
+		assertEquals(13, arch.getPC().getData());
+	}
+	
+	@Test
+	public void testMemoryBackends() {
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			MemoryBackend backends[] = {new ArrayMemory(1 << 20), new DirectMemory(1 << 20), new PagedMemory(1 << 28)};
+			for (MemoryBackend backend : backends) {
+				Architecture arch = new Architecture(false, mode, backend);
+				int last = arch.getMemorySize()-1;
+				assertEquals(backend.size(), last+1);
+				//moveImmReg 6 %RPG0 / moveRegMem %RPG0 last / moveMemReg last %RPG3 / end
+				int program[] = {11, 6, 0, 10, 0, last, 9, last, 3, -1};
+				for (int i=0;i<program.length;i++)
+					arch.getMemory().setData(i, program[i]);
+				arch.controlUnitEexec();
+				assertEquals(6, arch.getRPG3().getData());
+				assertEquals(6, arch.getMemory().getData(last));
+				assertEquals(9, arch.getPC().getData());
+				assertEquals(3, arch.getInstructionCount());
+				//every backend runs in the chosen engine: only the microprograms use the ULA
+				assertEquals(mode == ExecutionMode.MICROPROGRAM, arch.getUla().getCycles() > 0);
+				assertEquals(3, arch.getCounters().getInstructions());
+			}
+			assertEquals(2, ((PagedMemory) backends[2]).getAllocatedPages());
+		}
+	}
 
 }
@@ -0,0 +1,126 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+public class TestBatchRunner {
+
+	private File write(File dir, String name, int program[]) throws IOException {
+		File file = new File(dir, name+".dxf");
+		FileWriter writer = new FileWriter(file);
+		for (int word : program)
+			writer.write(word+"\n");
+		writer.close();
+		return file;
+	}
+
+	@Test
+	public void testBatch() throws IOException, InterruptedException {
+		File dir = Files.createTempDirectory("batch").toFile();
+		//moveMemReg 100 %RPG0 / addImmReg 1 %RPG0 / moveRegMem %RPG0 101 / end
+		write(dir, "inc", new int[] {9, 100, 0, 3, 1, 0, 10, 0, 101, -1});
+		//moveMemReg 100 %RPG0 / incReg %RPG1 / incReg %RPG0 / jn 3 / moveRegMem %RPG1 101 / end
+		write(dir, "loop", new int[] {9, 100, 0, 15, 1, 15, 0, 17, 3, 10, 1, 101, -1});
+		File ignored = new File(dir, "notes.txt");
+		ignored.createNewFile();
+
+		String events = null; //the counters of the microprograms
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			BatchRunner runner = new BatchRunner(mode, 2);
+			runner.addInput(100, -5);
+			runner.setCells(100, 101);
+			HashMap<String, BatchRunner.Result> results = new HashMap<String, BatchRunner.Result>();
+			ArrayList<File> programs = BatchRunner.listPrograms(dir.getPath());
+			assertEquals(2, programs.size());
+			runner.run(programs, result -> results.put(new File(result.getProgram()).getName(), result));
+
+			BatchRunner.Result inc = results.get("inc.dxf");
+			assertNull(inc.getError());
+			assertEquals(-4, inc.getRegisters()[0]);
+			assertArrayEquals(new int[] {-5, -4}, inc.getCells());
+			assertEquals(1, inc.getFlags()[1]);
+			assertEquals(3, inc.getInstructions());
+			assertTrue(inc.getEvents(PerformanceCounters.Event.MEMORY_READ) > 0);
+			String counted = "";
+			for (PerformanceCounters.Event event : PerformanceCounters.Event.values())
+				counted += inc.getEvents(event)+" ";
+			if (mode == ExecutionMode.MICROPROGRAM) //the first mode
+				events = counted;
+			assertEquals(events, counted); //the fast engines count the same events
+
+			BatchRunner.Result loop = results.get("loop.dxf");
+			assertNull(loop.getError());
+			assertEquals(0, loop.getRegisters()[0]);
+			assertEquals(5, loop.getRegisters()[1]);
+			assertArrayEquals(new int[] {-5, 5}, loop.getCells());
+			assertEquals(1+5*3+1, loop.getInstructions());
+		}
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testSharedImage() throws IOException, InterruptedException {
+		File dir = Files.createTempDirectory("batch").toFile();
+		//moveMemReg 100 %RPG0 / addImmReg 1 %RPG0 / moveRegMem %RPG0 101 / end
+		File inc = write(dir, "inc", new int[] {9, 100, 0, 3, 1, 0, 10, 0, 101, -1});
+		for (boolean copyOnWrite : new boolean[] {false, true}) {
+			BatchRunner runner = new BatchRunner(ExecutionMode.FAST, 1);
+			runner.setCopyOnWrite(copyOnWrite);
+			runner.setCells(100, 101);
+			for (int input=0;input<3;input++) { //the image is read once and never changed by the executions
+				runner.addInput(100, input);
+				BatchRunner.Result result = runner.execute(inc);
+				assertNull(result.getError());
+				assertArrayEquals(new int[] {input, input + 1}, result.getCells());
+				assertEquals(3, result.getInstructions());
+			}
+		}
+		inc.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testLimits() throws IOException, InterruptedException {
+		File dir = Files.createTempDirectory("batch").toFile();
+		//incReg %RPG0 / jmp 0: never ends
+		write(dir, "forever", new int[] {15, 0, 16, 0});
+		write(dir, "inc", new int[] {15, 0, -1});
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			BatchRunner runner = new BatchRunner(mode, 2);
+			runner.setInstructionLimit(100000);
+			HashMap<String, BatchRunner.Result> results = new HashMap<String, BatchRunner.Result>();
+			runner.run(BatchRunner.listPrograms(dir.getPath()), result -> results.put(new File(result.getProgram()).getName(), result));
+			BatchRunner.Result forever = results.get("forever.dxf");
+			assertNotNull(forever.getError());
+			assertTrue(forever.getInstructions() >= 100000);
+			assertTrue(forever.toString().contains(";error;limit reached"));
+			assertNull(results.get("inc.dxf").getError());
+		}
+		BatchRunner runner = new BatchRunner(ExecutionMode.FAST, 1);
+		runner.setTimeLimit(50);
+		BatchRunner.Result forever = runner.execute(new File(dir, "forever.dxf"));
+		assertNotNull(forever.getError());
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testMissingProgram() {
+		BatchRunner runner = new BatchRunner();
+		BatchRunner.Result result = runner.execute(new File("missing.dxf"));
+		assertNotNull(result.getError());
+		assertTrue(result.toString().startsWith("missing.dxf;error;"));
+	}
+
+}
@@ -0,0 +1,97 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import assembler.Assembler;
+
+public class TestExecutable {
+
+	@Test
+	public void testAssembledProgram() throws IOException {
+		File dir = File.createTempFile("executable", "");
+		dir.delete();
+		dir.mkdir();
+		String name = new File(dir, "program").getPath();
+		try (FileWriter writer = new FileWriter(name + ".dsf")) {
+			writer.write("a\nmove -3 %RPG0\nlaco:\ninc %RPG0\nmove %RPG0 &a\njn laco\n");
+		}
+		Assembler assembler = new Assembler();
+		assembler.read(name);
+		assembler.parse();
+		assembler.makeExecutable(name);
+		assembler.makeExecutable(name, true);
+
+		Architecture text = new Architecture();
+		text.readExec(name);
+		Architecture binary = new Architecture();
+		Executable executable = binary.readBinaryExec(name);
+		assertArrayEquals(text.getMemory().getDataList(), binary.getMemory().getDataList());
+
+		assertEquals(Executable.SymbolKind.VARIABLE, executable.getSymbol("a").getKind());
+		assertEquals(binary.getMemorySize() - 1, executable.getSymbol("a").getAddress());
+		assertEquals(Executable.SymbolKind.LABEL, executable.getSymbol("laco").getKind());
+		assertEquals(3, executable.getSymbol("laco").getAddress());
+		assertNull(executable.getSymbol("b"));
+		assertEquals(-1, executable.getCode()[executable.getCode().length - 1]);
+		binary.controlUnitEexec();
+		assertEquals(0, binary.getMemory().getData(binary.getMemorySize() - 1));
+
+		new File(name + ".dsf").delete();
+		new File(name + ".dxf").delete();
+		new File(name + Executable.EXTENSION).delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testSections() throws IOException {
+		Executable executable = new Executable(new int[] {11, 7, 0, -1}, 120, new int[] {5, -6});
+		executable.addSymbol("x", Executable.SymbolKind.VARIABLE, 120);
+		Executable copy = Executable.parse(ByteBuffer.wrap(executable.toBytes()), "test");
+		assertArrayEquals(executable.getCode(), copy.getCode());
+		assertArrayEquals(executable.getData(), copy.getData());
+		assertEquals(120, copy.getDataAddress());
+		assertEquals(120, copy.getSymbol("x").getAddress());
+
+		Architecture arch = new Architecture(false, ExecutionMode.FAST);
+		copy.load(arch.getMemory());
+		assertEquals(-6, arch.getMemory().getData(121));
+		arch.controlUnitEexec();
+		assertEquals(7, arch.getRPG().getData());
+	}
+
+	@Test
+	public void testCorrupted() throws IOException {
+		byte bytes[] = new Executable(new int[] {15, 0, -1}, 127, new int[] {3}).toBytes();
+		for (int i=0;i<bytes.length;i++) {
+			byte changed[] = bytes.clone();
+			changed[i] ^= 0x01;
+			try {
+				Executable.parse(ByteBuffer.wrap(changed), "test");
+				fail("the byte "+i+" was changed");
+			}
+			catch (IOException e) {
+			}
+		}
+		File file = File.createTempFile("truncated", Executable.EXTENSION);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(bytes, 0, bytes.length / 2);
+		}
+		String name = file.getPath().substring(0, file.getPath().length() - Executable.EXTENSION.length());
+		try {
+			new Architecture().readBinaryExec(name);
+			fail("truncated executable");
+		}
+		catch (IOException e) {
+		}
+		file.delete();
+	}
+
+}
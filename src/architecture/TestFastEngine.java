@@ -0,0 +1,248 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class TestFastEngine {
+
+	/**
+	 * This method loads the same program in two architectures, runs one with the
+	 * microprograms and the other with the fast engine (and then with the closure
+	 * engine) and compares the final states
+	 * @param program
+	 */
+	private void compareEngines(int program[]) {
+		compareEngines(program, ExecutionMode.FAST);
+		compareEngines(program, ExecutionMode.CLOSURE);
+	}
+
+	private void compareEngines(int program[], ExecutionMode mode) {
+		Architecture micro = new Architecture();
+		Architecture fast = new Architecture(false, mode);
+		for (int i=0;i<program.length;i++) {
+			micro.getMemory().getDataList()[i] = program[i];
+			fast.getMemory().getDataList()[i] = program[i];
+		}
+		micro.controlUnitEexec();
+		fast.controlUnitEexec();
+		compareStates(micro, fast);
+	}
+
+	private void compareStates(Architecture micro, Architecture fast) {
+		for (int i=0;i<6;i++) //RPG0..RPG3, PC and IR
+			assertEquals(micro.getRegistersList().get(i).getData(), fast.getRegistersList().get(i).getData());
+		for (int i=0;i<3;i++)
+			assertEquals(micro.getFlags().getBit(i), fast.getFlags().getBit(i));
+		for (int i=0;i<micro.getMemorySize();i++)
+			assertEquals(micro.getMemory().getDataList()[i], fast.getMemory().getDataList()[i]);
+		assertEquals(micro.getInstructionCount(), fast.getInstructionCount());
+		assertEquals(micro.getMemory().getStorePosition(), fast.getMemory().getStorePosition());
+	}
+
+	@Test
+	public void testStorePosition() {
+		//a stale negative position (as restored from an old snapshot) is released only by the stores
+		int programs[][] = {
+			//moveImmReg 4 %RPG0 / moveRegMem %RPG0 100 / end
+			{11, 4, 0, 10, 0, 100, -1},
+			//moveImmReg 4 %RPG0 / end: no store, the position is kept
+			{11, 4, 0, -1},
+			//moveImmReg -3 %RPG0 / moveRegMem %RPG0 -5 / end: the store to a negative address
+			{11, -3, 0, 10, 0, -5, -1},
+			//moveRegMem %RPG0 100 / moveImmReg -3 %RPG0 / moveRegMem %RPG0 -5 / moveImmReg 1 %RPG1 / end
+			{10, 0, 100, 11, -3, 0, 10, 0, -5, 11, 1, 1, -1},
+		};
+		for (int program[] : programs) {
+			for (ExecutionMode mode : new ExecutionMode[] {ExecutionMode.FAST, ExecutionMode.TIERED, ExecutionMode.CLOSURE}) {
+				Architecture micro = new Architecture();
+				Architecture fast = new Architecture(false, mode);
+				for (Architecture arch : new Architecture[] {micro, fast}) {
+					arch.getMemory().load(0, program, 0, program.length);
+					arch.getMemory().setStorePosition(-7);
+					arch.controlUnitEexec();
+				}
+				compareStates(micro, fast);
+			}
+		}
+	}
+
+	@Test
+	public void testArithmetic() {
+		//moveImmReg 7 %RPG0, moveImmReg -3 %RPG1, addRegReg %RPG0 %RPG1,
+		//subRegMem %RPG1 100, addImmMem 5 100, imulMemReg 100 %RPG0, incReg %RPG2, incMem 101, end
+		int program[] = {11, 7, 0, 11, -3, 1, 0, 0, 1, 6, 1, 100, 24, 5, 100, 13, 100, 0, 15, 2, 23, 101, -1};
+		compareEngines(program);
+	}
+
+	@Test
+	public void testLoop() {
+		//RPG0 counts from -5 up to 0, RPG1 accumulates 3 per iteration and mem[120] keeps it
+		//0: moveImmReg -5 %RPG0
+		//3: moveImmReg 0 %RPG1
+		//6: moveImmReg 3 %RPG2
+		//9: addRegReg %RPG2 %RPG1
+		//12: moveRegMem %RPG1 120
+		//15: incReg %RPG0
+		//17: jn 9
+		//19: imulRegMem %RPG0 120 (RPG0 is 0 here)
+		//22: end
+		int program[] = {11, -5, 0, 11, 0, 1, 11, 3, 2, 0, 2, 1, 10, 1, 120, 15, 0, 17, 9, 14, 0, 120, -1};
+		compareEngines(program);
+	}
+
+	@Test
+	public void testJumps() {
+		//0: moveImmReg 4 %RPG0
+		//3: moveImmReg 4 %RPG1
+		//6: jeq %RPG0 %RPG1 11
+		//10: end (skipped)
+		//11: incReg %RPG1
+		//13: jgt %RPG1 %RPG0 18
+		//17: end (skipped)
+		//18: jlw %RPG0 %RPG1 23
+		//22: end (skipped)
+		//23: ldi %RPG3 42
+		//26: store %RPG3 110
+		//29: read 110 %RPG2
+		//32: end
+		int program[] = {11, 4, 0, 11, 4, 1, 19, 0, 1, 11, -1, 15, 1, 21, 1, 0, 18, -1,
+				22, 0, 1, 23, -1, 27, 3, 42, 29, 3, 110, 28, 110, 2, -1};
+		compareEngines(program);
+	}
+
+	@Test
+	public void testImmediates() {
+		//0: moveImmReg 10 %RPG0
+		//3: addImmReg 5 %RPG0
+		//6: subImmReg 20 %RPG0 (RPG0 <- 20 - RPG0)
+		//9: moveImmReg 5 %RPG1
+		//12: jneq %RPG0 %RPG1 17 (not taken)
+		//16: incReg %RPG2
+		//18: jneq %RPG0 %RPG2 23 (taken)
+		//22: end (skipped)
+		//23: subImmMem 3 100
+		//26: end
+		int program[] = {11, 10, 0, 3, 5, 0, 7, 20, 0, 11, 5, 1, 20, 0, 1, 17, 15, 2,
+				20, 0, 2, 23, -1, 25, 3, 100, -1};
+		compareEngines(program);
+	}
+
+	@Test
+	public void testFarJump() {
+		//the decoded tables grow when a jump leaves the code region
+		//0: moveImmReg 2 %RPG0
+		//3: jmp 90
+		//90: incReg %RPG0
+		//92: moveRegMem %RPG0 1 (a store into the code region)
+		//95: jmp 5
+		//5: end
+		int program[] = new int[98];
+		int start[] = {11, 2, 0, 16, 90, -1};
+		int far[] = {15, 0, 10, 0, 1, 16, 5};
+		System.arraycopy(start, 0, program, 0, start.length);
+		System.arraycopy(far, 0, program, 90, far.length);
+		compareEngines(program);
+		compareEngines(program, ExecutionMode.TIERED);
+	}
+
+	@Test
+	public void testSelfModifyingCode() throws IOException {
+		//0: moveImmReg 5 %RPG0
+		//3: moveImmReg 99 %RPG1
+		//6: moveRegMem %RPG1 10 (overwrites the immediate of the next instruction)
+		//9: moveImmReg 7 %RPG2 (becomes moveImmReg 99 %RPG2)
+		//12: end
+		//the program is loaded by readExec, so the instruction in 9 was decoded before being changed
+		File file = File.createTempFile("selfModifying", ".dxf");
+		FileWriter writer = new FileWriter(file);
+		int program[] = {11, 5, 0, 11, 99, 1, 10, 1, 10, 11, 7, 2, -1};
+		for (int word : program)
+			writer.write(word+"\n");
+		writer.close();
+		String filename = file.getPath().substring(0, file.getPath().length()-4);
+		
+		Architecture micro = new Architecture();
+		Architecture fast = new Architecture(false, ExecutionMode.FAST);
+		Architecture closure = new Architecture(false, ExecutionMode.CLOSURE); //the block at 0 includes the instruction in 9
+		micro.readExec(filename);
+		fast.readExec(filename);
+		closure.readExec(filename);
+		file.delete();
+		micro.controlUnitEexec();
+		fast.controlUnitEexec();
+		closure.controlUnitEexec();
+		assertEquals(99, fast.getRPG2().getData());
+		assertEquals(99, closure.getRPG2().getData());
+		compareStates(micro, fast);
+		compareStates(micro, closure);
+	}
+
+	@Test
+	public void testSuperinstructions() {
+		//0: moveImmReg 3 %RPG0 / 3: moveRegMem %RPG0 100 (fused pair)
+		//6: incReg %RPG1
+		//8: subRegMem %RPG1 100 / 11: jn 6 (fused pair)
+		//13: moveImmReg 0 %RPG2 / 16: moveRegMem %RPG2 101
+		//19: subRegMem %RPG2 101 / 22: jz 26 (taken)
+		//24: end (skipped)
+		//26: moveImmReg 5 %RPG3 / 29: moveRegMem %RPG3 102 / 32: jnz 36 (fused triple, not taken)
+		//34: end
+		int program[] = {11, 3, 0, 10, 0, 100, 15, 1, 6, 1, 100, 17, 6, 11, 0, 2, 10, 2, 101,
+				6, 2, 101, 18, 26, -1, -1, 11, 5, 3, 10, 3, 102, 26, 36, -1};
+		compareEngines(program);
+	}
+
+	@Test
+	public void testSuperinstructionStoresIntoProgram() {
+		//0: moveImmReg 20 %RPG1
+		//3: subRegMem %RPG1 7 (the target of the next jump becomes 20 - 9 = 11)
+		//6: jnz 9 (fused with the sub, but executed as jnz 11)
+		//8: end
+		//11: incReg %RPG2
+		//13: end
+		int program[] = {11, 20, 1, 6, 1, 7, 26, 9, -1, -1, -1, 15, 2, -1};
+		compareEngines(program);
+	}
+
+	@Test
+	public void testSuperinstructionsProfile() {
+		Architecture arch = new Architecture(false, ExecutionMode.CLOSURE);
+		//incReg %RPG0 / jn 0 / incReg %RPG1 / jn 4 / incReg %RPG1 / end
+		int program[] = {15, 0, 17, 0, 15, 1, 17, 4, 15, 1, -1};
+		for (int i=0;i<program.length;i++)
+			arch.getMemory().getDataList()[i] = program[i];
+		ArrayList<Architecture> programs = new ArrayList<Architecture>();
+		programs.add(arch);
+		Superinstructions set = Superinstructions.profile(programs, 1, 1);
+		assertEquals(1, set.size()); //the sequences do not cross the jumps, so there is no triple
+		assertTrue(set.contains(Opcode.INC_REG, Opcode.JN));
+		assertFalse(set.contains(Opcode.JN, Opcode.INC_REG));
+
+		//the engine keeps the same results without any fusion
+		Architecture micro = new Architecture();
+		Architecture closure = new Architecture(false, ExecutionMode.CLOSURE);
+		closure.setSuperinstructions(new Superinstructions());
+		int loop[] = {11, 3, 0, 10, 0, 100, 15, 1, 6, 1, 100, 17, 6, -1};
+		for (int i=0;i<loop.length;i++) {
+			micro.getMemory().getDataList()[i] = loop[i];
+			closure.getMemory().getDataList()[i] = loop[i];
+		}
+		micro.controlUnitEexec();
+		closure.controlUnitEexec();
+		compareStates(micro, closure);
+	}
+
+	@Test
+	public void testNonGeneralRegister() {
+		//moveRegReg %PC %RPG0 is out of the fast contract and must be executed by its microprogram
+		int program[] = {11, 9, 1, 8, 4, 0, -1};
+		compareEngines(program);
+	}
+
+}
@@ -0,0 +1,89 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestJitCompiler {
+
+	/**
+	 * This method runs the program with the microprograms and in the tiered mode,
+	 * compares the final states and returns the tiered architecture
+	 * @param program
+	 * @param threshold
+	 * @return
+	 */
+	private Architecture compareTiered(int program[], int threshold) {
+		Architecture micro = new Architecture();
+		Architecture tiered = new Architecture(false, ExecutionMode.TIERED);
+		tiered.setJitCompiler(new JitCompiler(threshold));
+		for (int i=0;i<program.length;i++) {
+			micro.getMemory().getDataList()[i] = program[i];
+			tiered.getMemory().getDataList()[i] = program[i];
+		}
+		micro.controlUnitEexec();
+		tiered.controlUnitEexec();
+		for (int i=0;i<6;i++) //RPG0..RPG3, PC and IR
+			assertEquals(micro.getRegistersList().get(i).getData(), tiered.getRegistersList().get(i).getData());
+		for (int i=0;i<3;i++)
+			assertEquals(micro.getFlags().getBit(i), tiered.getFlags().getBit(i));
+		for (int i=0;i<micro.getMemorySize();i++)
+			assertEquals(micro.getMemory().getDataList()[i], tiered.getMemory().getDataList()[i]);
+		assertEquals(micro.getInstructionCount(), tiered.getInstructionCount());
+		return tiered;
+	}
+
+	@Test
+	public void testHotLoop() {
+		//0: moveImmReg -40 %RPG0
+		//3: addImmReg 3 %RPG1
+		//6: moveRegMem %RPG1 120
+		//9: subMemReg 120 %RPG2
+		//12: jgt %RPG1 %RPG2 19
+		//16: addRegReg %RPG1 %RPG3
+		//19: incReg %RPG0
+		//21: jn 3
+		//23: end
+		int program[] = {11, -40, 0, 3, 3, 1, 10, 1, 120, 5, 120, 2, 21, 1, 2, 19, 0, 1, 3, 15, 0, 17, 3, -1};
+		Architecture tiered = compareTiered(program, 5);
+		JitCompiler jit = tiered.getJitCompiler();
+		assertTrue(jit.getCompiledBlocks() > 0);
+		assertTrue(jit.getCompiledInstructions() > 0);
+		assertEquals(0, jit.getDeoptimizations());
+	}
+
+	@Test
+	public void testStoreIntoProgram() {
+		//the second pass changes the immediate of addImmReg, so the compiled loop is discarded
+		//0: moveImmReg -6 %RPG0
+		//3: moveImmReg -1 %RPG2
+		//6: addImmReg 2 %RPG1
+		//9: incReg %RPG0
+		//11: jn 6
+		//13: moveImmReg 5 %RPG3
+		//16: moveRegMem %RPG3 7
+		//19: moveImmReg -6 %RPG0
+		//22: incReg %RPG2
+		//24: jz 6
+		//26: end
+		int program[] = {11, -6, 0, 11, -1, 2, 3, 2, 1, 15, 0, 17, 6, 11, 5, 3, 10, 3, 7, 11, -6, 0, 15, 2, 18, 6, -1};
+		Architecture tiered = compareTiered(program, 2);
+		assertEquals(42, tiered.getRegistersList().get(1).getData()); //6*2 + 6*5
+		assertEquals(2, tiered.getJitCompiler().getDeoptimizations()); //moveRegMem is executed in both passes
+	}
+
+	@Test
+	public void testNotCompilable() {
+		//a block with a register out of RPG0..RPG3 runs in the interpreter
+		//0: moveImmReg -10 %RPG0
+		//3: moveRegReg %PC %RPG1
+		//6: incReg %RPG0
+		//8: jn 3
+		//10: end
+		int program[] = {11, -10, 0, 8, 4, 1, 15, 0, 17, 3, -1};
+		Architecture tiered = compareTiered(program, 1);
+		//moveImmReg and the block after moveRegReg (incReg, jn) are compiled, the block at 3 is rejected
+		assertEquals(2, tiered.getJitCompiler().getCompiledBlocks());
+	}
+
+}
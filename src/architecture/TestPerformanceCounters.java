@@ -0,0 +1,117 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import architecture.PerformanceCounters.Event;
+
+public class TestPerformanceCounters {
+
+	//0: moveImmReg -3 %RPG0
+	//3: incReg %RPG0
+	//5: moveRegMem %RPG0 100
+	//8: jn 3
+	//10: imulMemReg 100 %RPG0
+	//13: end
+	private static final int PROGRAM[] = {11, -3, 0, 15, 0, 10, 0, 100, 17, 3, 13, 100, 0, -1};
+
+	//0: ldi %RPG0 -60
+	//3: moveImmReg 2 %RPG1
+	//6: moveRegMem %RPG0 100
+	//9: imulMemReg 100 %RPG1
+	//12: imulRegMem %RPG0 101 (the free position goes down each time)
+	//15: jeq %RPG0 %RPG0 19 (jumps to the next instruction)
+	//19: subRegMem %RPG1 102
+	//22: jz 24
+	//24: incReg %RPG0
+	//26: jn 6
+	//28: imulRegMem %RPG0 101 (a zero multiplier)
+	//31: moveMemReg 200 %RPG3 (out of the memory: executed by the microprogram)
+	//34: end
+	private static final int LOOP[] = {27, 0, -60, 11, 2, 1, 10, 0, 100, 13, 100, 1, 14, 0, 101,
+			19, 0, 0, 19, 6, 1, 102, 18, 24, 15, 0, 17, 6, 14, 0, 101, 9, 200, 3, -1};
+
+	private Architecture run(ExecutionMode mode) {
+		return run(PROGRAM, mode, false);
+	}
+
+	private Architecture run(int program[], ExecutionMode mode, boolean compatible) {
+		Architecture arch = new Architecture(false, mode);
+		System.arraycopy(program, 0, arch.getMemory().getDataList(), 0, program.length);
+		arch.getUla().setMultiplyCompatibility(compatible);
+		arch.controlUnitEexec();
+		return arch;
+	}
+
+	@Test
+	public void testPerCommand() {
+		PerformanceCounters counters = run(ExecutionMode.MICROPROGRAM).getCounters();
+		assertEquals(1, counters.getInstructions(Opcode.MOVE_IMM_REG));
+		assertEquals(3, counters.getInstructions(Opcode.INC_REG));
+		assertEquals(3, counters.getInstructions(Opcode.MOVE_REG_MEM));
+		assertEquals(3, counters.getInstructions(Opcode.JN));
+		assertEquals(1, counters.getInstructions(null)); //the end of the program
+		assertEquals(11, counters.getInstructions());
+
+		//the command and its two operands are read, nothing is stored
+		assertEquals(3, counters.get(Opcode.MOVE_IMM_REG, Event.MEMORY_READ));
+		assertEquals(0, counters.get(Opcode.MOVE_IMM_REG, Event.MEMORY_STORE));
+		//each store sends the address and then the data
+		assertEquals(3*2, counters.get(Opcode.MOVE_REG_MEM, Event.MEMORY_STORE));
+		assertEquals(0, counters.get(Opcode.JMP, Event.EXTBUS1));
+
+		long total = 0;
+		for (Event event : Event.values()) {
+			long sum = counters.get(null, event);
+			for (Opcode op : Opcode.values())
+				sum += counters.get(op, event);
+			assertEquals(sum, counters.get(event));
+			total += sum;
+		}
+		assertEquals(total, counters.getTotal());
+
+		counters.reset();
+		assertEquals(0, counters.getTotal());
+		assertEquals(0, counters.getInstructions());
+	}
+
+	@Test
+	public void testMultiplyCompatibility() {
+		Architecture arch = new Architecture();
+		System.arraycopy(PROGRAM, 0, arch.getMemory().getDataList(), 0, PROGRAM.length);
+		arch.getUla().setMultiplyCompatibility(true);
+		arch.controlUnitEexec();
+		//RPG0 is 0 at the imulMemReg: the old microprogram made no addition
+		long compatible = arch.getCounters().get(Opcode.IMUL_MEM_REG, Event.ULA);
+		long single = run(ExecutionMode.MICROPROGRAM).getCounters().get(Opcode.IMUL_MEM_REG, Event.ULA);
+		assertEquals(single - 1, compatible); //mul counts 1
+	}
+
+	@Test
+	public void testFastEngines() {
+		//the fast engines do not use the components, but add the costs measured from the microprograms
+		for (boolean compatible : new boolean[] {false, true}) {
+			PerformanceCounters reference = run(LOOP, ExecutionMode.MICROPROGRAM, compatible).getCounters();
+			for (ExecutionMode mode : new ExecutionMode[] {ExecutionMode.FAST, ExecutionMode.TIERED, ExecutionMode.CLOSURE}) {
+				Architecture arch = run(LOOP, mode, compatible);
+				if (mode == ExecutionMode.TIERED && !compatible)
+					assertTrue(arch.getJitCompiler().getCompiledBlocks() > 0);
+				PerformanceCounters counters = arch.getCounters();
+				ArrayList<Opcode> rows = new ArrayList<Opcode>(Arrays.asList(Opcode.values()));
+				rows.add(null); //the end of the program
+				for (Opcode op : rows) {
+					assertEquals(mode+" "+op, reference.getInstructions(op), counters.getInstructions(op));
+					for (Event event : Event.values())
+						assertEquals(mode+" "+op+" "+event, reference.get(op, event), counters.get(op, event));
+				}
+				assertEquals(reference.toString(), counters.toString());
+			}
+		}
+		assertEquals(11, run(ExecutionMode.FAST).getCounters().getInstructions());
+	}
+
+}
@@ -0,0 +1,159 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+import components.ArrayMemory;
+
+public class TestSnapshot {
+
+	//0: moveImmReg -5 %RPG0
+	//3: moveImmReg 3 %RPG2
+	//6: addRegReg %RPG2 %RPG1
+	//9: moveRegMem %RPG1 120
+	//12: incReg %RPG0
+	//14: jn 6
+	//16: end
+	private static final int PROGRAM[] = {11, -5, 0, 11, 3, 2, 0, 2, 1, 10, 1, 120, 15, 0, 17, 6, -1};
+
+	private Architecture load(ExecutionMode mode) {
+		Architecture arch = new Architecture(false, mode);
+		System.arraycopy(PROGRAM, 0, arch.getMemory().getDataList(), 0, PROGRAM.length);
+		return arch;
+	}
+
+	private void assertSameState(Architecture expected, Architecture actual) {
+		for (int i=0;i<6;i++) //RPG0..RPG3, PC and IR
+			assertEquals(expected.getRegistersList().get(i).getData(), actual.getRegistersList().get(i).getData());
+		for (int i=0;i<3;i++)
+			assertEquals(expected.getFlags().getBit(i), actual.getFlags().getBit(i));
+		assertArrayEquals(expected.getMemory().getDataList(), actual.getMemory().getDataList());
+	}
+
+	@Test
+	public void testForkAfterPrologue() {
+		Architecture original = load(ExecutionMode.MICROPROGRAM);
+		for (int i=0;i<4;i++) //the prologue and the first iteration
+			original.step();
+		byte snapshot[] = original.snapshot();
+		assertTrue(snapshot.length < 64); //the memory is mostly zeros
+
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			Architecture fork = new Architecture(false, mode);
+			fork.restore(snapshot);
+			assertSameState(original, fork);
+			assertEquals(original.getUla().getRegister(1).getData(), fork.getUla().getRegister(1).getData());
+			assertEquals(original.getIntbus1().get(), fork.getIntbus1().get());
+			fork.controlUnitEexec();
+			Architecture whole = load(ExecutionMode.MICROPROGRAM);
+			whole.controlUnitEexec();
+			assertSameState(whole, fork);
+		}
+		//the same snapshot is saved again after a restore
+		Architecture copy = new Architecture();
+		copy.restore(snapshot);
+		assertArrayEquals(snapshot, copy.snapshot());
+	}
+
+	@Test
+	public void testPendingStore() {
+		Architecture arch = new Architecture();
+		arch.getExtbus1().put(50);
+		arch.getMemory().store(); //the memory is waiting for the data of the position 50
+		Architecture copy = new Architecture();
+		copy.restore(arch.snapshot());
+		assertTrue(copy.getMemory().isStoring());
+		copy.getExtbus1().put(-7);
+		copy.getMemory().store();
+		assertEquals(-7, copy.getMemory().getDataList()[50]);
+	}
+
+	@Test
+	public void testCorruptedSnapshot() {
+		Architecture arch = load(ExecutionMode.FAST);
+		arch.controlUnitEexec();
+		byte snapshot[] = arch.snapshot();
+		for (int i=0;i<snapshot.length;i++) {
+			byte changed[] = snapshot.clone();
+			changed[i] ^= 0x10;
+			try {
+				new Architecture().restore(changed);
+				fail("the byte "+i+" was changed");
+			}
+			catch (IllegalArgumentException e) {
+				//the checksum (or the header) rejects it
+			}
+		}
+		byte truncated[] = new byte[4];
+		try {
+			new Architecture().restore(truncated);
+			fail("truncated snapshot");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testRejectedSnapshotChangesNothing() {
+		Architecture arch = load(ExecutionMode.FAST);
+		arch.controlUnitEexec();
+		byte snapshot[] = arch.snapshot();
+		//every truncation, with a valid checksum, stops somewhere in the header or in the memory
+		for (int length=5;length<snapshot.length-4;length++) {
+			byte truncated[] = Arrays.copyOf(snapshot, length + 4);
+			CRC32 crc = new CRC32();
+			crc.update(truncated, 0, length);
+			ByteBuffer.wrap(truncated).putInt(length, (int) crc.getValue());
+			Architecture target = new Architecture();
+			try {
+				target.restore(truncated);
+				fail("truncated at "+length);
+			}
+			catch (IllegalArgumentException e) {
+				//nothing was restored
+			}
+			assertSameState(new Architecture(), target);
+			assertEquals(0, target.getUla().getRegister(0).getData());
+			assertFalse(target.getMemory().isStoring());
+		}
+	}
+
+	@Test
+	public void testCheckpoints() {
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			Architecture original = new Architecture(false, mode, new ArrayMemory(1 << 20));
+			original.getMemory().load(0, PROGRAM, 0, PROGRAM.length);
+			original.getMemory().setData(500000, 3);
+			byte base[] = original.snapshot();
+			original.controlUnitEexec(); //writes only the position 120
+			assertEquals(1, original.getMemory().getDirtyPages().count());
+			byte first[] = original.checkpoint();
+			assertTrue(first.length < 128);
+			original.getMemory().setData(700000, 9);
+			original.getMemory().setData(120, 0);
+			byte second[] = original.checkpoint();
+			assertEquals(0, original.getMemory().getDirtyPages().count());
+
+			Architecture copy = new Architecture(false, mode, new ArrayMemory(1 << 20));
+			copy.restore(base);
+			copy.restoreCheckpoint(first);
+			assertEquals(original.getRPG1().getData(), copy.getRPG1().getData());
+			assertEquals(15, copy.getMemory().getData(120));
+			copy.restoreCheckpoint(second);
+			assertArrayEquals(original.getMemory().getDataList(), copy.getMemory().getDataList());
+			assertEquals(original.getPC().getData(), copy.getPC().getData());
+		}
+		try {
+			new Architecture().restoreCheckpoint(new Architecture().snapshot());
+			fail("a full snapshot is not a checkpoint");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package architecture;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public class TestTraceSink {
+
+	//0: moveImmReg -2 %RPG0
+	//3: incReg %RPG0
+	//5: jn 3
+	//7: end
+	private static final int PROGRAM[] = {11, -2, 0, 15, 0, 17, 3, -1};
+
+	private Architecture trace(int program[], TraceSink sink) throws IOException {
+		Architecture arch = new Architecture();
+		System.arraycopy(program, 0, arch.getMemory().getDataList(), 0, program.length);
+		arch.setTraceSink(sink);
+		arch.controlUnitEexec();
+		sink.close();
+		return arch;
+	}
+
+	@Test
+	public void testText() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		trace(PROGRAM, new TextTraceSink(out, TraceSink.Level.REGISTERS));
+		String lines[] = out.toString().split("\n");
+		assertEquals("0: moveImmReg -2 0", lines[0]);
+		assertEquals("\tRPG0=-2 RPG1=0 RPG2=0 RPG3=0 PC=3 IR=-2 Flags=000", lines[1]);
+		assertEquals("3: incReg 0", lines[2]);
+		assertEquals("\tRPG0=-1 RPG1=0 RPG2=0 RPG3=0 PC=5 IR=15 Flags=011", lines[3]);
+		assertEquals("7: end", lines[lines.length-2]);
+		assertEquals(2*6, lines.length); //5 instructions and the end, with their registers
+	}
+
+	@Test
+	public void testBinary() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		trace(PROGRAM, new BinaryTraceSink(out, TraceSink.Level.INSTRUCTIONS));
+		byte trace[] = out.toByteArray();
+		assertEquals("OACT", new String(trace, 0, 4));
+		assertEquals(BinaryTraceSink.VERSION, trace[4]);
+		assertEquals(TraceSink.Level.INSTRUCTIONS.ordinal(), trace[5]);
+		//pc 0 command 11, pc 3 command 15, pc 5 command 17, ..., pc 7 command -1 (zigzag)
+		assertEquals(0, trace[6]);
+		assertEquals(22, trace[7]);
+		assertEquals(6, trace[8]);
+		assertEquals(30, trace[9]);
+		assertEquals(14, trace[trace.length-2]);
+		assertEquals(1, trace[trace.length-1]);
+		assertEquals(6 + 6*2, trace.length);
+	}
+
+	@Test
+	public void testLongTrace() throws IOException {
+		//200000 instructions go through many chunks of the writer thread
+		int program[] = {11, -100000, 0, 15, 0, 17, 3, -1};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Architecture arch = trace(program, new TextTraceSink(out, TraceSink.Level.BUSES));
+		assertEquals(1 + 2*100000, arch.getInstructionCount());
+		String text = out.toString();
+		assertTrue(text.startsWith("0: moveImmReg -100000 0\n"));
+		assertTrue(text.endsWith("7: end\n\tRPG0=0 RPG1=0 RPG2=0 RPG3=0 PC=7 IR=-1 Flags=100\n"
+				+"\textbus1=-1 intbus1=7 intbus2=-1\n"));
+	}
+
+	@Test
+	public void testInteractive() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayInputStream enter = new ByteArrayInputStream("\n\n\n\n\n\n".getBytes());
+		Architecture arch = trace(PROGRAM, new InteractiveTraceSink(new PrintStream(out), enter, TraceSink.Level.BUSES));
+		assertEquals(0, arch.getRPG().getData());
+		String text = out.toString();
+		assertTrue(text.contains("Instruction: moveImmReg -2"));
+		assertTrue(text.contains("Instruction: END"));
+		assertEquals(6, text.split("Press <Enter>", -1).length - 1);
+	}
+
+}
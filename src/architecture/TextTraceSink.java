@@ -0,0 +1,76 @@
+package architecture;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This sink writes the trace as text, one line per instruction:
+ *   address: mnemonic operands
+ * followed, depending on the level, by a line with the registers and Flags
+ * (RPG0..RPG3, PC, IR and the bits zero, negative and not zero) and a line with
+ * the buses, all taken after the execution.
+ * The file is written by another thread (see BufferedTraceSink).
+ */
+public class TextTraceSink extends BufferedTraceSink {
+
+	private static final String REGISTERS[] = {"RPG0", "RPG1", "RPG2", "RPG3", "PC", "IR"};
+
+	public TextTraceSink(String filename, Level level) throws IOException {
+		this(new FileOutputStream(filename), level);
+	}
+
+	public TextTraceSink(OutputStream out, Level level) {
+		super(out, level);
+	}
+
+	@Override
+	public void fetch(Architecture arch) {
+	}
+
+	@Override
+	public void beforeExecute(Architecture arch, int command) {
+		int pc = arch.getPC().getData();
+		writeDecimal(pc);
+		writeText(": ");
+		Opcode op = Opcode.decode(command);
+		if (op == null) {
+			writeText("end\n");
+			return;
+		}
+		writeText(op.getMnemonic());
+		for (int i=1;i<=op.getOperands();i++) {
+			writeByte(' ');
+			int address = pc+i;
+			writeDecimal((address >= 0 && address < arch.getMemorySize()) ? arch.getMemory().getData(address) : address);
+		}
+		writeByte('\n');
+	}
+
+	@Override
+	public void afterExecute(Architecture arch, int command) {
+		if (level == Level.INSTRUCTIONS)
+			return;
+		writeByte('\t');
+		for (int i=0;i<REGISTERS.length;i++) {
+			writeText(REGISTERS[i]);
+			writeByte('=');
+			writeDecimal(arch.getRegistersList().get(i).getData());
+			writeByte(' ');
+		}
+		writeText("Flags=");
+		for (int i=0;i<3;i++)
+			writeByte('0' + arch.getFlags().getBit(i));
+		writeByte('\n');
+		if (level == Level.BUSES) {
+			writeText("\textbus1=");
+			writeDecimal(arch.getExtbus1().get());
+			writeText(" intbus1=");
+			writeDecimal(arch.getIntbus1().get());
+			writeText(" intbus2=");
+			writeDecimal(arch.getIntbus2().get());
+			writeByte('\n');
+		}
+	}
+
+}
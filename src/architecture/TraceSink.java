@@ -0,0 +1,43 @@
+package architecture;
+
+import java.io.Closeable;
+
+/**
+ * This interface receives the trace of the execution in simulation mode.
+ * The architecture informs each phase of every instruction executed by its
+ * microprogram; each sink decides what to show and where (the console with a
+ * prompt at each step, a text file, a binary file, ...).
+ * The sink is closed by whoever created it, after the execution.
+ */
+public interface TraceSink extends Closeable {
+
+	/**
+	 * How much of the state is traced for each instruction
+	 */
+	enum Level {
+		INSTRUCTIONS, //the address and the instruction with its operands
+		REGISTERS, //also the registers and Flags after the execution
+		BUSES //also the buses after the execution
+	}
+
+	/**
+	 * The command was fetched: it is in IR
+	 * @param arch
+	 */
+	void fetch(Architecture arch);
+
+	/**
+	 * The command will be executed
+	 * @param arch
+	 * @param command the command code (any code out of the instruction set ends the program)
+	 */
+	void beforeExecute(Architecture arch, int command);
+
+	/**
+	 * The command was executed
+	 * @param arch
+	 * @param command
+	 */
+	void afterExecute(Architecture arch, int command);
+
+}
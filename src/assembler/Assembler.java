@@ -1,20 +1,32 @@
 package assembler;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
 import components.Register;
 import architecture.Architecture;
+import architecture.Executable;
 
 class CommandMethods{
 	private final List<String> commands;
@@ -67,8 +79,9 @@ class CommandMethods{
 
 public class Assembler {
 	private List<String> lines;
-	private ArrayList<String> objProgram;
-	private ArrayList<String> execProgram;
+	private ObjectProgram objProgram;
+	private int executable[]; //the linked words of the object program
+	private ArrayList<String> execProgram; //rendered from executable when it is asked for
 	private Architecture arch;
 	private ArrayList<String>commands;	
 	private ArrayList<String>labels;
@@ -78,25 +91,46 @@ public class Assembler {
 	private static final String INPUT_EXTENSION = ".dsf";
 	private static CommandMethods commandMethods;
 	private static Map<String, Function<Object, Object>> methodMap;
+	private Lexer lexer; //reads the lines and resolves their commands
+	private NameTable registers; //the id of each register name
 	
 	public Assembler() {
+		this(new Architecture());
+	}
+	
+	/**
+	 * Creates an assembler for the architecture that will run the program:
+	 * the variables are placed from the end of its memory
+	 * @param arch
+	 */
+	public Assembler(Architecture arch) {
 		lines = new ArrayList<>();
 		labels = new ArrayList<>();
 		labelsAdresses = new ArrayList<>();
 		variables = new ArrayList<>();
-		objProgram = new ArrayList<>();
+		objProgram = new ObjectProgram();
 		execProgram = new ArrayList<>();
-		arch = new Architecture();
+		this.arch = arch;
 		commands = arch.getCommandsList();	
 		commandMethods = new CommandMethods(commands);
+		lexer = new Lexer(commands);
+		registers = new NameTable();
+		for (int i = 0; i < arch.getRegistersList().size(); i++) //the first register with the name counts
+			registers.putIfAbsent(arch.getRegistersList().get(i).getRegisterName(), i);
 		methodMap = new HashMap<>();
 		setMethodMap();
 	}
 	
 	//getters
 	
+	/**
+	 * The object program is kept as ints (see ObjectProgram); this list is rendered
+	 * from it at each call, with the labels and variables as &name and the registers
+	 * as %name, so changing the list does not change the program
+	 * @return
+	 */
 	public ArrayList<String> getObjProgram() {
-		return objProgram;
+		return objProgram.toList();
 	}
 	
 	/**
@@ -117,6 +151,8 @@ public class Assembler {
 	}
 	
 	protected ArrayList<String> getExecProgram() {
+		if (execProgram == null)
+			execProgram = objProgram.toList(executable);
 		return execProgram;
 	}
 	
@@ -156,14 +192,47 @@ public class Assembler {
 	 */
 	public void read(String filename) throws IOException {
 		try (BufferedReader bufferedReader = new BufferedReader(new FileReader(filename + INPUT_EXTENSION))) {
-			String line = "";
-			while((line = bufferedReader.readLine()) != null)
-				this.lines.add(line);
-			bufferedReader.close();
+			read(bufferedReader);
 		} catch (IOException e) {
 			throw new IOException("Error while trying to open the file "+e.getMessage());
 		}
 	}
+
+	private void read(BufferedReader bufferedReader) throws IOException {
+		String line = "";
+		while((line = bufferedReader.readLine()) != null)
+			this.lines.add(line);
+	}
+
+	/**
+	 * This method assembles filename.dsf into filename.dxf (or filename.dxb), as read,
+	 * parse and makeExecutable do, unless the cache has the executable of the same
+	 * source for the same architecture: then the executable is copied from the cache
+	 * and the source is not parsed. A new executable is put into the cache
+	 * @param filename
+	 * @param binary
+	 * @param cache
+	 * @throws IOException
+	 */
+	public void assembleCached(String filename, boolean binary, AssemblyCache cache) throws IOException {
+		byte source[];
+		try {
+			source = Files.readAllBytes(new File(filename + INPUT_EXTENSION).toPath());
+		} catch (IOException e) {
+			throw new IOException("Error while trying to open the file "+e.getMessage());
+		}
+		String entry = cache.key(source, arch) + (binary ? Executable.EXTENSION : ".dxf");
+		Path output = new File(filename + (binary ? Executable.EXTENSION : ".dxf")).toPath();
+		if (cache.fetch(entry, output)) {
+			System.out.println("The executable is in the cache");
+			return;
+		}
+		//the same bytes that were hashed, decoded as FileReader does
+		read(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(source), Charset.defaultCharset())));
+		parse();
+		if (writeExecutable(filename, binary))
+			cache.store(entry, output);
+	}
 	
 	/**
 	 * This method scans the strings in lines
@@ -172,24 +241,173 @@ public class Assembler {
 	 */
 	public void parse() {
 		this.lines.forEach(line -> {
-			String[] tokens = line.split(" ");
-			if(tokens.length == 1){
-        if(tokens[0].endsWith(":")) {
-					labels.add(tokens[0].substring(0, tokens[0].length() - 1));
+			lexer.lex(line);
+			if (lexer.count() == 1) {
+				String name = lexer.text(0);
+				if (name.endsWith(":")) {
+					labels.add(name.substring(0, name.length() - 1));
 					labelsAdresses.add(objProgram.size());
 				}
-        else variables.add(tokens[0]);
-      }
-      else try {
-				objProgram.add(Integer.toString(findCommandNumber(tokens)));
-				if(!tokens[1].isEmpty()) 
-					if(tokens[0].startsWith("j")) objProgram.add("&" + tokens[1]);
-					else objProgram.add(tokens[1]);
-				if(!tokens[2].isEmpty()) objProgram.add(tokens[2]);
-			} catch (Exception e) {}
+				else variables.add(name);
+			}
+			else if (lexer.command()) {
+				objProgram.add(lexer.getCode());
+				for (int i = 0; i < lexer.getOperandsCount(); i++)
+					addOperand(lexer.getOperand(i));
+			}
 		});
 	}
-	
+
+	/**
+	 * This method gives the program parsed until now as a relocatable object: the
+	 * labels and the variables are not resolved, so it can be linked with others
+	 * @return a copy, not changed by the next parses
+	 */
+	public ObjectFile toObject() {
+		ObjectProgram program = new ObjectProgram();
+		program.append(objProgram);
+		return new ObjectFile(program, new ArrayList<>(labels), new ArrayList<>(labelsAdresses), new ArrayList<>(variables));
+	}
+
+	/**
+	 * This method saves the program parsed until now as a relocatable object
+	 * (filename.dof, see ObjectFile), to be linked later (see Linker)
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void makeObject(String filename) throws IOException {
+		ObjectFile object = toObject();
+		object.save(filename);
+		if (!object.getImports().isEmpty())
+			System.out.println("Names to be linked: "+object.getImports());
+		System.out.println("Compilation has been successfull");
+	}
+
+	/**
+	 * This method adds a linked object after the program (see Linker): its references
+	 * are already resolved, its labels move with its words and its variables are
+	 * declared after the ones there are
+	 * @param object
+	 * @param addresses the address of each name of the object program (by its id)
+	 */
+	void addLinked(ObjectFile object, int addresses[]) {
+		int base = objProgram.size();
+		objProgram.append(object.getProgram(), addresses);
+		labels.addAll(object.getLabels());
+		for (int address : object.getLabelsAddresses())
+			labelsAdresses.add(base + address);
+		variables.addAll(object.getVariables());
+	}
+
+	/**
+	 * This method adds an operand of the line to the object program: a label or a
+	 * variable (the operand of a jump or &name), a register (%name), a number, or
+	 * else the text as it is
+	 * @param token
+	 */
+	private void addOperand(int token) {
+		char chars[] = lexer.chars();
+		int start = lexer.start(token), end = lexer.end(token);
+		if (token == 1 && lexer.isJump())
+			objProgram.addSymbol(chars, start, end);
+		else if (chars[start] == '&')
+			objProgram.addSymbol(chars, start + 1, end);
+		else if (chars[start] == '%') {
+			int id = registers.get(chars, start + 1, end);
+			objProgram.addRegister(chars, start + 1, end, id == NameTable.MISSING ? -1 : id);
+		}
+		else if (lexer.isNumber(token))
+			objProgram.add(lexer.number(token));
+		else
+			objProgram.addText(chars, start, end);
+	}
+
+	/**
+	 * This method assembles filename.dsf into filename.dxf without keeping the program
+	 * in memory: the source is read twice through a channel, the first time to find
+	 * the addresses of the labels and the variables and the second one to write each
+	 * word as soon as its line is read. Only the symbol table stays in memory, so
+	 * very large sources can be assembled.
+	 * The lines are read into a char buffer and the names are looked up directly from it,
+	 * so no String is created per line.
+	 * The executable is the same makeExecutable gives; while it is written it is
+	 * kept in a temporary file, so an error (an undeclared name) leaves no executable
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void assembleStreaming(String filename) throws IOException {
+		SymbolTable symbols = new SymbolTable(arch.getMemorySize()-1); //the variables are allocated from the end of the memory
+		int address = 0;
+		try (LineReader reader = openSource(filename)) {
+			while (reader.next()) {
+				lexer.lex(reader.chars(), reader.lineStart(), reader.lineEnd());
+				if (lexer.count() == 1) {
+					if (!lexer.isEmpty(0) && lexer.last(0) == ':')
+						symbols.declareLabel(new String(lexer.chars(), lexer.start(0), lexer.end(0) - lexer.start(0) - 1), address);
+					else
+						symbols.declareVariable(lexer.text(0));
+				}
+				else if (lexer.command())
+					address += 1 + lexer.getOperandsCount();
+			}
+		}
+		System.out.println("Checking labels and variables...");
+		File output = new File(filename + ".dxf");
+		File temporary = new File(filename + ".dxf.tmp");
+		boolean written = false;
+		try (LineReader reader = openSource(filename);
+				FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+				BufferedWriter writer = new BufferedWriter(Channels.newWriter(channel, Charset.defaultCharset().newEncoder()
+						.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), -1), 1 << 16)) {
+			while (reader.next()) {
+				lexer.lex(reader.chars(), reader.lineStart(), reader.lineEnd());
+				if (lexer.count() == 1 || !lexer.command())
+					continue;
+				writer.write(lexer.getCodeText());
+				writer.write('\n');
+				for (int i = 0; i < lexer.getOperandsCount(); i++) {
+					int token = lexer.getOperand(i);
+					char chars[] = lexer.chars();
+					int start = lexer.start(token), end = lexer.end(token);
+					boolean symbol = (token == 1 && lexer.isJump()) || chars[start] == '&';
+					if (symbol) {
+						if (chars[start] == '&' && !(token == 1 && lexer.isJump()))
+							start++;
+						int resolved = symbols.get(chars, start, end);
+						if (resolved == SymbolTable.MISSING) {
+							System.out.println("FATAL ERROR! Variable or label "+new String(chars, start, end - start)+" not declared!");
+							return;
+						}
+						writer.write(Integer.toString(resolved));
+					}
+					else if (chars[start] == '%') {
+						int id = registers.get(chars, start + 1, end);
+						writer.write(Integer.toString(id == NameTable.MISSING ? -1 : id));
+					}
+					else
+						writer.write(chars, start, end - start);
+					writer.write('\n');
+				}
+			}
+			writer.write("-1"); //-1 is a flag indicating that the program is finished
+			written = true;
+		} finally {
+			if (!written)
+				temporary.delete();
+		}
+		Files.move(temporary.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		System.out.println("Compilation has been successfull");
+	}
+
+	private LineReader openSource(String filename) throws IOException {
+		FileChannel channel = FileChannel.open(new File(filename + INPUT_EXTENSION).toPath(), StandardOpenOption.READ);
+		//the malformed bytes are replaced, as FileReader does in read()
+		return new LineReader(Channels.newReader(channel, Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), -1));
+	}
+
+
 	private void setMethodMap(){
 		methodMap.put("move", obj -> commandMethods.processMove((String[]) obj));
 		methodMap.put("add", obj -> commandMethods.processAdd((String[]) obj));
@@ -202,13 +420,6 @@ public class Assembler {
 		Function<Object, Object> method = methodMap.get(name);
 		return method.apply(args);
 	}
-
-	private int findCommandNumber(String[] tokens){
-		Integer process = this.commands.indexOf(tokens[0]);
-		if(process < 0)
-			process = (Integer) invoke(tokens[0], (Object[]) tokens);
-		return process;
-	}
 	
 	/**
 	 * This method creates the executable program from the object program
@@ -223,14 +434,102 @@ public class Assembler {
 	 * @throws IOException 
 	 */
 	public void makeExecutable(String filename) throws IOException {
+		makeExecutable(filename, false);
+	}
+
+	/**
+	 * This method creates the executable program, as makeExecutable(filename),
+	 * in the text format (.dxf) or in the binary one (.dxb, see Executable)
+	 * @param filename
+	 * @param binary
+	 * @throws IOException
+	 */
+	public void makeExecutable(String filename, boolean binary) throws IOException {
+		writeExecutable(filename, binary);
+	}
+
+	/**
+	 * @return false if there was a fatal error (no executable was written)
+	 */
+	private boolean writeExecutable(String filename, boolean binary) throws IOException {
 		if (!checkLabels())
-			return;
-		execProgram = new ArrayList<String>(objProgram);
-		replaceAllVariables();
-		replaceLabels(); //replacing all labels by the address they refer to
-		replaceRegisters(); //replacing all registers by the register id they refer to
-		saveExecFile(filename);
+			return false;
+		link(); //replacing all variables and labels by their addresses (the registers already have their ids)
+		if (binary) {
+			Executable executable;
+			try {
+				executable = makeBinary();
+			} catch (NumberFormatException e) {
+				System.out.println("FATAL ERROR! "+e.getMessage()+" is not a value nor an address!");
+				return false;
+			}
+			executable.save(filename);
+		}
+		else
+			saveExecFile(filename);
 		System.out.println("Compilation has been successfull");
+		return true;
+	}
+
+	/**
+	 * This method resolves the object program into the executable words: each
+	 * reference gets its address from the symbol table (see SymbolTable)
+	 */
+	protected void link() {
+		int words[] = objProgram.words();
+		SymbolTable symbols = symbolTable(true, true);
+		int addresses[] = new int[objProgram.namesCount()]; //each name is looked up once
+		for (int id = 0; id < addresses.length; id++)
+			addresses[id] = symbols.get(objProgram.getName(id));
+		for (int r = 0; r < objProgram.relocations(); r++)
+			if (objProgram.kind(r) == ObjectProgram.SYMBOL && addresses[objProgram.nameId(r)] != SymbolTable.MISSING)
+				words[objProgram.position(r)] = addresses[objProgram.nameId(r)];
+		executable = words;
+		execProgram = null;
+	}
+
+	/**
+	 * @param withVariables
+	 * @param withLabels
+	 * @return the symbol table of the declared variables and/or labels
+	 */
+	private SymbolTable symbolTable(boolean withVariables, boolean withLabels) {
+		SymbolTable symbols = new SymbolTable(arch.getMemorySize()-1); //the variables are allocated from the end of the memory
+		if (withVariables)
+			for (String var : variables)
+				symbols.declareVariable(var);
+		if (withLabels)
+			for (int i = 0; i < labels.size(); i++)
+				symbols.declareLabel(labels.get(i), labelsAdresses.get(i));
+		return symbols;
+	}
+
+	/**
+	 * This method creates the binary executable from the linked program (see link()):
+	 * the code ends with -1, the data section has the variables (starting with zero)
+	 * and the symbol table has all the labels and the variables
+	 * @return
+	 * @throws NumberFormatException with the word that is not a number
+	 */
+	protected Executable makeBinary() {
+		int code[] = Arrays.copyOf(executable, executable.length + 1);
+		for (int r = 0; r < objProgram.relocations(); r++) {
+			if (objProgram.kind(r) != ObjectProgram.TEXT)
+				continue;
+			try {
+				code[objProgram.position(r)] = Integer.parseInt(objProgram.name(r));
+			} catch (NumberFormatException e) {
+				throw new NumberFormatException(objProgram.name(r));
+			}
+		}
+		code[executable.length] = -1; //-1 is a flag indicating that the program is finished
+		int end = arch.getMemorySize(); //the variables are allocated from the end of the memory
+		Executable executable = new Executable(code, end - variables.size(), new int[variables.size()]);
+		for (int i = 0; i < labels.size(); i++)
+			executable.addSymbol(labels.get(i), Executable.SymbolKind.LABEL, labelsAdresses.get(i));
+		for (int i = 0; i < variables.size(); i++)
+			executable.addSymbol(variables.get(i), Executable.SymbolKind.VARIABLE, end - 1 - i);
+		return executable;
 	}
 
 	/**
@@ -251,55 +550,53 @@ public class Assembler {
 	 * and decreases (creating a stack)
 	 */
 	protected void replaceAllVariables() {
-		int position = arch.getMemorySize()-1; //starting from the end of the memory
+		replaceSymbols(symbolTable(true, false));
+	}
+
+	/**
+	 * This method replaces all the variables and labels by their addresses in a
+	 * single pass over the executable program, as replaceAllVariables() followed
+	 * by replaceLabels() (a name that is both a variable and a label is a variable)
+	 */
+	protected void resolveSymbols() {
+		replaceSymbols(symbolTable(true, true));
+	}
 
-		for (String var : this.variables) { //scanning all variables
-			replaceVariables(var, position);
-			position--;
+	/**
+	 * This method backpatches every reference (&name) found in the symbol table with its address
+	 * @param symbols
+	 */
+	private void replaceSymbols(SymbolTable symbols) {
+		for (int i = 0; i < execProgram.size(); i++) {
+			String line = execProgram.get(i);
+			if (line.startsWith("&")) {
+				int address = symbols.get(line.substring(1));
+				if (address != SymbolTable.MISSING)
+					execProgram.set(i, Integer.toString(address));
+			}
 		}
 	}
 
 	/**
-	 * This method saves the execFile collection into the output file
+	 * This method saves the linked program into the output file
 	 * @param filename
 	 * @throws IOException 
 	 */
 	private void saveExecFile(String filename) throws IOException {
 		try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(filename+".dxf")))) {
-			execProgram.forEach(line -> {
-				try {
-					extracted(writer, line);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			});
-			
+			objProgram.write(writer, executable);
 			writer.write("-1"); //-1 is a flag indicating that the program is finished
-			writer.close();
 		} catch (IOException e) {
 			throw new IOException("Error while opening " + filename);
 		}
 	}
 
-	private void extracted(BufferedWriter writer, String line) throws IOException {
-		writer.write(line + "\n");
-	}
-
 	/**
 	 * This method replaces all labels in the execprogram by the corresponding
 	 * address they refer to
 	 */
 	protected void replaceLabels() {
-		for(int i = 0; i < this.labels.size(); i++){
-			String label = "&" + this.labels.get(i);
-			int labelPointTo = this.labelsAdresses.get(i);
-
-			for(int lineNumber = 0; lineNumber < this.execProgram.size(); lineNumber++){
-				String line = this.execProgram.get(lineNumber);
-				if(line.equals(label))
-					this.execProgram.set(lineNumber, Integer.toString(labelPointTo));
-			}
-		}
+		replaceSymbols(symbolTable(false, true));
 	}
 
 	/**
@@ -325,15 +622,12 @@ public class Assembler {
 	protected boolean checkLabels() {
 		System.out.println("Checking labels and variables...");
 	
-		Iterator<String> itr = this.objProgram.iterator();
-		while(itr.hasNext()){
-			String line = itr.next();
-			if(line.startsWith("&")){
-				line = line.substring(1);
-				if (!(this.labels.contains(line) || this.variables.contains(line))){
-					System.out.println("FATAL ERROR! Variable or label "+line+" not declared!");
-					return false;
-				}
+		HashSet<String> declared = new HashSet<>(this.labels);
+		declared.addAll(this.variables);
+		for (int r = 0; r < objProgram.relocations(); r++) {
+			if (objProgram.kind(r) == ObjectProgram.SYMBOL && !declared.contains(objProgram.name(r))) {
+				System.out.println("FATAL ERROR! Variable or label "+objProgram.name(r)+" not declared!");
+				return false;
 			}
 		}
 
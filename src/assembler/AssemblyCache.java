@@ -0,0 +1,235 @@
+package assembler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import architecture.Architecture;
+import components.Register;
+
+/**
+ * This class keeps assembled executables in a directory, named by the SHA-256 of the
+ * source and of the ISA it was assembled for (the commands, the registers and the
+ * memory size of the architecture, which places the variables), so an unchanged
+ * source is not assembled again (see Assembler.assembleCached).
+ *
+ * The directory can be shared by several assemblers at the same time, also in other
+ * processes:
+ *   an executable is written into a temporary file and then renamed, so an entry is
+ *   never seen half written;
+ *   a hit updates the modification time of the entry, which is the order of the
+ *   eviction (the least recently used first) when the entries are over the size limit;
+ *   only one process evicts at a time (a lock on the file "lock"), and an entry that
+ *   disappears while it is read is only a miss.
+ */
+public class AssemblyCache {
+
+	/**
+	 * Changes when the assembler writes other executables for the same source
+	 */
+	static final int FORMAT = 1;
+	private static final String TEMPORARY = ".part";
+	private static final String LOCK = "lock";
+	private static final long STALE_MILLIS = 60 * 60 * 1000; //a temporary file older than this was left by a crash
+
+	private Path directory;
+	private long maxBytes;
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param directory created if it does not exist
+	 * @param maxBytes the size the entries can take together
+	 * @throws IOException
+	 */
+	public AssemblyCache(String directory, long maxBytes) throws IOException {
+		this.directory = Paths.get(directory);
+		this.maxBytes = maxBytes;
+		Files.createDirectories(this.directory);
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @param source the bytes of the source file
+	 * @param arch the architecture the program is assembled for
+	 * @return the name of the entry for the source (without the extension)
+	 */
+	public String key(byte source[], Architecture arch) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) { //every JVM has SHA-256
+			throw new IllegalStateException(e);
+		}
+		digest.update(isaVersion(arch).getBytes(StandardCharsets.UTF_8));
+		digest.update(source);
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest())
+			key.append(String.format("%02x", b));
+		return key.toString();
+	}
+
+	/**
+	 * @param arch
+	 * @return the text that identifies what the assembler gives for the architecture
+	 */
+	static String isaVersion(Architecture arch) {
+		StringBuilder version = new StringBuilder("format ").append(FORMAT);
+		version.append("\nmemory ").append(arch.getMemorySize());
+		version.append("\ncommands");
+		for (String command : arch.getCommandsList())
+			version.append(' ').append(command);
+		version.append("\nregisters");
+		for (Register register : arch.getRegistersList())
+			version.append(' ').append(register.getRegisterName());
+		return version.append('\n').toString();
+	}
+
+	/**
+	 * This method copies an entry into target, if there is such entry
+	 * @param entry the key and the extension of the executable
+	 * @param target
+	 * @return false on a miss
+	 * @throws IOException if target can not be written
+	 */
+	boolean fetch(String entry, Path target) throws IOException {
+		Path file = directory.resolve(entry);
+		InputStream in;
+		try {
+			in = Files.newInputStream(file); //once open, it can be read even if it is evicted
+		} catch (NoSuchFileException e) {
+			misses++; //not cached, or evicted by another assembler
+			return false;
+		}
+		try (in) {
+			Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis())); //recently used
+		} catch (IOException e) {
+			//evicted meanwhile: it was copied anyway
+		}
+		hits++;
+		return true;
+	}
+
+	/**
+	 * This method saves a copy of the executable as an entry and evicts the least
+	 * recently used entries if they are over the size limit
+	 * @param entry the key and the extension of the executable
+	 * @param executable
+	 * @throws IOException
+	 */
+	void store(String entry, Path executable) throws IOException {
+		Path temporary = Files.createTempFile(directory, entry, TEMPORARY);
+		try {
+			Files.copy(executable, temporary, StandardCopyOption.REPLACE_EXISTING);
+			try {
+				Files.move(temporary, directory.resolve(entry), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, directory.resolve(entry), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		evict();
+	}
+
+	/**
+	 * This method removes the least recently used entries until they fit in the size
+	 * limit, unless another assembler is already doing it
+	 * @throws IOException
+	 */
+	void evict() throws IOException {
+		try (FileChannel channel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				FileLock lock = channel.tryLock()) {
+			if (lock == null)
+				return;
+			ArrayList<Path> entries = new ArrayList<>();
+			HashMap<Path, Long> times = new HashMap<>();
+			long total = 0;
+			long now = System.currentTimeMillis();
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+				for (Path file : files) {
+					String name = file.getFileName().toString();
+					if (name.equals(LOCK))
+						continue;
+					try {
+						long time = Files.getLastModifiedTime(file).toMillis();
+						if (name.endsWith(TEMPORARY)) {
+							if (now - time > STALE_MILLIS)
+								Files.deleteIfExists(file);
+							continue;
+						}
+						total += Files.size(file);
+						entries.add(file);
+						times.put(file, time);
+					} catch (NoSuchFileException e) {
+						//removed by another assembler
+					}
+				}
+			}
+			if (total <= maxBytes)
+				return;
+			entries.sort(Comparator.comparingLong(times::get)); //the least recently used first
+			for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+				Path file = entries.get(i);
+				try {
+					long size = Files.size(file);
+					Files.delete(file);
+					total -= size;
+				} catch (IOException e) {
+					//removed by another assembler or in use: it is tried again on the next store
+				}
+			}
+		} catch (OverlappingFileLockException e) {
+			//another cache of this process is evicting
+		}
+	}
+
+	/**
+	 * @return the size of the entries
+	 * @throws IOException
+	 */
+	public long getSize() throws IOException {
+		long total = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (!name.equals(LOCK) && !name.endsWith(TEMPORARY)) {
+					try {
+						total += Files.size(file);
+					} catch (NoSuchFileException e) {
+						//removed by another assembler
+					}
+				}
+			}
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,261 @@
+package assembler;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class reads a line of the source directly from a char buffer, with no
+ * allocation: it splits the line as line.split(" ") does (only spaces separate the
+ * tokens and the empty tokens at the end are discarded), keeping the positions of
+ * the first three tokens, and resolves the command with a table built once from
+ * the commands of the architecture.
+ *
+ * The command is the mnemonic itself (as moveRegReg) or one of the short forms:
+ * inc (incReg) and move, add, sub and imul, whose command is chosen by the kinds
+ * of the two operands: %register, &memory or an immediate (a number).
+ */
+class Lexer {
+
+	private static final int TOKENS = 3;
+	//the kinds of the operands of the short forms
+	private static final int IMMEDIATE = 0;
+	private static final int REGISTER = 1;
+	private static final int MEMORY = 2;
+	private static final int OTHER = 3;
+	private static final String SHORT_FORMS[] = {"move", "add", "sub", "imul"};
+
+	private NameTable commands; //the index of the entry of each command name
+	private int codes[]; //the command of each entry (the mnemonics and inc)
+	private int byKinds[][]; //the commands of each short form, by the operands kinds (null for the others)
+	private String codesText[]; //the decimal text of each command, from -1
+
+	private char chars[];
+	private int start[];
+	private int end[];
+	private int count;
+	private int code;
+	private int operands[]; //the tokens that are operands of the command
+	private int operandsCount;
+
+	/**
+	 * @param mnemonics the commands of the architecture, by their numbers
+	 */
+	Lexer(List<String> mnemonics) {
+		commands = new NameTable();
+		int entries = mnemonics.size() + 1 + SHORT_FORMS.length;
+		codes = new int[entries];
+		byKinds = new int[entries][];
+		int entry = 0;
+		for (int i = 0; i < mnemonics.size(); i++) {
+			commands.putIfAbsent(mnemonics.get(i), entry);
+			codes[entry++] = mnemonics.indexOf(mnemonics.get(i));
+		}
+		commands.putIfAbsent("inc", entry);
+		codes[entry++] = mnemonics.indexOf("incReg");
+		for (String form : SHORT_FORMS) {
+			int table[] = new int[16];
+			Arrays.fill(table, -1); //a combination with no command gives -1
+			table[REGISTER * 4 + REGISTER] = mnemonics.indexOf(form + "RegReg");
+			table[MEMORY * 4 + REGISTER] = mnemonics.indexOf(form + "MemReg");
+			table[REGISTER * 4 + MEMORY] = mnemonics.indexOf(form + "RegMem");
+			if (!form.equals("imul"))
+				table[IMMEDIATE * 4 + REGISTER] = mnemonics.indexOf(form + "ImmReg");
+			commands.putIfAbsent(form, entry);
+			byKinds[entry++] = table;
+		}
+		codesText = new String[mnemonics.size() + 1];
+		for (int i = 0; i < codesText.length; i++)
+			codesText[i] = Integer.toString(i - 1);
+		chars = new char[256];
+		start = new int[TOKENS];
+		end = new int[TOKENS];
+		operands = new int[2];
+	}
+
+	/**
+	 * This method reads a line given as a String (copied into the buffer, with no allocation)
+	 * @param line
+	 */
+	void lex(String line) {
+		if (line.length() > chars.length)
+			chars = new char[Math.max(line.length(), chars.length * 2)];
+		line.getChars(0, line.length(), chars, 0);
+		lex(chars, 0, line.length());
+	}
+
+	/**
+	 * This method reads the line in chars, from from (inclusive) to to (exclusive)
+	 * @param chars
+	 * @param from
+	 * @param to
+	 */
+	void lex(char chars[], int from, int to) {
+		this.chars = chars;
+		int token = 0;
+		int tokenStart = from;
+		int lastNotEmpty = -1;
+		boolean separated = false;
+		for (int i = from; i <= to; i++) {
+			if (i < to && chars[i] != ' ')
+				continue;
+			if (i < to)
+				separated = true;
+			if (token < TOKENS) {
+				start[token] = tokenStart;
+				end[token] = i;
+			}
+			if (i > tokenStart)
+				lastNotEmpty = token;
+			token++;
+			tokenStart = i + 1;
+		}
+		//with no space, the line is a single token, even if it is empty
+		count = separated ? lastNotEmpty + 1 : 1;
+	}
+
+	/**
+	 * @return the amount of tokens
+	 */
+	int count() {
+		return count;
+	}
+
+	boolean isEmpty(int token) {
+		return start[token] == end[token];
+	}
+
+	char first(int token) {
+		return chars[start[token]];
+	}
+
+	char last(int token) {
+		return chars[end[token] - 1];
+	}
+
+	int start(int token) {
+		return start[token];
+	}
+
+	int end(int token) {
+		return end[token];
+	}
+
+	char[] chars() {
+		return chars;
+	}
+
+	String text(int token) {
+		return new String(chars, start[token], end[token] - start[token]);
+	}
+
+	/**
+	 * This method finds the command of the line and its operands, as the
+	 * translation of a line with more than one token. A line that can not be
+	 * translated has no command (nothing is written for it)
+	 * @return false if the line has no command
+	 */
+	boolean command() {
+		operandsCount = 0;
+		if (count == 0)
+			return false;
+		int entry = commands.get(chars, start[0], end[0]);
+		if (entry == NameTable.MISSING)
+			return false;
+		if (byKinds[entry] == null)
+			code = codes[entry];
+		else {
+			if (count < 3 || isEmpty(1) || isEmpty(2)) //both operands are needed to choose
+				return false;
+			code = byKinds[entry][firstKind(first(1)) * 4 + secondKind(first(2))];
+		}
+		if (!isEmpty(1))
+			operands[operandsCount++] = 1;
+		if (count >= 3 && !isEmpty(2))
+			operands[operandsCount++] = 2;
+		return true;
+	}
+
+	private static int firstKind(char c) {
+		if (Character.isDigit(c) || c == '-')
+			return IMMEDIATE;
+		return secondKind(c);
+	}
+
+	private static int secondKind(char c) {
+		if (c == '%')
+			return REGISTER;
+		if (c == '&')
+			return MEMORY;
+		return OTHER;
+	}
+
+	int getCode() {
+		return code;
+	}
+
+	String getCodeText() {
+		return codesText[code + 1];
+	}
+
+	/**
+	 * @return the amount of operands written after the command
+	 */
+	int getOperandsCount() {
+		return operandsCount;
+	}
+
+	/**
+	 * @param i
+	 * @return the token of the operand
+	 */
+	int getOperand(int i) {
+		return operands[i];
+	}
+
+	/**
+	 * @param token
+	 * @return true if the token is a number written as Integer.toString writes it
+	 * (no sign +, no zeros on the left), so it can be kept as an int and written back the same
+	 */
+	boolean isNumber(int token) {
+		int i = start[token];
+		boolean negative = i < end[token] && chars[i] == '-';
+		if (negative)
+			i++;
+		int digits = end[token] - i;
+		if (digits == 0 || digits > 10 || (chars[i] == '0' && (digits > 1 || negative)))
+			return false;
+		long value = 0;
+		for (;i<end[token];i++) {
+			if (chars[i] < '0' || chars[i] > '9')
+				return false;
+			value = value * 10 + (chars[i] - '0');
+		}
+		if (negative)
+			value = -value;
+		return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @param token a number (see isNumber)
+	 * @return its value
+	 */
+	int number(int token) {
+		int i = start[token];
+		boolean negative = chars[i] == '-';
+		if (negative)
+			i++;
+		int value = 0;
+		for (;i<end[token];i++)
+			value = value * 10 - (chars[i] - '0'); //negative, so MIN_VALUE fits
+		return negative ? value : -value;
+	}
+
+	/**
+	 * @return true if the command is a jump: its operand is a label
+	 */
+	boolean isJump() {
+		return first(0) == 'j';
+	}
+
+}
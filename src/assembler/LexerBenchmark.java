@@ -0,0 +1,70 @@
+package assembler;
+
+import java.util.ArrayList;
+
+/**
+ * This class measures how many source lines per second are translated.
+ * The same lines are translated twice: once as the assembler did before the Lexer
+ * (line.split, a map of the operand kinds built per line and the commands found
+ * by indexOf or by invoke; kept here only as the baseline) and once by the Lexer.
+ * Usage: java assembler.LexerBenchmark [lines per round]
+ */
+public class LexerBenchmark {
+
+	private static final int ROUNDS = 10;
+	private static final String LINES[] = {"move %RPG0 %RPG1", "add &a %RPG2", "sub 5 %RPG3", "jn loop",
+			"inc %RPG0", "imul %RPG1 &b", "moveImmReg -3 %RPG0", "jmp end"};
+
+	private static int splitWords(Assembler assembler, ArrayList<String> commands, String line) {
+		String tokens[] = line.split(" ");
+		int words = 0;
+		try {
+			Integer process = commands.indexOf(tokens[0]);
+			if (process < 0)
+				process = (Integer) assembler.invoke(tokens[0], (Object[]) tokens);
+			words += Integer.toString(process).length();
+			if (!tokens[1].isEmpty())
+				words += tokens[0].startsWith("j") ? ("&" + tokens[1]).length() : tokens[1].length();
+			if (!tokens[2].isEmpty())
+				words += tokens[2].length();
+		} catch (Exception e) {}
+		return words;
+	}
+
+	private static int lexerWords(Lexer lexer, String line) {
+		lexer.lex(line);
+		int words = 0;
+		if (lexer.command()) {
+			words += lexer.getCodeText().length();
+			for (int i=0;i<lexer.getOperandsCount();i++) {
+				int token = lexer.getOperand(i);
+				words += lexer.end(token) - lexer.start(token) + (token == 1 && lexer.isJump() ? 1 : 0);
+			}
+		}
+		return words;
+	}
+
+	public static void main(String[] args) {
+		int lines = 2000000;
+		if (args.length > 0)
+			lines = Integer.parseInt(args[0]);
+		Assembler assembler = new Assembler();
+		ArrayList<String> commands = assembler.getArch().getCommandsList();
+		Lexer lexer = new Lexer(commands);
+		for (int round=1;round<=ROUNDS;round++) {
+			long start = System.nanoTime();
+			long splitTotal = 0;
+			for (int i=0;i<lines;i++)
+				splitTotal += splitWords(assembler, commands, LINES[i % LINES.length]);
+			long splitTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			long lexerTotal = 0;
+			for (int i=0;i<lines;i++)
+				lexerTotal += lexerWords(lexer, LINES[i % LINES.length]);
+			long lexerTime = System.nanoTime() - start;
+			System.out.printf("round %2d: split %.0f lines/ms, lexer %.0f lines/ms (%s)%n", round,
+					lines / (splitTime / 1e6), lines / (lexerTime / 1e6), splitTotal == lexerTotal ? "same words" : "DIFFERENT");
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package assembler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class gives the lines of a source in its own char buffer, with no String
+ * per line. The lines end as in BufferedReader.readLine: with \n, \r or \r\n.
+ */
+class LineReader implements Closeable {
+
+	private Reader reader;
+	private char chars[];
+	private int position; //the start of the next line
+	private int limit; //the end of the chars read
+	private boolean ended;
+	private int lineStart;
+	private int lineEnd;
+
+	LineReader(Reader reader) {
+		this.reader = reader;
+		this.chars = new char[1 << 16];
+	}
+
+	/**
+	 * This method reads the next line
+	 * @return false if there are no more lines
+	 * @throws IOException
+	 */
+	boolean next() throws IOException {
+		int scan = position;
+		while (true) {
+			while (scan < limit && chars[scan] != '\n' && chars[scan] != '\r')
+				scan++;
+			if (scan < limit) {
+				if (chars[scan] != '\r' || scan < limit - 1 || ended)
+					break;
+				//a \r at the end of the chars read may be followed by \n
+			}
+			else if (ended) {
+				if (position == limit)
+					return false;
+				break; //the last line has no line break
+			}
+			scan -= position;
+			fill();
+			scan += position;
+		}
+		lineStart = position;
+		lineEnd = scan;
+		if (scan < limit) {
+			position = scan + 1;
+			if (chars[scan] == '\r' && position < limit && chars[position] == '\n')
+				position++;
+		}
+		else
+			position = limit;
+		return true;
+	}
+
+	/**
+	 * This method moves the current line to the start of the buffer and reads more chars
+	 */
+	private void fill() throws IOException {
+		if (position > 0) {
+			System.arraycopy(chars, position, chars, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		if (limit == chars.length) {
+			char larger[] = new char[chars.length * 2]; //a line longer than the buffer
+			System.arraycopy(chars, 0, larger, 0, limit);
+			chars = larger;
+		}
+		int read = reader.read(chars, limit, chars.length - limit);
+		if (read < 0)
+			ended = true;
+		else
+			limit += read;
+	}
+
+	char[] chars() {
+		return chars;
+	}
+
+	int lineStart() {
+		return lineStart;
+	}
+
+	int lineEnd() {
+		return lineEnd;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,151 @@
+package assembler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import architecture.Architecture;
+
+/**
+ * This class links relocatable objects (.dof, see Assembler.makeObject) into one
+ * executable, so a library is assembled once and only linked with each program.
+ * The objects are placed one after the other, from the position 0 (the first one is
+ * the program that starts running), and their variables are allocated from the end
+ * of the memory in the order the objects were added, as replaceAllVariables does
+ * with the variables of a single source.
+ *
+ * Each object resolves its references with its own declarations first (as the
+ * assembler does: a variable before a label, the first declaration counts), so two
+ * objects can use the same name for their own labels and variables. Only the names
+ * an object does not declare are imports: each one must be declared by exactly one
+ * of the other objects, else it is a fatal error.
+ */
+public class Linker {
+
+	private Architecture arch;
+	private ArrayList<ObjectFile> objects;
+
+	public Linker() {
+		this(new Architecture());
+	}
+
+	/**
+	 * @param arch the architecture that will run the program
+	 */
+	public Linker(Architecture arch) {
+		this.arch = arch;
+		this.objects = new ArrayList<>();
+	}
+
+	/**
+	 * This method adds an object after the ones there are
+	 * @param object
+	 */
+	public void add(ObjectFile object) {
+		objects.add(object);
+	}
+
+	/**
+	 * This method reads an object and adds it after the ones there are
+	 * @param filename without the extension
+	 * @throws IOException
+	 */
+	public void add(String filename) throws IOException {
+		add(ObjectFile.read(filename));
+	}
+
+	/**
+	 * This method creates the executable (filename.dxf)
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void link(String filename) throws IOException {
+		link(filename, false);
+	}
+
+	/**
+	 * This method creates the executable in the text format (.dxf) or in the binary one
+	 * (.dxb). An import that no object declares, or that more than one object declares,
+	 * is a fatal error and no executable is created
+	 * @param filename
+	 * @param binary
+	 * @throws IOException
+	 */
+	public void link(String filename, boolean binary) throws IOException {
+		Assembler assembler = resolve();
+		if (assembler != null)
+			assembler.makeExecutable(filename, binary);
+	}
+
+	/**
+	 * This method resolves the references of every object
+	 * @return an assembler with the resolved objects, or null if there was a fatal error
+	 */
+	Assembler resolve() {
+		//the names each object declares
+		ArrayList<SymbolTable> declared = new ArrayList<>();
+		HashMap<String, Integer> exported = new HashMap<>();
+		HashSet<String> duplicated = new HashSet<>();
+		int base = 0;
+		int position = arch.getMemorySize()-1; //the variables are allocated from the end of the memory
+		for (ObjectFile object : objects) {
+			SymbolTable own = new SymbolTable(position);
+			for (String var : object.getVariables())
+				own.declareVariable(var);
+			for (int i = 0; i < object.getLabels().size(); i++)
+				own.declareLabel(object.getLabels().get(i), base + object.getLabelsAddresses().get(i));
+			for (String name : object.getExports())
+				if (exported.putIfAbsent(name, own.get(name)) != null)
+					duplicated.add(name);
+			declared.add(own);
+			position = own.getNextVariable();
+			base += object.getSize();
+		}
+		Assembler assembler = new Assembler(arch);
+		for (int o = 0; o < objects.size(); o++) {
+			ObjectProgram program = objects.get(o).getProgram();
+			int addresses[] = new int[program.namesCount()];
+			for (int r = 0; r < program.relocations(); r++) {
+				if (program.kind(r) != ObjectProgram.SYMBOL)
+					continue;
+				String name = program.name(r);
+				int address = declared.get(o).get(name);
+				if (address == SymbolTable.MISSING) { //an import
+					if (duplicated.contains(name)) {
+						System.out.println("FATAL ERROR! Variable or label "+name+" declared in more than one object!");
+						return null;
+					}
+					address = exported.getOrDefault(name, SymbolTable.MISSING);
+				}
+				if (address == SymbolTable.MISSING) {
+					System.out.println("FATAL ERROR! Variable or label "+name+" not declared!");
+					return null;
+				}
+				addresses[program.nameId(r)] = address;
+			}
+			assembler.addLinked(objects.get(o), addresses);
+		}
+		return assembler;
+	}
+
+	/**
+	 * Usage: Linker [-b] executable object1 object2 ... (the names without the extensions)
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean binary = args.length > 0 && args[0].equals("-b");
+		int first = binary ? 1 : 0;
+		if (args.length - first < 2) {
+			System.out.println("Usage: Linker [-b] executable object1 object2 ...");
+			return;
+		}
+		Linker linker = new Linker();
+		for (int i = first + 1; i < args.length; i++)
+			linker.add(args[i]);
+		System.out.println("Linking "+(args.length - first - 1)+" objects into "+args[first]+"...");
+		linker.link(args[first], binary);
+	}
+
+}
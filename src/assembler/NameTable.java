@@ -0,0 +1,83 @@
+package assembler;
+
+import java.util.Arrays;
+
+/**
+ * This class maps names to int values (an open addressing hash table) and is
+ * searched directly with the characters of a line, so looking up a name read
+ * from the source creates no String.
+ */
+class NameTable {
+
+	static final int MISSING = Integer.MIN_VALUE;
+
+	private char names[][];
+	private int values[];
+	private int size;
+
+	NameTable() {
+		names = new char[16][];
+		values = new int[16];
+	}
+
+	/**
+	 * This method adds the name, unless it is already there (the first value counts)
+	 * @param name
+	 * @param value
+	 */
+	void putIfAbsent(String name, int value) {
+		char key[] = name.toCharArray();
+		int slot = slot(key, 0, key.length);
+		if (names[slot] != null)
+			return;
+		names[slot] = key;
+		values[slot] = value;
+		if (++size * 2 > names.length)
+			grow();
+	}
+
+	/**
+	 * @param chars
+	 * @param from the first character of the name
+	 * @param to after the last character
+	 * @return the value of the name or MISSING
+	 */
+	int get(char chars[], int from, int to) {
+		int slot = slot(chars, from, to);
+		return (names[slot] == null) ? MISSING : values[slot];
+	}
+
+	int get(String name) {
+		char key[] = name.toCharArray();
+		return get(key, 0, key.length);
+	}
+
+	/**
+	 * @return the slot of the name or the empty slot where it would be
+	 */
+	private int slot(char chars[], int from, int to) {
+		int hash = 0;
+		for (int i=from;i<to;i++)
+			hash = 31 * hash + chars[i];
+		int mask = names.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (names[slot] != null && !Arrays.equals(names[slot], 0, names[slot].length, chars, from, to))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void grow() {
+		char oldNames[][] = names;
+		int oldValues[] = values;
+		names = new char[oldNames.length * 2][];
+		values = new int[oldNames.length * 2];
+		for (int i=0;i<oldNames.length;i++) {
+			if (oldNames[i] != null) {
+				int slot = slot(oldNames[i], 0, oldNames[i].length);
+				names[slot] = oldNames[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+package assembler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.zip.CRC32;
+
+/**
+ * This class is a relocatable object (.dof): an assembled program that is not an
+ * executable yet, so it can be linked with others (see Linker). It keeps the words
+ * of the program from the position 0, the relocations (the words that refer to a
+ * label or a variable, the registers and the operands written as they are), the
+ * labels it declares with their positions and the variables it declares in order.
+ * The exports are the labels and the variables; the imports are the names it refers
+ * to without declaring them.
+ *
+ * Format (version 1, big endian):
+ *   "OACO" magic, 1 byte version,
+ *   the amount of words and the words (4 bytes each),
+ *   the amount of relocations and, for each one, 1 byte kind, its position and its name,
+ *   the amount of labels and, for each one, its name and its position,
+ *   the amount of variables and their names,
+ *   and the CRC32 of all the previous bytes.
+ * Each name is written as 2 bytes length and the UTF-8 bytes.
+ */
+public class ObjectFile {
+
+	public static final String EXTENSION = ".dof";
+	private static final int MAGIC = 0x4F41434F; //OACO
+	static final int VERSION = 1;
+
+	private ObjectProgram program;
+	private ArrayList<String> labels;
+	private ArrayList<Integer> labelsAddresses;
+	private ArrayList<String> variables;
+
+	/**
+	 * @param program
+	 * @param labels
+	 * @param labelsAddresses the position of each label in the program
+	 * @param variables in the order they are declared
+	 */
+	ObjectFile(ObjectProgram program, ArrayList<String> labels, ArrayList<Integer> labelsAddresses, ArrayList<String> variables) {
+		this.program = program;
+		this.labels = labels;
+		this.labelsAddresses = labelsAddresses;
+		this.variables = variables;
+	}
+
+	ObjectProgram getProgram() {
+		return program;
+	}
+
+	/**
+	 * @return the amount of words
+	 */
+	public int getSize() {
+		return program.size();
+	}
+
+	public ArrayList<String> getLabels() {
+		return labels;
+	}
+
+	public ArrayList<Integer> getLabelsAddresses() {
+		return labelsAddresses;
+	}
+
+	public ArrayList<String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * @return the names declared by the object: the labels and the variables
+	 */
+	public ArrayList<String> getExports() {
+		LinkedHashSet<String> exports = new LinkedHashSet<>(labels);
+		exports.addAll(variables);
+		return new ArrayList<>(exports);
+	}
+
+	/**
+	 * @return the names the object refers to without declaring them, in the order they
+	 * are used; they must be declared by another object when they are linked
+	 */
+	public ArrayList<String> getImports() {
+		HashSet<String> declared = new HashSet<>(labels);
+		declared.addAll(variables);
+		LinkedHashSet<String> imports = new LinkedHashSet<>();
+		for (int r = 0; r < program.relocations(); r++)
+			if (program.kind(r) == ObjectProgram.SYMBOL && !declared.contains(program.name(r)))
+				imports.add(program.name(r));
+		return new ArrayList<>(imports);
+	}
+
+	/**
+	 * This method saves the object
+	 * @param filename without the extension
+	 * @throws IOException
+	 */
+	public void save(String filename) throws IOException {
+		try (OutputStream out = new FileOutputStream(filename + EXTENSION)) {
+			out.write(toBytes());
+		}
+	}
+
+	public byte[] toBytes() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 4 * program.size() + 16 * program.relocations());
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			int words[] = program.words();
+			out.writeInt(words.length);
+			for (int word : words)
+				out.writeInt(word);
+			out.writeInt(program.relocations());
+			for (int r = 0; r < program.relocations(); r++) {
+				out.writeByte(program.kind(r));
+				out.writeInt(program.position(r));
+				writeName(out, program.name(r));
+			}
+			out.writeInt(labels.size());
+			for (int i = 0; i < labels.size(); i++) {
+				writeName(out, labels.get(i));
+				out.writeInt(labelsAddresses.get(i));
+			}
+			out.writeInt(variables.size());
+			for (String variable : variables)
+				writeName(out, variable);
+			CRC32 crc = new CRC32();
+			crc.update(bytes.toByteArray());
+			out.writeInt((int) crc.getValue());
+		}
+		catch (IOException e) { //a ByteArrayOutputStream does not throw it
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeName(DataOutputStream out, String name) throws IOException {
+		byte text[] = name.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(text.length);
+		out.write(text);
+	}
+
+	/**
+	 * This method reads an object
+	 * @param filename without the extension
+	 * @return
+	 * @throws IOException if the file can not be read or is not a valid object
+	 */
+	public static ObjectFile read(String filename) throws IOException {
+		return parse(ByteBuffer.wrap(Files.readAllBytes(new File(filename + EXTENSION).toPath())), filename + EXTENSION);
+	}
+
+	/**
+	 * @param bytes from the position 0 to the limit
+	 * @param name used in the error messages
+	 * @return
+	 * @throws IOException if the bytes are not a valid object
+	 */
+	static ObjectFile parse(ByteBuffer bytes, String name) throws IOException {
+		int length = bytes.limit();
+		if (length < 4 + 1 + 4)
+			throw new IOException(name+" is truncated");
+		CRC32 crc = new CRC32();
+		ByteBuffer checked = bytes.duplicate();
+		checked.position(0).limit(length - 4);
+		crc.update(checked);
+		if (bytes.getInt(length - 4) != (int) crc.getValue())
+			throw new IOException(name+": the checksum does not match");
+		if (bytes.getInt(0) != MAGIC)
+			throw new IOException(name+" is not an object file");
+		int version = bytes.get(4);
+		if (version != VERSION)
+			throw new IOException(name+": unknown version "+version);
+		ByteBuffer in = bytes.duplicate();
+		in.position(5).limit(length - 4);
+		try {
+			int size = in.getInt();
+			if (size < 0 || 4L * size > in.remaining())
+				throw new IOException(name+" is corrupted");
+			int words[] = new int[size];
+			in.asIntBuffer().get(words);
+			in.position(in.position() + 4 * size);
+			ObjectProgram program = new ObjectProgram();
+			int relocations = in.getInt();
+			int next = 0;
+			for (int r = 0; r < relocations; r++) {
+				byte kind = in.get();
+				int position = in.getInt();
+				if (kind < ObjectProgram.SYMBOL || kind > ObjectProgram.TEXT || position < next || position >= size)
+					throw new IOException(name+" is corrupted");
+				while (next < position)
+					program.add(words[next++]);
+				program.add(words[next++], kind, readName(in));
+			}
+			while (next < size)
+				program.add(words[next++]);
+			int labelsCount = in.getInt();
+			if (labelsCount < 0)
+				throw new IOException(name+" is corrupted");
+			ArrayList<String> labels = new ArrayList<>();
+			ArrayList<Integer> labelsAddresses = new ArrayList<>();
+			for (int i = 0; i < labelsCount; i++) {
+				labels.add(readName(in));
+				labelsAddresses.add(in.getInt());
+			}
+			int variablesCount = in.getInt();
+			if (variablesCount < 0)
+				throw new IOException(name+" is corrupted");
+			ArrayList<String> variables = new ArrayList<>();
+			for (int i = 0; i < variablesCount; i++)
+				variables.add(readName(in));
+			if (in.hasRemaining())
+				throw new IOException(name+" is corrupted");
+			return new ObjectFile(program, labels, labelsAddresses, variables);
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException(name+" is truncated");
+		}
+	}
+
+	private static String readName(ByteBuffer in) {
+		byte text[] = new byte[in.getShort() & 0xFFFF];
+		in.get(text);
+		return new String(text, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,256 @@
+package assembler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class is the object program: the words as ints in a growable array and a
+ * side table with the positions whose words are not final values (the relocations):
+ *   SYMBOL:   a reference to a label or a variable (the word is resolved by the linking)
+ *   REGISTER: a %register (the word is already its id, or -1 for an unknown name)
+ *   TEXT:     an operand that is not a number in its usual form (as "a" or "007"),
+ *             written in the executable as it is
+ * The names of the relocations are kept once each, so the program does not hold a
+ * String per word.
+ */
+class ObjectProgram {
+
+	static final byte SYMBOL = 0;
+	static final byte REGISTER = 1;
+	static final byte TEXT = 2;
+
+	private int words[];
+	private int size;
+	private int positions[]; //the relocations, in the order of the words
+	private byte kinds[];
+	private int nameIds[];
+	private int relocations;
+	private NameTable ids; //the id of each name
+	private ArrayList<String> names;
+
+	ObjectProgram() {
+		words = new int[256];
+		positions = new int[64];
+		kinds = new byte[64];
+		nameIds = new int[64];
+		ids = new NameTable();
+		names = new ArrayList<>();
+	}
+
+	void add(int word) {
+		if (size == words.length)
+			words = Arrays.copyOf(words, size * 2);
+		words[size++] = word;
+	}
+
+	/**
+	 * This method adds a reference to the label or variable named in chars
+	 */
+	void addSymbol(char chars[], int from, int to) {
+		relocate(SYMBOL, intern(chars, from, to));
+		add(0);
+	}
+
+	/**
+	 * This method adds a register
+	 * @param id the id of the register or -1 if there is no such register
+	 */
+	void addRegister(char chars[], int from, int to, int id) {
+		relocate(REGISTER, intern(chars, from, to));
+		add(id);
+	}
+
+	/**
+	 * This method adds a word that is written as it is
+	 */
+	void addText(char chars[], int from, int to) {
+		relocate(TEXT, intern(chars, from, to));
+		add(0);
+	}
+
+	/**
+	 * This method adds a word with a relocation (as read from an object file)
+	 * @param word
+	 * @param kind SYMBOL, REGISTER or TEXT
+	 * @param name
+	 */
+	void add(int word, byte kind, String name) {
+		relocate(kind, intern(name));
+		add(word);
+	}
+
+	/**
+	 * This method adds the words of another program after the words of this one
+	 * @param other
+	 */
+	void append(ObjectProgram other) {
+		append(other, null);
+	}
+
+	/**
+	 * This method adds the words of another program after the words of this one, with
+	 * its references to labels and variables already resolved (see Linker)
+	 * @param other
+	 * @param addresses the address of each name of other (by its id), or null to keep the references
+	 */
+	void append(ObjectProgram other, int addresses[]) {
+		int relocation = 0;
+		for (int i = 0; i < other.size; i++) {
+			if (relocation < other.relocations && other.positions[relocation] == i) {
+				int nameId = other.nameIds[relocation];
+				byte kind = other.kinds[relocation++];
+				if (kind == SYMBOL && addresses != null) {
+					add(addresses[nameId]);
+					continue;
+				}
+				relocate(kind, intern(other.names.get(nameId)));
+			}
+			add(other.words[i]);
+		}
+	}
+
+	private void relocate(byte kind, int nameId) {
+		if (relocations == positions.length) {
+			positions = Arrays.copyOf(positions, relocations * 2);
+			kinds = Arrays.copyOf(kinds, relocations * 2);
+			nameIds = Arrays.copyOf(nameIds, relocations * 2);
+		}
+		positions[relocations] = size;
+		kinds[relocations] = kind;
+		nameIds[relocations] = nameId;
+		relocations++;
+	}
+
+	private int intern(char chars[], int from, int to) {
+		int id = ids.get(chars, from, to);
+		if (id == NameTable.MISSING) {
+			String name = new String(chars, from, to - from);
+			id = names.size();
+			ids.putIfAbsent(name, id);
+			names.add(name);
+		}
+		return id;
+	}
+
+	private int intern(String name) {
+		int id = ids.get(name);
+		if (id == NameTable.MISSING) {
+			id = names.size();
+			ids.putIfAbsent(name, id);
+			names.add(name);
+		}
+		return id;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return a copy of the words (the relocations not resolved)
+	 */
+	int[] words() {
+		return Arrays.copyOf(words, size);
+	}
+
+	int relocations() {
+		return relocations;
+	}
+
+	int position(int relocation) {
+		return positions[relocation];
+	}
+
+	byte kind(int relocation) {
+		return kinds[relocation];
+	}
+
+	int nameId(int relocation) {
+		return nameIds[relocation];
+	}
+
+	String name(int relocation) {
+		return names.get(nameIds[relocation]);
+	}
+
+	int namesCount() {
+		return names.size();
+	}
+
+	String getName(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * This method renders the words as the assembler wrote them before this class:
+	 * the symbols with &, the registers with % and the numbers in decimal
+	 * @return
+	 */
+	ArrayList<String> toList() {
+		ArrayList<String> list = new ArrayList<>(size);
+		int relocation = 0;
+		for (int i = 0; i < size; i++) {
+			if (relocation < relocations && positions[relocation] == i) {
+				String name = names.get(nameIds[relocation]);
+				if (kinds[relocation] == SYMBOL)
+					list.add("&" + name);
+				else if (kinds[relocation] == REGISTER)
+					list.add("%" + name);
+				else
+					list.add(name);
+				relocation++;
+			}
+			else
+				list.add(Integer.toString(words[i]));
+		}
+		return list;
+	}
+
+	/**
+	 * This method renders the linked words: only the texts are not numbers
+	 * @param linked the words with the relocations resolved
+	 * @return
+	 */
+	ArrayList<String> toList(int linked[]) {
+		ArrayList<String> list = new ArrayList<>(linked.length);
+		int relocation = 0;
+		for (int i = 0; i < linked.length; i++) {
+			relocation = nextText(relocation, i);
+			if (relocation < relocations && positions[relocation] == i)
+				list.add(names.get(nameIds[relocation]));
+			else
+				list.add(Integer.toString(linked[i]));
+		}
+		return list;
+	}
+
+	/**
+	 * This method writes the linked words, one per line (the text executable)
+	 * @param writer
+	 * @param linked the words with the relocations resolved
+	 * @throws IOException
+	 */
+	void write(Writer writer, int linked[]) throws IOException {
+		int relocation = 0;
+		for (int i = 0; i < linked.length; i++) {
+			relocation = nextText(relocation, i);
+			if (relocation < relocations && positions[relocation] == i)
+				writer.write(names.get(nameIds[relocation]));
+			else
+				writer.write(Integer.toString(linked[i]));
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * @return the first TEXT relocation from relocation on, at the position or after it
+	 */
+	private int nextText(int relocation, int position) {
+		while (relocation < relocations && (positions[relocation] < position || kinds[relocation] != TEXT))
+			relocation++;
+		return relocation;
+	}
+
+}
@@ -0,0 +1,59 @@
+package assembler;
+
+/**
+ * This class is the symbol table of an assembly program: the address of each label
+ * and variable it declares. It keeps the rules of the names in a single place:
+ *   the variables are allocated from the end of the memory, one position per
+ *   declaration, in the order they are declared;
+ *   a name declared twice keeps its first address;
+ *   a name that is both a variable and a label refers to the variable.
+ */
+class SymbolTable {
+
+	static final int MISSING = NameTable.MISSING;
+
+	private NameTable variables;
+	private NameTable labels;
+	private int nextVariable;
+
+	/**
+	 * @param firstVariable the address of the first variable (the next ones decrease)
+	 */
+	SymbolTable(int firstVariable) {
+		variables = new NameTable();
+		labels = new NameTable();
+		nextVariable = firstVariable;
+	}
+
+	void declareVariable(String name) {
+		variables.putIfAbsent(name, nextVariable--); //every declaration takes a position
+	}
+
+	void declareLabel(String name, int address) {
+		labels.putIfAbsent(name, address);
+	}
+
+	/**
+	 * @return the address the next variable would get
+	 */
+	int getNextVariable() {
+		return nextVariable;
+	}
+
+	/**
+	 * @param chars
+	 * @param from the first character of the name
+	 * @param to after the last character
+	 * @return the address of the name or MISSING
+	 */
+	int get(char chars[], int from, int to) {
+		int address = variables.get(chars, from, to);
+		return (address != MISSING) ? address : labels.get(chars, from, to);
+	}
+
+	int get(String name) {
+		int address = variables.get(name);
+		return (address != MISSING) ? address : labels.get(name);
+	}
+
+}
@@ -0,0 +1,109 @@
+package assembler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Test;
+
+import architecture.Architecture;
+import architecture.ExecutionMode;
+import components.ArrayMemory;
+
+public class TestAssemblyCache {
+
+	private String source(Path directory, String name, String text) throws IOException {
+		File file = directory.resolve(name + ".dsf").toFile();
+		try (FileWriter writer = new FileWriter(file)) {
+			writer.write(text);
+		}
+		return directory.resolve(name).toString();
+	}
+
+	private byte[] bytes(String filename) throws IOException {
+		return Files.readAllBytes(new File(filename).toPath());
+	}
+
+	@Test
+	public void testHit() throws IOException {
+		Path directory = Files.createTempDirectory("cache");
+		AssemblyCache cache = new AssemblyCache(directory.resolve("cache").toString(), 1 << 20);
+		String name = source(directory, "program", "a\nmove 5 %RPG0\nmove %RPG0 &a\nl:\njn l\n");
+		Assembler plain = new Assembler();
+		plain.read(name);
+		plain.parse();
+		plain.makeExecutable(name);
+		byte expected[] = bytes(name + ".dxf");
+		new File(name + ".dxf").delete();
+
+		new Assembler().assembleCached(name, false, cache);
+		assertEquals(1, cache.getMisses());
+		assertArrayEquals(expected, bytes(name + ".dxf"));
+		new File(name + ".dxf").delete();
+
+		Assembler cached = new Assembler();
+		cached.assembleCached(name, false, cache);
+		assertEquals(1, cache.getHits());
+		assertTrue(cached.getObjProgram().isEmpty()); //not parsed
+		assertArrayEquals(expected, bytes(name + ".dxf"));
+
+		new Assembler().assembleCached(name, true, cache); //another entry
+		assertEquals(2, cache.getMisses());
+		source(directory, "program", "a\nmove 6 %RPG0\nmove %RPG0 &a\nl:\njn l\n");
+		new Assembler().assembleCached(name, false, cache);
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void testIsaVersion() throws IOException {
+		AssemblyCache cache = new AssemblyCache(Files.createTempDirectory("cache").toString(), 1 << 20);
+		byte source[] = "a\nmove %RPG0 &a\n".getBytes();
+		Architecture small = new Architecture(false, ExecutionMode.MICROPROGRAM, new ArrayMemory(64));
+		assertEquals(cache.key(source, new Architecture()), cache.key(source, new Architecture()));
+		assertNotEquals(cache.key(source, new Architecture()), cache.key(source, small));
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		Path directory = Files.createTempDirectory("cache");
+		Path entries = directory.resolve("cache");
+		AssemblyCache cache = new AssemblyCache(entries.toString(), 25); //two executables of 9 bytes
+		Architecture arch = new Architecture();
+		String names[] = new String[3];
+		Path files[] = new Path[3];
+		for (int i = 0; i < 3; i++) {
+			names[i] = source(directory, "p" + i, "move " + (i + 1) + " %RPG0\n");
+			files[i] = entries.resolve(cache.key(bytes(names[i] + ".dsf"), arch) + ".dxf");
+		}
+		long now = System.currentTimeMillis();
+		new Assembler(arch).assembleCached(names[0], false, cache);
+		Files.setLastModifiedTime(files[0], FileTime.fromMillis(now - 3000));
+		new Assembler(arch).assembleCached(names[1], false, cache);
+		Files.setLastModifiedTime(files[1], FileTime.fromMillis(now - 2000));
+		assertEquals(18, cache.getSize());
+
+		new Assembler(arch).assembleCached(names[0], false, cache); //now p1 is the least recently used
+		assertEquals(1, cache.getHits());
+		new Assembler(arch).assembleCached(names[2], false, cache);
+		assertTrue(Files.exists(files[0]));
+		assertFalse(Files.exists(files[1]));
+		assertTrue(Files.exists(files[2]));
+		assertEquals(18, cache.getSize());
+	}
+
+	@Test
+	public void testErrorNotCached() throws IOException {
+		Path directory = Files.createTempDirectory("cache");
+		AssemblyCache cache = new AssemblyCache(directory.resolve("cache").toString(), 1 << 20);
+		String name = source(directory, "program", "move %RPG0 &a\n");
+		new Assembler().assembleCached(name, false, cache);
+		assertFalse(new File(name + ".dxf").exists());
+		assertEquals(0, cache.getSize());
+	}
+
+}
@@ -0,0 +1,52 @@
+package assembler;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import architecture.Architecture;
+
+public class TestLexer {
+
+	private Lexer lexer = new Lexer(new Architecture().getCommandsList());
+
+	@Test
+	public void testTokens() {
+		String lines[] = {"", " ", "a", "a ", " a", "move  %RPG0", "move %RPG0 %RPG1 x y", "x:  "};
+		for (String line : lines) {
+			String tokens[] = line.split(" ");
+			lexer.lex(line);
+			assertEquals("'"+line+"'", tokens.length, lexer.count());
+			for (int i=0;i<Math.min(tokens.length, 3);i++)
+				assertEquals(tokens[i], lexer.text(i));
+		}
+	}
+
+	@Test
+	public void testCommands() {
+		String lines[] = {"move %RPG0 %RPG1", "move &a %RPG1", "move %RPG0 &a", "move -5 %RPG0", "add 7 %RPG2",
+				"imul 7 %RPG2", "move a %RPG0", "inc %RPG3", "incReg %RPG3", "jn loop", "jmp %RPG0"};
+		int codes[] = {8, 9, 10, 11, 3, -1, -1, 15, 15, 17, 16};
+		for (int i=0;i<lines.length;i++) {
+			lexer.lex(lines[i]);
+			assertTrue(lines[i], lexer.command());
+			assertEquals(lines[i], codes[i], lexer.getCode());
+			assertEquals(Integer.toString(codes[i]), lexer.getCodeText());
+		}
+		lexer.lex("jn loop");
+		lexer.command();
+		assertTrue(lexer.isJump());
+		assertEquals(1, lexer.getOperandsCount());
+	}
+
+	@Test
+	public void testNoCommand() {
+		//unknown commands and short forms without both operands give nothing
+		String lines[] = {"foo %RPG0", "move %RPG0", "move  %RPG0", "add %RPG0 ", " move %RPG0 %RPG1"};
+		for (String line : lines) {
+			lexer.lex(line);
+			assertFalse(line, lexer.command());
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package assembler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestLinker {
+
+	private static final String PROGRAM = "a\nmove 5 %RPG0\nmove %RPG0 &a\njmp square\nback:\nmove &a %RPG1\n";
+	private static final String LIBRARY = "r\nsquare:\nmove %RPG0 &r\nimul &r %RPG0\nmove %RPG0 &a\njmp back\n";
+
+	private String source(String text) throws IOException {
+		File file = File.createTempFile("linker", ".dsf");
+		try (FileWriter writer = new FileWriter(file)) {
+			writer.write(text);
+		}
+		return file.getPath().substring(0, file.getPath().length() - 4);
+	}
+
+	private String object(String text) throws IOException {
+		String name = source(text);
+		Assembler assembler = new Assembler();
+		assembler.read(name);
+		assembler.parse();
+		assembler.makeObject(name);
+		new File(name + ".dsf").delete();
+		return name;
+	}
+
+	private byte[] take(String filename) throws IOException {
+		byte bytes[] = Files.readAllBytes(new File(filename).toPath());
+		new File(filename).delete();
+		return bytes;
+	}
+
+	@Test
+	public void testSameAsOneSource() throws IOException {
+		String whole = source(PROGRAM + LIBRARY);
+		Assembler assembler = new Assembler();
+		assembler.read(whole);
+		assembler.parse();
+		assembler.makeExecutable(whole);
+		assembler.makeExecutable(whole, true);
+		new File(whole + ".dsf").delete();
+
+		String program = object(PROGRAM);
+		String library = object(LIBRARY);
+		Linker linker = new Linker();
+		linker.add(program);
+		linker.add(library);
+		String linked = source("");
+		linker.link(linked);
+		linker.link(linked, true);
+		assertArrayEquals(take(whole + ".dxf"), take(linked + ".dxf"));
+		assertArrayEquals(take(whole + ".dxb"), take(linked + ".dxb"));
+		new File(linked + ".dsf").delete();
+		new File(program + ObjectFile.EXTENSION).delete();
+		new File(library + ObjectFile.EXTENSION).delete();
+	}
+
+	@Test
+	public void testImportsAndExports() {
+		Assembler assembler = new Assembler();
+		assembler.setLines(new ArrayList<>(Arrays.asList(LIBRARY.split("\n"))));
+		assembler.parse();
+		ObjectFile object = assembler.toObject();
+		assertEquals(Arrays.asList("a", "back"), object.getImports());
+		assertEquals(Arrays.asList("square", "r"), object.getExports());
+		assertEquals(11, object.getSize());
+	}
+
+	@Test
+	public void testSaveAndRead() throws IOException {
+		Assembler assembler = new Assembler();
+		assembler.setLines(new ArrayList<>(Arrays.asList("x", "l:", "move 007 %RPG1", "move %XX &x", "jmp l")));
+		assembler.parse();
+		ObjectFile object = assembler.toObject();
+		ObjectFile read = ObjectFile.parse(ByteBuffer.wrap(object.toBytes()), "test");
+		assertEquals(object.getProgram().toList(), read.getProgram().toList());
+		assertEquals(object.getLabels(), read.getLabels());
+		assertEquals(object.getLabelsAddresses(), read.getLabelsAddresses());
+		assertEquals(object.getVariables(), read.getVariables());
+
+		byte bytes[] = object.toBytes();
+		bytes[8] ^= 1;
+		try {
+			ObjectFile.parse(ByteBuffer.wrap(bytes), "test");
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("checksum"));
+		}
+	}
+
+	private ObjectFile parsed(String text) {
+		Assembler assembler = new Assembler();
+		assembler.setLines(new ArrayList<>(Arrays.asList(text.split("\n"))));
+		assembler.parse();
+		return assembler.toObject();
+	}
+
+	@Test
+	public void testPrivateSymbols() {
+		//both objects declare the label loop and the variable i
+		Linker linker = new Linker();
+		linker.add(parsed("i\nmove 1 %RPG0\nloop:\nmove %RPG0 &i\njmp loop\n"));
+		linker.add(parsed("i\nloop:\nmove &i %RPG1\njmp loop\n"));
+		Assembler linked = linker.resolve();
+		linked.link();
+		int last = linked.getArch().getMemorySize() - 1;
+		//each jmp loop goes to its own loop (3 and 8), each &i is its own variable
+		assertEquals(Arrays.asList("11", "1", "0", "10", "0", Integer.toString(last), "16", "3",
+				"9", Integer.toString(last - 1), "1", "16", "8"), linked.getExecProgram());
+	}
+
+	@Test
+	public void testAmbiguousImport() {
+		Linker linker = new Linker();
+		linker.add(parsed("jmp loop\n"));
+		linker.add(parsed("loop:\njmp loop\n"));
+		linker.add(parsed("loop:\njmp loop\n"));
+		assertNull(linker.resolve()); //loop is declared by two objects
+	}
+
+	@Test
+	public void testUnresolved() throws IOException {
+		String library = object(LIBRARY);
+		Linker linker = new Linker();
+		linker.add(library);
+		String linked = source("");
+		linker.link(linked);
+		assertFalse(new File(linked + ".dxf").exists()); //a and back are not declared
+		new File(linked + ".dsf").delete();
+		new File(library + ObjectFile.EXTENSION).delete();
+	}
+
+}
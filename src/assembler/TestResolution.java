@@ -0,0 +1,80 @@
+package assembler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestResolution {
+
+	private Assembler assemble(String... source) {
+		Assembler assembler = new Assembler();
+		assembler.setLines(new ArrayList<>(Arrays.asList(source)));
+		assembler.parse();
+		assertTrue(assembler.checkLabels());
+		assembler.setExecProgram(new ArrayList<>(assembler.getObjProgram()));
+		assembler.resolveSymbols();
+		assembler.replaceRegisters();
+		return assembler;
+	}
+
+	@Test
+	public void testResolveSymbols() {
+		Assembler assembler = assemble("a", "b", "a", "x", "x:", "move %RPG0 &a", "move %RPG1 &b",
+				"loop:", "jn loop", "jmp x", "loop:", "jmp loop");
+		ArrayList<String> exec = assembler.getExecProgram();
+		int last = assembler.getArch().getMemorySize() - 1;
+		//moveRegMem 0 a, moveRegMem 1 b, jn loop, jmp x (the variable), jmp loop (the first one)
+		assertEquals(Arrays.asList("10", "0", Integer.toString(last), "10", "1", Integer.toString(last - 1),
+				"17", "6", "16", Integer.toString(last - 3), "16", "6"), exec);
+	}
+
+	@Test
+	public void testSamePassesAsBefore() {
+		String source[] = {"a", "b", "move 3 %RPG0", "l:", "move %RPG0 &b", "add &a %RPG1", "jn l"};
+		Assembler single = assemble(source);
+		Assembler separate = new Assembler();
+		separate.setLines(new ArrayList<>(Arrays.asList(source)));
+		separate.parse();
+		separate.setExecProgram(new ArrayList<>(separate.getObjProgram()));
+		separate.replaceAllVariables();
+		separate.replaceLabels();
+		separate.replaceRegisters();
+		assertEquals(separate.getExecProgram(), single.getExecProgram());
+	}
+
+	@Test
+	public void testLink() {
+		String source[] = {"a", "b", "a", "x", "x:", "move %RPG0 &a", "move 007 %RPG1", "move -5 %XX",
+				"loop:", "jn loop", "jmp x", "add &b %RPG2"};
+		Assembler linked = new Assembler();
+		linked.setLines(new ArrayList<>(Arrays.asList(source)));
+		linked.parse();
+		assertEquals(Arrays.asList("10", "%RPG0", "&a", "11", "007", "%RPG1", "11", "-5", "%XX", "17", "&loop",
+				"16", "&x", "1", "&b", "%RPG2"), linked.getObjProgram());
+		linked.link();
+		assertEquals(assemble(source).getExecProgram(), linked.getExecProgram());
+		assertEquals("-1", linked.getExecProgram().get(8)); //an unknown register
+		assertEquals("007", linked.getExecProgram().get(4)); //written as it is
+	}
+
+	@Test
+	public void testObjProgramIsACopy() {
+		Assembler assembler = new Assembler();
+		assembler.setLines(new ArrayList<>(Arrays.asList("jmp l", "l:")));
+		assembler.parse();
+		assembler.getObjProgram().clear();
+		assertEquals(Arrays.asList("16", "&l"), assembler.getObjProgram());
+	}
+
+	@Test
+	public void testUndeclared() {
+		Assembler assembler = new Assembler();
+		assembler.setLines(new ArrayList<>(Arrays.asList("a", "move %RPG0 &c")));
+		assembler.parse();
+		assertFalse(assembler.checkLabels());
+	}
+
+}
@@ -0,0 +1,48 @@
+package assembler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class TestStreaming {
+
+	private String source(String text) throws IOException {
+		File file = File.createTempFile("streaming", ".dsf");
+		try (FileWriter writer = new FileWriter(file)) {
+			writer.write(text);
+		}
+		return file.getPath().substring(0, file.getPath().length() - 4);
+	}
+
+	@Test
+	public void testSameExecutable() throws IOException {
+		//forward references, a name that is a label and a variable, an empty line (a variable)
+		String name = source("a\nx\na\nmove %RPG0 &a\njn end\n\nx:\nadd &x %RPG1\nend:\nmove 3 %RPG3\njmp x\n");
+		Assembler assembler = new Assembler();
+		assembler.read(name);
+		assembler.parse();
+		assembler.makeExecutable(name);
+		byte expected[] = Files.readAllBytes(new File(name + ".dxf").toPath());
+		new File(name + ".dxf").delete();
+
+		new Assembler().assembleStreaming(name);
+		assertArrayEquals(expected, Files.readAllBytes(new File(name + ".dxf").toPath()));
+		new File(name + ".dxf").delete();
+		new File(name + ".dsf").delete();
+	}
+
+	@Test
+	public void testUndeclared() throws IOException {
+		String name = source("move %RPG0 &a\njn end\n");
+		new Assembler().assembleStreaming(name);
+		assertFalse(new File(name + ".dxf").exists());
+		assertFalse(new File(name + ".dxf.tmp").exists());
+		new File(name + ".dsf").delete();
+	}
+
+}
@@ -0,0 +1,39 @@
+package components;
+
+/**
+ * The dense backend: all the words in an int array in the heap
+ */
+public class ArrayMemory implements MemoryBackend {
+
+	private int data[];
+
+	public ArrayMemory(int size) {
+		data = new int[size]; //the words start with zero
+	}
+
+	@Override
+	public int size() {
+		return data.length;
+	}
+
+	@Override
+	public int get(int position) {
+		return data[position];
+	}
+
+	@Override
+	public void set(int position, int value) {
+		data[position] = value;
+	}
+
+	@Override
+	public void load(int position, int words[], int from, int count) {
+		System.arraycopy(words, from, data, position, count);
+	}
+
+	@Override
+	public int[] array() {
+		return data;
+	}
+
+}
@@ -3,6 +3,7 @@ package components;
 public class Bus {
 	
 	private int data;
+	private long transfers; //how many data were put into the bus
 	
 	
 	
@@ -16,6 +17,7 @@ public class Bus {
 	 */
 	public void put(int data){
 		this.data = data;
+		transfers++;
 	}
 	
 	/**
@@ -26,5 +28,12 @@ public class Bus {
 		return this.data;
 		
 	}
+	
+	/**
+	 * @return how many data were put into the bus (a performance counter)
+	 */
+	public long getTransfers() {
+		return transfers;
+	}
 
 }
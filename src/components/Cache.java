@@ -0,0 +1,181 @@
+package components;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class models one level of a cache (see CacheHierarchy): it keeps only the
+ * tags of the lines, not the data (the words are always in the memory), so it
+ * counts the hits, misses, evictions and write-backs the accesses would have.
+ *
+ * The write-back policy allocates the line on a write miss and writes it to the
+ * next level only when it is evicted dirty; the write-through policy writes every
+ * store to the next level and does not allocate on a write miss.
+ */
+public class Cache {
+
+	public enum WritePolicy {
+		WRITE_BACK,
+		WRITE_THROUGH
+	}
+
+	public enum Replacement {
+		LRU,
+		FIFO,
+		RANDOM
+	}
+
+	private String name;
+	private int lineSize;
+	private int sets;
+	private int ways;
+	private int latency;
+	private WritePolicy writePolicy;
+	private Replacement replacement;
+	private int tags[]; //[set * ways + way], -1 when the way is empty
+	private boolean dirty[];
+	private long stamps[]; //the last use (LRU) or the fill (FIFO)
+	private long clock;
+	private Random random;
+	private Cache next; //null: the memory is the next level
+	private CacheHierarchy hierarchy;
+	private long accesses;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long writeBacks;
+
+	/**
+	 * @param name as L1 or L2
+	 * @param size in words
+	 * @param ways the associativity (1 is direct mapped, size/lineSize is fully associative)
+	 * @param lineSize in words
+	 * @param latency the cycles of an access to this level
+	 * @param writePolicy
+	 * @param replacement
+	 */
+	public Cache(String name, int size, int ways, int lineSize, int latency, WritePolicy writePolicy, Replacement replacement) {
+		if (size <= 0 || ways <= 0 || lineSize <= 0 || size % (ways * lineSize) != 0)
+			throw new IllegalArgumentException("The size of "+name+" must be a multiple of ways * lineSize");
+		this.name = name;
+		this.lineSize = lineSize;
+		this.ways = ways;
+		this.sets = size / (ways * lineSize);
+		this.latency = latency;
+		this.writePolicy = writePolicy;
+		this.replacement = replacement;
+		tags = new int[sets * ways];
+		Arrays.fill(tags, -1);
+		dirty = new boolean[sets * ways];
+		stamps = new long[sets * ways];
+		random = new Random(0); //the same choices in every run
+	}
+
+	void link(CacheHierarchy hierarchy, Cache next) {
+		this.hierarchy = hierarchy;
+		this.next = next;
+	}
+
+	/**
+	 * This method models an access to a word
+	 * @param address
+	 * @param write
+	 */
+	void access(int address, boolean write) {
+		accesses++;
+		int line = address / lineSize;
+		int base = (line % sets) * ways;
+		int tag = line / sets;
+		for (int way=base;way<base+ways;way++) {
+			if (tags[way] == tag) {
+				hits++;
+				if (replacement == Replacement.LRU)
+					stamps[way] = ++clock;
+				if (write) {
+					if (writePolicy == WritePolicy.WRITE_BACK)
+						dirty[way] = true;
+					else
+						nextAccess(address, true);
+				}
+				return;
+			}
+		}
+		misses++;
+		if (write && writePolicy == WritePolicy.WRITE_THROUGH) { //no allocation
+			nextAccess(address, true);
+			return;
+		}
+		int victim = victim(base);
+		if (tags[victim] >= 0) {
+			evictions++;
+			if (dirty[victim]) {
+				writeBacks++;
+				nextAccess((tags[victim] * sets + line % sets) * lineSize, true);
+			}
+		}
+		nextAccess(address, false); //the line is filled from the next level
+		tags[victim] = tag;
+		dirty[victim] = write;
+		stamps[victim] = ++clock;
+	}
+
+	private int victim(int base) {
+		for (int way=base;way<base+ways;way++)
+			if (tags[way] < 0)
+				return way;
+		if (replacement == Replacement.RANDOM)
+			return base + random.nextInt(ways);
+		int oldest = base;
+		for (int way=base+1;way<base+ways;way++)
+			if (stamps[way] < stamps[oldest])
+				oldest = way;
+		return oldest;
+	}
+
+	private void nextAccess(int address, boolean write) {
+		if (next != null)
+			next.access(address, write);
+		else
+			hierarchy.memoryAccess();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getLatency() {
+		return latency;
+	}
+
+	public long getAccesses() {
+		return accesses;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public long getWriteBacks() {
+		return writeBacks;
+	}
+
+	/**
+	 * This method empties the cache and clears its counters
+	 */
+	public void reset() {
+		Arrays.fill(tags, -1);
+		Arrays.fill(dirty, false);
+		clock = 0;
+		random = new Random(0);
+		accesses = hits = misses = evictions = writeBacks = 0;
+	}
+
+}
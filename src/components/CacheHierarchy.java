@@ -0,0 +1,110 @@
+package components;
+
+import java.util.ArrayList;
+
+/**
+ * This class is the cache model between the external bus and the memory: the
+ * levels (L1, L2, ...) in the order they are added and the memory after the last one.
+ * The memory consults it only when it was set (see Memory.setCache), so without
+ * a cache the reads and stores cost nothing more.
+ *
+ * The estimated cycles are the latency of each level times its accesses plus the
+ * memory latency times the memory accesses (line fills and writes).
+ */
+public class CacheHierarchy {
+
+	private ArrayList<Cache> levels;
+	private int memoryLatency;
+	private long memoryAccesses;
+
+	/**
+	 * @param memoryLatency the cycles of an access to the memory
+	 */
+	public CacheHierarchy(int memoryLatency) {
+		this.levels = new ArrayList<Cache>();
+		this.memoryLatency = memoryLatency;
+	}
+
+	/**
+	 * This method adds a level after the ones already added
+	 * @param level
+	 */
+	public void addLevel(Cache level) {
+		level.link(this, null);
+		if (!levels.isEmpty())
+			levels.get(levels.size() - 1).link(this, level);
+		levels.add(level);
+	}
+
+	public ArrayList<Cache> getLevels() {
+		return levels;
+	}
+
+	void read(int address) {
+		if (levels.isEmpty())
+			memoryAccess();
+		else
+			levels.get(0).access(address, false);
+	}
+
+	void write(int address) {
+		if (levels.isEmpty())
+			memoryAccess();
+		else
+			levels.get(0).access(address, true);
+	}
+
+	void memoryAccess() {
+		memoryAccesses++;
+	}
+
+	public long getMemoryAccesses() {
+		return memoryAccesses;
+	}
+
+	public int getMemoryLatency() {
+		return memoryLatency;
+	}
+
+	/**
+	 * @return the estimated cycles spent in the memory accesses
+	 */
+	public long getCycles() {
+		long cycles = memoryAccesses * memoryLatency;
+		for (Cache level : levels)
+			cycles += level.getAccesses() * level.getLatency();
+		return cycles;
+	}
+
+	/**
+	 * @return the estimated cycles beyond the ones of a first level that never misses
+	 */
+	public long getPenalty() {
+		if (levels.isEmpty())
+			return getCycles();
+		Cache first = levels.get(0);
+		return getCycles() - first.getAccesses() * first.getLatency();
+	}
+
+	public void reset() {
+		for (Cache level : levels)
+			level.reset();
+		memoryAccesses = 0;
+	}
+
+	/**
+	 * A table with one line per level, the memory and the estimated cycles
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("%-8s %12s %12s %12s %12s %12s%n", "level", "accesses", "hits", "misses", "evictions", "write-backs"));
+		for (Cache level : levels)
+			text.append(String.format("%-8s %12d %12d %12d %12d %12d%n", level.getName(), level.getAccesses(),
+					level.getHits(), level.getMisses(), level.getEvictions(), level.getWriteBacks()));
+		text.append(String.format("%-8s %12d%n", "memory", memoryAccesses));
+		text.append(String.format("cycles %d (penalty %d)%n", getCycles(), getPenalty()));
+		return text.toString();
+	}
+
+}
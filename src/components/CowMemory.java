@@ -0,0 +1,64 @@
+package components;
+
+/**
+ * This backend starts with the words of a MemoryImage, shared with other memories,
+ * and copies a page of the image only at the first write into it.
+ * So many runs forked from the same loaded program use only the memory of
+ * the pages each one writes.
+ */
+public class CowMemory implements MemoryBackend {
+
+	private static final int PAGE_BITS = MemoryImage.PAGE_BITS;
+	private static final int OFFSET_MASK = MemoryImage.OFFSET_MASK;
+
+	private MemoryImage image;
+	private int pages[][]; //the pages already copied (null: still the one of the image)
+
+	public CowMemory(MemoryImage image) {
+		this.image = image;
+		pages = new int[(int) (((long) image.size() + MemoryImage.PAGE_SIZE - 1) >> PAGE_BITS)][];
+	}
+
+	public MemoryImage getImage() {
+		return image;
+	}
+
+	@Override
+	public int size() {
+		return image.size();
+	}
+
+	@Override
+	public int get(int position) {
+		int page[] = pages[position >>> PAGE_BITS];
+		if (page == null)
+			return image.get(position);
+		return page[position & OFFSET_MASK];
+	}
+
+	@Override
+	public void set(int position, int value) {
+		int index = position >>> PAGE_BITS;
+		int page[] = pages[index];
+		if (page == null) {
+			if (image.get(position) == value) //nothing changes
+				return;
+			int shared[] = image.getPage(index);
+			page = (shared == null) ? new int[MemoryImage.pageLength(image.size(), index)] : shared.clone();
+			pages[index] = page;
+		}
+		page[position & OFFSET_MASK] = value;
+	}
+
+	/**
+	 * @return how many pages were copied (the ones written)
+	 */
+	public int getCopiedPages() {
+		int copied = 0;
+		for (int page[] : pages)
+			if (page != null)
+				copied++;
+		return copied;
+	}
+
+}
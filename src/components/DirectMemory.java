@@ -0,0 +1,50 @@
+package components;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * This backend keeps the words out of the heap, in a direct buffer, so
+ * address spaces of millions of words do not weigh on the garbage collector.
+ * A direct buffer has at most Integer.MAX_VALUE bytes, so the size is limited
+ * to MAX_SIZE words
+ */
+public class DirectMemory implements MemoryBackend {
+
+	public static final int MAX_SIZE = Integer.MAX_VALUE / Integer.BYTES;
+
+	private IntBuffer data;
+	private int size;
+
+	public DirectMemory(int size) {
+		if (size < 0 || size > MAX_SIZE)
+			throw new IllegalArgumentException("A direct memory has from 0 to "+MAX_SIZE+" words");
+		this.size = size;
+		//the direct buffers start with zero
+		data = ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int position) {
+		return data.get(position);
+	}
+
+	@Override
+	public void set(int position, int value) {
+		data.put(position, value);
+	}
+
+	@Override
+	public void load(int position, int words[], int from, int count) {
+		IntBuffer target = data.duplicate(); //the position of the shared buffer is not changed
+		target.position(position);
+		target.put(words, from, count);
+	}
+
+}
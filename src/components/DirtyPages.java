@@ -0,0 +1,80 @@
+package components;
+
+import java.util.Arrays;
+
+/**
+ * This class marks the pages (of PAGE_SIZE words, 4096) of a memory written
+ * since the last checkpoint, one bit per page, so a checkpoint visits only the
+ * pages changed: its cost follows the writes, not the memory size.
+ */
+public class DirtyPages {
+
+	public static final int PAGE_BITS = PagedMemory.PAGE_BITS;
+	public static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	private long bits[];
+	private int pages;
+
+	/**
+	 * @param size of the memory
+	 */
+	public DirtyPages(int size) {
+		pages = (int) (((long) size + PAGE_SIZE - 1) >> PAGE_BITS);
+		bits = new long[(pages + Long.SIZE - 1) / Long.SIZE];
+	}
+
+	/**
+	 * This method marks the page of the address as written
+	 * @param address
+	 */
+	public void mark(int address) {
+		int page = address >>> PAGE_BITS;
+		bits[page >>> 6] |= 1L << page;
+	}
+
+	public boolean isDirty(int page) {
+		return (bits[page >>> 6] & (1L << page)) != 0;
+	}
+
+	/**
+	 * @param from
+	 * @return the first dirty page from the page given or -1 if there is none
+	 */
+	public int next(int from) {
+		if (from >= pages)
+			return -1;
+		int word = from >>> 6;
+		long current = bits[word] & (-1L << from);
+		while (current == 0) {
+			if (++word == bits.length)
+				return -1;
+			current = bits[word];
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(current);
+	}
+
+	/**
+	 * @return how many pages are dirty
+	 */
+	public int count() {
+		int count = 0;
+		for (long word : bits)
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * @return the amount of pages of the memory
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	/**
+	 * This method starts a new checkpoint: no page is dirty
+	 */
+	public void clear() {
+		Arrays.fill(bits, 0);
+	}
+
+}
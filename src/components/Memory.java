@@ -1,43 +1,221 @@
 package components;
 
+import java.util.function.IntConsumer;
+
 public class Memory {
 	
 	private Bus bus;
 	private int storePosition; //this value indicates that the memory has read an
 					// address and is waiting for a data to be storesd in this position
 	private int size;
-	private int dataList[];
+	private MemoryBackend backend; //where the words are kept
+	private IntConsumer storeListener; //informed about every position written (optional)
+	private Watchpoints watchpoints; //null when there is none to check
+	private CacheHierarchy cache; //the cache model (optional)
+	private DirtyPages dirtyPages; //the pages written since the last checkpoint
+	private OutputDevice outputDevice; //receives the stores into its ports (optional)
+	private long reads; //performance counters: how many times read() and store() were called
+	private long stores;
 	
 	public Memory(int size, Bus bus) {
+		this(new ArrayMemory(size), bus);
+	}
+	
+	/**
+	 * Creates the memory over any backend (see MemoryBackend)
+	 * @param backend
+	 * @param bus
+	 */
+	public Memory(MemoryBackend backend, Bus bus) {
 		storePosition = -1; //negative values indicates the memory is not storing
-		this.size = size;
-		dataList = new int[size];
+		this.backend = backend;
+		this.size = backend.size();
 		this.bus = bus;
-		for (int i=0;i<size;i++) {
-			dataList[i] = 0;
-		}
+		this.dirtyPages = new DirtyPages(size);
 	}
 
 	/**
-	 * This method is used for TDD and Simulation purposes only
-	 * NOT TESTED
+	 * This method is used for TDD and Simulation purposes and by the fast engines.
+	 * Only the dense backend (ArrayMemory) has the words in an array
 	 * @return
+	 * @throws UnsupportedOperationException if the backend is not dense
 	 */
 	public int[] getDataList() {
+		int dataList[] = backend.array();
+		if (dataList == null)
+			throw new UnsupportedOperationException("The memory backend has no array");
 		return dataList;
 	}
+	
+	/**
+	 * @return true if the words are in an array (see getDataList)
+	 */
+	public boolean isDense() {
+		return backend.array() != null;
+	}
+	
+	public MemoryBackend getBackend() {
+		return backend;
+	}
+	
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * This method reads a word without the bus
+	 * @param position must be inside the memory
+	 * @return
+	 */
+	public int getData(int position) {
+		return backend.get(position);
+	}
+	
+	/**
+	 * This method writes a word without the bus (the store listener is informed)
+	 * @param position must be inside the memory
+	 * @param value
+	 */
+	public void setData(int position, int value) {
+		backend.set(position, value);
+		dirtyPages.mark(position);
+		if (storeListener != null)
+			storeListener.accept(position);
+	}
+
+	/**
+	 * This method writes a block of words without the bus: the loaders copy the
+	 * whole program at once instead of two store() per word.
+	 * The store listener is informed about every position written
+	 * @param position of the first word
+	 * @param words
+	 * @param from the first index in words
+	 * @param count
+	 * @throws IndexOutOfBoundsException if the block does not fit in the memory
+	 */
+	public void load(int position, int words[], int from, int count) {
+		if (position < 0 || count < 0 || (long) position + count > size)
+			throw new IndexOutOfBoundsException("The block of "+count+" words at "+position+" does not fit in the memory ("+size+" words)");
+		backend.load(position, words, from, count);
+		for (int page=position;page<position+count;page+=DirtyPages.PAGE_SIZE)
+			dirtyPages.mark(page);
+		if (count > 0)
+			dirtyPages.mark(position + count - 1);
+		if (storeListener != null)
+			for (int i=0;i<count;i++)
+				storeListener.accept(position + i);
+	}
 
+	/**
+	 * This method registers who must be informed about the positions written by store()
+	 * (i.e. the decoded instructions cache). Null removes the listener
+	 * @param storeListener
+	 */
+	public void setStoreListener(IntConsumer storeListener) {
+		this.storeListener = storeListener;
+	}
+	
+	/**
+	 * This method sets the watchpoints checked by read() and store(). Null removes them
+	 * @param watchpoints
+	 */
+	public void setWatchpoints(Watchpoints watchpoints) {
+		this.watchpoints = watchpoints;
+	}
+	
+	public Watchpoints getWatchpoints() {
+		return watchpoints;
+	}
+	
+	/**
+	 * This method sets the cache model informed about the reads and stores. Null removes it
+	 * @param cache
+	 */
+	public void setCache(CacheHierarchy cache) {
+		this.cache = cache;
+	}
+	
+	public CacheHierarchy getCache() {
+		return cache;
+	}
+	
+	/**
+	 * The pages written since the last checkpoint. Who writes into the array of the
+	 * memory (see getDataList) must mark them too
+	 * @return
+	 */
+	public DirtyPages getDirtyPages() {
+		return dirtyPages;
+	}
+	
+	/**
+	 * This method maps an output device: the stores into its ports go to the device.
+	 * Null removes it
+	 * @param outputDevice
+	 */
+	public void setOutputDevice(OutputDevice outputDevice) {
+		this.outputDevice = outputDevice;
+	}
+	
+	public OutputDevice getOutputDevice() {
+		return outputDevice;
+	}
+	
+	public long getReads() {
+		return reads;
+	}
+	
+	public long getStores() {
+		return stores;
+	}
+	
+	/**
+	 * This method informs if the memory has already received an address
+	 * and is waiting for the data to be stored in it
+	 * @return
+	 */
+	public boolean isStoring() {
+		return storePosition >= 0;
+	}
+	
+	/**
+	 * This method returns the position waiting for a data (negative if the memory is not storing).
+	 * It is used to save and restore the machine state
+	 * @return
+	 */
+	public int getStorePosition() {
+		return storePosition;
+	}
+	
+	public void setStorePosition(int storePosition) {
+		this.storePosition = storePosition;
+	}
+	
 	/**
 	 * This method stores into position the data found in the bus
 	 * @param position
 	 */
 	public void store() {
+		stores++;
 		if (storePosition < 0) { //the storing is just starting
 			this.storePosition = bus.get();
 		}
+		else if (outputDevice != null && outputDevice.contains(storePosition)) {
+			int position = storePosition;
+			storePosition = -1;
+			outputDevice.write(position, bus.get()); //the memory word is not changed
+		}
 		else {//the storing was initiated, in the bus is the data
-			this.dataList[storePosition] = bus.get();
-			storePosition = -1; //no storing is being performed anymore
+			int position = storePosition;
+			storePosition = -1; //no storing is being performed anymore (even if a watchpoint aborts it)
+			if (watchpoints != null)
+				watchpoints.write(position, backend.get(position), bus.get());
+			backend.set(position, bus.get());
+			dirtyPages.mark(position);
+			if (cache != null)
+				cache.write(position);
+			if (storeListener != null)
+				storeListener.accept(position);
 		}
 	}
 	
@@ -46,8 +224,15 @@ public class Memory {
 	 * @param position
 	 */
 	public void read() {
-		if ((bus.get() < size)&&(bus.get() >=0))
-			bus.put(dataList[bus.get()]);
+		reads++;
+		if ((bus.get() < size)&&(bus.get() >=0)) {
+			int position = bus.get();
+			bus.put(backend.get(position));
+			if (cache != null)
+				cache.read(position);
+			if (watchpoints != null)
+				watchpoints.read(position, bus.get());
+		}
 	}
 
 
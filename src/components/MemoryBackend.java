@@ -0,0 +1,42 @@
+package components;
+
+/**
+ * This interface is the storage of the Memory words.
+ * The Memory component keeps the bus protocol (read, store and the pending
+ * store position); the backend only keeps the values, so the same architecture
+ * can run over a plain array, an off-heap buffer or a sparse paged space.
+ * The positions given are always inside the size.
+ */
+public interface MemoryBackend {
+
+	/**
+	 * @return the amount of words
+	 */
+	int size();
+
+	int get(int position);
+
+	void set(int position, int value);
+
+	/**
+	 * This method writes many words at once (the backends may copy them in bulk)
+	 * @param position of the first word
+	 * @param words
+	 * @param from the first index in words
+	 * @param count
+	 */
+	default void load(int position, int words[], int from, int count) {
+		for (int i=0;i<count;i++)
+			set(position + i, words[from + i]);
+	}
+
+	/**
+	 * The dense backend gives its array, so the fast engines can work directly over it
+	 * (over the other backends they use get and set)
+	 * @return the array with all the words or null if the backend has no such array
+	 */
+	default int[] array() {
+		return null;
+	}
+
+}
@@ -0,0 +1,103 @@
+package components;
+
+/**
+ * This class is an immutable copy of the words of a memory (for instance, just
+ * after a program was loaded), kept in pages of 4096 words (PAGE_SIZE, as the ones of PagedMemory).
+ * Many CowMemory backends share the same image: each one copies a page only when
+ * it writes into it. The pages of zeros are not kept.
+ */
+public class MemoryImage {
+
+	static final int PAGE_BITS = PagedMemory.PAGE_BITS;
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+	static final int OFFSET_MASK = PAGE_SIZE - 1;
+
+	private final int pages[][];
+	private final int size;
+
+	/**
+	 * Copies the current words of the memory
+	 * @param memory
+	 */
+	public MemoryImage(Memory memory) {
+		this(memory.getBackend());
+	}
+
+	/**
+	 * Copies the current words of the backend
+	 * @param backend
+	 */
+	public MemoryImage(MemoryBackend backend) {
+		size = backend.size();
+		pages = new int[(int) (((long) size + PAGE_SIZE - 1) >> PAGE_BITS)][];
+		for (int p=0;p<pages.length;p++) {
+			int start = p << PAGE_BITS;
+			int end = (int) Math.min((long) start + PAGE_SIZE, size);
+			int page[] = null;
+			for (int position=start;position<end;position++) {
+				int value = backend.get(position);
+				if (value != 0) {
+					if (page == null)
+						page = new int[pageLength(size, p)];
+					page[position - start] = value;
+				}
+			}
+			pages[p] = page;
+		}
+	}
+
+	/**
+	 * The last page is cut at the memory size, so a small memory does not take a whole page
+	 * @param size the memory size
+	 * @param index of the page
+	 * @return the words of the page
+	 */
+	static int pageLength(int size, int index) {
+		return (int) Math.min(PAGE_SIZE, (long) size - ((long) index << PAGE_BITS));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int get(int position) {
+		int page[] = pages[position >>> PAGE_BITS];
+		if (page == null)
+			return 0;
+		return page[position & OFFSET_MASK];
+	}
+
+	/**
+	 * This method writes the words of the image into a backend of the same size
+	 * (only the pages with some word not zero: the backend must start with zeros)
+	 * @param backend
+	 */
+	public void copyTo(MemoryBackend backend) {
+		for (int p=0;p<pages.length;p++) {
+			if (pages[p] == null)
+				continue;
+			int start = p << PAGE_BITS;
+			backend.load(start, pages[p], 0, pages[p].length);
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return the page, which must not be changed, or null if it has only zeros
+	 */
+	int[] getPage(int index) {
+		return pages[index];
+	}
+
+	/**
+	 * @return how many pages are kept (the ones with some word not zero)
+	 */
+	public int getStoredPages() {
+		int stored = 0;
+		for (int page[] : pages)
+			if (page != null)
+				stored++;
+		return stored;
+	}
+
+}
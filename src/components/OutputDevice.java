@@ -0,0 +1,219 @@
+package components;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is an output device mapped into a range of the memory addresses
+ * (see Memory.setOutputDevice): the stores into its ports do not reach the memory
+ * words, they are put into a ring buffer and a consumer thread writes them in
+ * batches into a stream (a file or the standard output).
+ *   base + NUMBER: the value is written in decimal, followed by a line break
+ *   base + CHAR:   the lowest byte of the value is written as it is
+ * The ring buffer has a single producer (the execution) and a single consumer,
+ * so it needs no locks: each side only moves its own index. When the buffer is
+ * full the execution waits for the consumer; when it is empty the consumer is
+ * parked until the execution writes again (or the device is closed).
+ */
+public class OutputDevice implements Closeable {
+
+	public static final int NUMBER = 0;
+	public static final int CHAR = 1;
+	public static final int PORTS = 2;
+
+	private static final int CAPACITY = 1 << 16; //entries of the ring buffer
+	private static final int MASK = CAPACITY - 1;
+	private static final int BATCH = 1 << 13; //bytes written at once
+
+	private int base;
+	private OutputStream out;
+	private boolean ownStream; //the stream was opened here, so it is closed here
+	private int ring[]; //[port, value] pairs
+	private volatile long head; //the next entry the consumer reads
+	private volatile long tail; //the next entry the producer writes
+	private long cachedHead; //the producer reads head only when the buffer seems full
+	private volatile boolean closing;
+	private volatile boolean sleeping; //the consumer is parked (or about to be) until the producer unparks it
+	private volatile IOException error; //the first error of the consumer thread
+	private Thread consumer;
+	private long written; //how many stores were received
+
+	/**
+	 * @param base the first address of the device
+	 * @param out where the output goes (it is flushed, but not closed, by close())
+	 */
+	public OutputDevice(int base, OutputStream out) {
+		this.base = base;
+		this.out = out;
+		this.ring = new int[2 * CAPACITY];
+		this.consumer = new Thread(this::drain, "output device");
+		this.consumer.setDaemon(true);
+		this.consumer.start();
+	}
+
+	/**
+	 * @param base the first address of the device
+	 * @param filename the file created for the output
+	 * @throws IOException
+	 */
+	public OutputDevice(int base, String filename) throws IOException {
+		this(base, new FileOutputStream(filename));
+		ownStream = true;
+	}
+
+	public int getBase() {
+		return base;
+	}
+
+	/**
+	 * @param address
+	 * @return true if the address is one of the ports of the device
+	 */
+	public boolean contains(int address) {
+		return address >= base && address - base < PORTS;
+	}
+
+	/**
+	 * @return how many stores the device received
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * This method receives a store into one of the ports (only from the execution thread)
+	 * @param address
+	 * @param value
+	 * @throws IllegalStateException if the device was closed
+	 */
+	public void write(int address, int value) {
+		if (closing)
+			throw new IllegalStateException("The output device is closed");
+		long t = tail;
+		if (t - cachedHead == CAPACITY) {
+			cachedHead = head;
+			while (t - cachedHead == CAPACITY) { //full: waits for the consumer
+				if (!consumer.isAlive())
+					throw new IllegalStateException("The output device is closed");
+				Thread.onSpinWait();
+				Thread.yield();
+				cachedHead = head;
+			}
+		}
+		int index = (int) (t & MASK) << 1;
+		ring[index] = address - base;
+		ring[index + 1] = value;
+		tail = t + 1; //publishes the entry
+		written++;
+		if (sleeping)
+			LockSupport.unpark(consumer);
+	}
+
+	/**
+	 * The consumer thread: converts the entries into bytes and writes them in batches
+	 */
+	private void drain() {
+		byte batch[] = new byte[BATCH + 12];
+		int length = 0;
+		while (true) {
+			long h = head;
+			long t = tail;
+			if (h == t) {
+				length = flush(batch, length);
+				if (closing && h == tail)
+					return;
+				sleeping = true;
+				if (h == tail) //the producer wrote nothing after the check: it will unpark this thread
+					LockSupport.park(this);
+				sleeping = false;
+				continue;
+			}
+			for (;h<t;h++) {
+				int index = (int) (h & MASK) << 1;
+				int value = ring[index + 1];
+				if (ring[index] == CHAR)
+					batch[length++] = (byte) value;
+				else {
+					length = decimal(batch, length, value);
+					batch[length++] = '\n';
+				}
+				if (length >= BATCH)
+					length = write(batch, length);
+			}
+			head = t; //the entries can be used again
+		}
+	}
+
+	private int write(byte batch[], int length) {
+		if (error == null) {
+			try {
+				out.write(batch, 0, length);
+			}
+			catch (IOException e) {
+				error = e; //reported by close()
+			}
+		}
+		return 0;
+	}
+
+	private int flush(byte batch[], int length) {
+		if (length > 0)
+			length = write(batch, length);
+		if (error == null) {
+			try {
+				out.flush();
+			}
+			catch (IOException e) {
+				error = e;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Writes the number in decimal, without creating a String
+	 * @return the new length
+	 */
+	private static int decimal(byte batch[], int length, int value) {
+		long number = value;
+		if (number < 0) {
+			batch[length++] = '-';
+			number = -number;
+		}
+		long divisor = 1;
+		while (divisor <= number / 10)
+			divisor *= 10;
+		for (;divisor>0;divisor/=10)
+			batch[length++] = (byte) ('0' + number / divisor % 10);
+		return length;
+	}
+
+	/**
+	 * This method waits until all the output is written
+	 * @throws IOException the first error of the consumer thread
+	 */
+	@Override
+	public void close() throws IOException {
+		closing = true;
+		LockSupport.unpark(consumer);
+		boolean interrupted = false;
+		while (consumer.isAlive()) {
+			try {
+				consumer.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (ownStream)
+			out.close();
+		if (error != null)
+			throw error;
+	}
+
+}
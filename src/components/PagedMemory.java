@@ -0,0 +1,61 @@
+package components;
+
+/**
+ * This backend divides a large address space into pages that are allocated
+ * only when a non zero word is stored in them, so a program that touches a few
+ * regions of a huge space uses only the memory of those regions.
+ * The words of the pages never written are zero.
+ */
+public class PagedMemory implements MemoryBackend {
+
+	public static final int PAGE_BITS = 12; //pages of 4096 words
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int OFFSET_MASK = PAGE_SIZE - 1;
+
+	private int pages[][];
+	private int size;
+
+	public PagedMemory(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("The memory size can not be negative");
+		this.size = size;
+		pages = new int[(int) (((long) size + PAGE_SIZE - 1) >> PAGE_BITS)][];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int position) {
+		int page[] = pages[position >>> PAGE_BITS];
+		if (page == null)
+			return 0;
+		return page[position & OFFSET_MASK];
+	}
+
+	@Override
+	public void set(int position, int value) {
+		int page[] = pages[position >>> PAGE_BITS];
+		if (page == null) {
+			if (value == 0) //the page is already zero
+				return;
+			page = new int[PAGE_SIZE];
+			pages[position >>> PAGE_BITS] = page;
+		}
+		page[position & OFFSET_MASK] = value;
+	}
+
+	/**
+	 * @return how many pages were allocated
+	 */
+	public int getAllocatedPages() {
+		int allocated = 0;
+		for (int page[] : pages)
+			if (page != null)
+				allocated++;
+		return allocated;
+	}
+
+}
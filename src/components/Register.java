@@ -9,6 +9,7 @@ public class Register {
 	
 	private int data;
 	private Bus busExt, busInt;
+	private long transfers; //how many times the data went from or to a bus
 	
 	/**
 	 * Default constructor
@@ -24,6 +25,15 @@ public class Register {
 		return data;
 	}
 	
+	/**
+	 * This method overwrites the register data without using any bus.
+	 * It is used by the fast execution engine to write back its register file
+	 * @param data
+	 */
+	public void setData(int data) {
+		this.data = data;
+	}
+	
 	/**
 	 * This special constructor is used to make Flags register
 	 * with special bits for special informations
@@ -41,10 +51,25 @@ public class Register {
 		this.busExt = bus;
 	}
 	
+	/**
+	 * @return how many times the data went from or to a bus (a performance counter).
+	 * setData is not a transfer
+	 */
+	public long getTransfers() {
+		return transfers;
+	}
+	
 	public String getRegisterName() {
 		return registerName;
 	}
 
+	/**
+	 * @return the amount of special bits (only the Flags register has them)
+	 */
+	public int getNumberOfBits() {
+		return numFlags;
+	}
+
 	/**
 	 * This method allows the UC or the ULA to access any special bit
 	 * @param pos
@@ -68,6 +93,7 @@ public class Register {
 	 * This method stores the data from the bus into this register
 	 */
 	public void store() {
+		transfers++;
 		data = busExt.get();
 	}
 	
@@ -75,6 +101,7 @@ public class Register {
 	 * This method reads the data from this register and stores it into the bus
 	 */
 	public void read() {
+		transfers++;
 		busExt.put(data);
 	}
 	
@@ -82,6 +109,7 @@ public class Register {
 	 * This method copies the data from this register to the internalbus
 	 */
 	public void internalRead() {
+		transfers++;
 		busInt.put(data);
 	}
 	
@@ -89,6 +117,7 @@ public class Register {
 	 * This method sopies the data from the internalbus to this register
 	 */
 	public void internalStore() {
+		transfers++;
 		data = busInt.get();
 	}
 
@@ -0,0 +1,111 @@
+package components;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestCache {
+
+	private CacheHierarchy single(int size, int ways, int lineSize, Cache.WritePolicy policy, Cache.Replacement replacement) {
+		CacheHierarchy cache = new CacheHierarchy(100);
+		cache.addLevel(new Cache("L1", size, ways, lineSize, 1, policy, replacement));
+		return cache;
+	}
+
+	@Test
+	public void testDirectMapped() {
+		CacheHierarchy cache = single(16, 1, 4, Cache.WritePolicy.WRITE_BACK, Cache.Replacement.LRU);
+		Cache l1 = cache.getLevels().get(0);
+		for (int i=0;i<8;i++) //2 lines: 1 miss and 3 hits each
+			cache.read(i);
+		assertEquals(2, l1.getMisses());
+		assertEquals(6, l1.getHits());
+		cache.read(16); //the same set of the address 0
+		cache.read(0);
+		assertEquals(4, l1.getMisses());
+		assertEquals(2, l1.getEvictions());
+		assertEquals(4, cache.getMemoryAccesses());
+		assertEquals(10 * 1 + 4 * 100, cache.getCycles());
+		assertEquals(4 * 100, cache.getPenalty());
+	}
+
+	@Test
+	public void testReplacement() {
+		//one set of 2 ways: 0, 4, 0, 8 -> LRU evicts 4, FIFO evicts 0
+		int addresses[] = {0, 4, 0, 8, 0};
+		CacheHierarchy lru = single(8, 2, 4, Cache.WritePolicy.WRITE_BACK, Cache.Replacement.LRU);
+		CacheHierarchy fifo = single(8, 2, 4, Cache.WritePolicy.WRITE_BACK, Cache.Replacement.FIFO);
+		CacheHierarchy random = single(8, 2, 4, Cache.WritePolicy.WRITE_BACK, Cache.Replacement.RANDOM);
+		for (int address : addresses) {
+			lru.read(address);
+			fifo.read(address);
+			random.read(address);
+		}
+		assertEquals(3, lru.getLevels().get(0).getMisses());
+		assertEquals(4, fifo.getLevels().get(0).getMisses());
+		assertEquals(5, random.getLevels().get(0).getAccesses());
+	}
+
+	@Test
+	public void testWritePolicies() {
+		CacheHierarchy back = single(4, 1, 4, Cache.WritePolicy.WRITE_BACK, Cache.Replacement.LRU);
+		CacheHierarchy through = single(4, 1, 4, Cache.WritePolicy.WRITE_THROUGH, Cache.Replacement.LRU);
+		for (int i=0;i<4;i++) {
+			back.write(i);
+			through.write(i);
+		}
+		back.read(4); //the dirty line is written back
+		through.read(4);
+		assertEquals(1, back.getLevels().get(0).getWriteBacks());
+		assertEquals(3, back.getMemoryAccesses()); //fill, write-back, fill
+		assertEquals(0, through.getLevels().get(0).getWriteBacks());
+		assertEquals(4 + 1, through.getMemoryAccesses()); //every write and the fill
+		assertEquals(0, through.getLevels().get(0).getEvictions()); //the writes did not allocate
+	}
+
+	@Test
+	public void testHierarchy() {
+		CacheHierarchy cache = new CacheHierarchy(50);
+		cache.addLevel(new Cache("L1", 8, 1, 4, 1, Cache.WritePolicy.WRITE_BACK, Cache.Replacement.LRU));
+		cache.addLevel(new Cache("L2", 64, 4, 4, 10, Cache.WritePolicy.WRITE_BACK, Cache.Replacement.LRU));
+		for (int round=0;round<2;round++)
+			for (int i=0;i<32;i+=4)
+				cache.read(i);
+		Cache l1 = cache.getLevels().get(0);
+		Cache l2 = cache.getLevels().get(1);
+		assertEquals(16, l1.getMisses()); //8 lines do not fit in 2
+		assertEquals(8, l2.getMisses());
+		assertEquals(8, l2.getHits());
+		assertEquals(8, cache.getMemoryAccesses());
+		assertTrue(cache.toString().contains("L2"));
+		cache.reset();
+		assertEquals(0, cache.getCycles());
+		try {
+			new Cache("L1", 10, 4, 4, 1, Cache.WritePolicy.WRITE_BACK, Cache.Replacement.LRU);
+			fail("10 words are not 4 ways of 4 words");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testMemory() {
+		Bus bus = new Bus();
+		Memory memory = new Memory(64, bus);
+		CacheHierarchy cache = single(16, 1, 4, Cache.WritePolicy.WRITE_BACK, Cache.Replacement.LRU);
+		memory.setCache(cache);
+		bus.put(3);
+		memory.store();
+		bus.put(9);
+		memory.store();
+		bus.put(2);
+		memory.read();
+		assertEquals(1, cache.getLevels().get(0).getHits());
+		assertEquals(1, cache.getLevels().get(0).getMisses());
+		memory.setCache(null);
+		bus.put(2);
+		memory.read();
+		assertEquals(2, cache.getLevels().get(0).getAccesses());
+	}
+
+}
@@ -2,6 +2,8 @@ package components;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+
 import org.junit.Test;
 
 public class TestMemory {
@@ -49,6 +51,213 @@ public class TestMemory {
 		assertEquals(-5, bus.get());
 		
 	}
+	
+	/**
+	 * The same stores and reads through the bus over any backend
+	 * @param backend
+	 */
+	private void checkBackend(MemoryBackend backend) {
+		Bus bus = new Bus();
+		Memory memory = new Memory(backend, bus);
+		int size = backend.size();
+		int positions[] = {0, 1, 4095, 4096, size/2, size-1};
+		for (int position : positions) {
+			bus.put(position);
+			memory.read();
+			assertEquals(0, bus.get());
+			bus.put(position);
+			memory.store();
+			bus.put(-position-1);
+			memory.store();
+		}
+		for (int position : positions) {
+			bus.put(position);
+			memory.read();
+			assertEquals(-position-1, bus.get());
+			assertEquals(-position-1, memory.getData(position));
+		}
+		bus.put(size); //out of the memory range
+		memory.read();
+		assertEquals(size, bus.get());
+	}
+
+	@Test
+	public void testBackends() {
+		checkBackend(new ArrayMemory(1 << 16));
+		checkBackend(new DirectMemory(1 << 22));
+		checkBackend(new PagedMemory(Integer.MAX_VALUE));
+		checkBackend(new CowMemory(new MemoryImage(new PagedMemory(1 << 24))));
+	}
+
+	@Test
+	public void testPagedMemory() {
+		PagedMemory backend = new PagedMemory(1 << 30);
+		Memory memory = new Memory(backend, new Bus());
+		assertFalse(memory.isDense());
+		memory.setData(100, 0); //storing zero allocates nothing
+		assertEquals(0, backend.getAllocatedPages());
+		memory.setData(100, 7);
+		memory.setData(200, 8); //the same page
+		memory.setData((1 << 30) - 1, 9);
+		assertEquals(2, backend.getAllocatedPages());
+		assertEquals(8, memory.getData(200));
+		assertEquals(0, memory.getData(1 << 29));
+	}
+
+	@Test
+	public void testDataList() {
+		Memory memory = new Memory(16, new Bus());
+		assertTrue(memory.isDense());
+		memory.getDataList()[3] = 5;
+		assertEquals(5, memory.getData(3));
+		try {
+			new Memory(new DirectMemory(16), new Bus()).getDataList();
+			fail("a direct memory has no array");
+		}
+		catch (UnsupportedOperationException e) {
+		}
+	}
 
+	@Test
+	public void testLoad() {
+		int words[] = {9, 1, 2, 3, -4, 9};
+		MemoryBackend backends[] = {new ArrayMemory(64), new DirectMemory(64), new PagedMemory(1 << 20)};
+		for (MemoryBackend backend : backends) {
+			Memory memory = new Memory(backend, new Bus());
+			ArrayList<Integer> written = new ArrayList<Integer>();
+			memory.setStoreListener(written::add);
+			memory.load(60, words, 1, 4);
+			assertEquals(0, memory.getData(59));
+			assertEquals(1, memory.getData(60));
+			assertEquals(-4, memory.getData(63));
+			assertEquals(4, written.size());
+			assertEquals(63, (int) written.get(3));
+			assertEquals(0, memory.getStores()); //the bus is not used
+		}
+		try {
+			new Memory(8, new Bus()).load(5, words, 0, 4);
+			fail("the block does not fit");
+		}
+		catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testCowMemory() {
+		Memory loaded = new Memory(1 << 16, new Bus());
+		loaded.setData(10, 7);
+		loaded.setData(5000, 8);
+		MemoryImage image = new MemoryImage(loaded);
+		loaded.setData(10, 9); //the image is a copy
+		assertEquals(2, image.getStoredPages());
+		assertEquals(7, image.get(10));
+
+		CowMemory first = new CowMemory(image);
+		CowMemory second = new CowMemory(image);
+		Memory memory = new Memory(first, new Bus());
+		memory.setData(11, 1);
+		memory.setData(5000, 8); //the same value: nothing is copied
+		memory.setData(60000, 2); //a page of zeros in the image
+		assertEquals(2, first.getCopiedPages());
+		assertEquals(7, first.get(10)); //copied with the page
+		assertEquals(1, first.get(11));
+		assertEquals(0, second.get(11));
+		assertEquals(0, second.get(60000));
+		assertEquals(0, second.getCopiedPages());
+		assertEquals(0, image.get(11));
+	}
+
+	@Test
+	public void testCowSmallMemory() {
+		//the last page is cut at the memory size
+		Memory loaded = new Memory(128, new Bus());
+		loaded.setData(127, 5);
+		MemoryImage image = new MemoryImage(loaded);
+		assertEquals(128, image.getPage(0).length);
+		CowMemory cow = new CowMemory(image);
+		cow.set(0, 3);
+		assertEquals(3, cow.get(0));
+		assertEquals(5, cow.get(127));
+		ArrayMemory copy = new ArrayMemory(128);
+		image.copyTo(copy);
+		assertEquals(5, copy.get(127));
+
+		Memory large = new Memory(MemoryImage.PAGE_SIZE + 10, new Bus());
+		CowMemory written = new CowMemory(new MemoryImage(large)); //only zeros
+		written.set(MemoryImage.PAGE_SIZE + 9, 4); //the last word of a page of 10 words
+		assertEquals(4, written.get(MemoryImage.PAGE_SIZE + 9));
+		assertEquals(10, MemoryImage.pageLength(MemoryImage.PAGE_SIZE + 10, 1));
+	}
+
+	@Test
+	public void testWatchpoints() {
+		Bus bus = new Bus();
+		Memory memory = new Memory(1 << 16, bus);
+		ArrayList<Watchpoints.Hit> hits = new ArrayList<Watchpoints.Hit>();
+		Watchpoints watchpoints = new Watchpoints(1 << 16, hit -> {
+			hits.add(hit);
+			return (hit.getNewValue() < 0) ? Watchpoints.Action.ABORT : Watchpoints.Action.CONTINUE;
+		});
+		watchpoints.watchWrite(5000);
+		watchpoints.watchRead(63);
+		watchpoints.watch(64);
+		watchpoints.unwatch(64);
+		memory.setWatchpoints(watchpoints);
+		watchpoints.setPc(12);
+
+		bus.put(5000);
+		memory.store();
+		bus.put(7);
+		memory.store();
+		bus.put(5000);
+		memory.read(); //not a read watchpoint
+		bus.put(64);
+		memory.read();
+		bus.put(63);
+		memory.read();
+		assertEquals(2, hits.size());
+		assertEquals(Watchpoints.Kind.WRITE, hits.get(0).getKind());
+		assertEquals(12, hits.get(0).getPc());
+		assertEquals(0, hits.get(0).getOldValue());
+		assertEquals(7, hits.get(0).getNewValue());
+		assertEquals(Watchpoints.Kind.READ, hits.get(1).getKind());
+		assertEquals(63, hits.get(1).getAddress());
+
+		bus.put(5000);
+		memory.store();
+		bus.put(-1);
+		try {
+			memory.store();
+			fail("the listener aborts");
+		}
+		catch (Watchpoints.Abort e) {
+			assertEquals(7, e.getHit().getOldValue());
+		}
+		assertEquals(7, memory.getData(5000)); //the write was not made
+		assertFalse(memory.isStoring()); //the next store starts a new one
+		assertFalse(watchpoints.isWatchingRead(5000));
+		assertTrue(watchpoints.isWatchingWrite(5000));
+	}
+
+	@Test
+	public void testDirtyPages() {
+		Bus bus = new Bus();
+		Memory memory = new Memory(new PagedMemory(1 << 30), bus);
+		DirtyPages dirty = memory.getDirtyPages();
+		bus.put(5);
+		memory.store();
+		bus.put(1);
+		memory.store();
+		memory.setData((1 << 30) - 1, 2);
+		memory.load(70 * 4096 - 1, new int[] {3, 4}, 0, 2); //two pages
+		assertEquals(4, dirty.count());
+		assertEquals(0, dirty.next(0));
+		assertEquals(69, dirty.next(1));
+		assertEquals(70, dirty.next(70));
+		assertEquals(dirty.getPages() - 1, dirty.next(71));
+		assertEquals(-1, dirty.next(dirty.getPages()));
+		dirty.clear();
+		assertEquals(-1, dirty.next(0));
+	}
 
 }
@@ -0,0 +1,72 @@
+package components;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TestOutputDevice {
+
+	@Test
+	public void testPorts() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Bus bus = new Bus();
+		Memory memory = new Memory(64, bus);
+		OutputDevice device = new OutputDevice(60, out);
+		memory.setOutputDevice(device);
+		int stores[][] = {{60, -12}, {61, 'o'}, {61, 'k'}, {61, '\n'}, {60, Integer.MIN_VALUE}, {59, 5}};
+		for (int store[] : stores) {
+			bus.put(store[0]);
+			memory.store();
+			bus.put(store[1]);
+			memory.store();
+		}
+		device.close();
+		assertEquals("-12\nok\n-2147483648\n", out.toString());
+		assertEquals(0, memory.getData(60)); //the ports are not memory words
+		assertEquals(5, memory.getData(59));
+		assertFalse(memory.isStoring());
+		assertEquals(5, device.getWritten());
+	}
+
+	@Test
+	public void testFullBuffer() throws IOException {
+		//many more stores than the ring buffer holds
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputDevice device = new OutputDevice(0, out);
+		long expected = 0;
+		for (int i=0;i<500000;i++) {
+			device.write(OutputDevice.NUMBER, i);
+			expected += Integer.toString(i).length() + 1;
+		}
+		device.close();
+		String text = out.toString();
+		assertEquals(expected, text.length());
+		assertTrue(text.startsWith("0\n1\n2\n"));
+		assertTrue(text.endsWith("499998\n499999\n"));
+	}
+
+	@Test
+	public void testIdleAndClosed() throws IOException, InterruptedException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputDevice device = new OutputDevice(0, out);
+		device.write(OutputDevice.NUMBER, 1);
+		Thread.sleep(20); //the consumer writes it and parks
+		device.write(OutputDevice.NUMBER, 2); //and wakes up for the next one
+		for (int i=0;i<200 && !out.toString().equals("1\n2\n");i++)
+			Thread.sleep(10);
+		assertEquals("1\n2\n", out.toString()); //written before the close
+		device.close();
+		assertEquals("1\n2\n", out.toString());
+		try {
+			device.write(OutputDevice.NUMBER, 3);
+			fail("the device is closed");
+		}
+		catch (IllegalStateException e) {
+		}
+		assertEquals("1\n2\n", out.toString());
+	}
+
+}
@@ -129,4 +129,39 @@ public class TestUla {
 		ula.read(1);
 		assertEquals(0, bus.get());
 	}
+	
+	@Test
+	public void testMul() {
+		Bus bus = new Bus();
+		Bus bus2 = new Bus();
+		Ula ula = new Ula(bus, bus2);
+		bus.put(100000);
+		ula.store(0); //100000 is in reg1
+		bus.put(-7);
+		ula.store(1); //-7 is in reg2
+		ula.mul(); //now we must have -700000 in reg2
+		ula.read(1);
+		assertEquals(-700000, bus.get());
+		assertEquals(1, ula.getCycles());
+		
+		//the compatibility mode counts the additions of the old imul microprograms
+		ula.resetCycles();
+		ula.setMultiplyCompatibility(true);
+		bus.put(100000);
+		ula.store(0);
+		bus.put(3);
+		ula.store(1);
+		ula.mul();
+		ula.read(1);
+		assertEquals(300000, bus.get());
+		assertEquals(99999, ula.getCycles());
+		
+		ula.resetCycles();
+		bus.put(-4); //a negative multiplier took 1-(-4) subtractions
+		ula.store(0);
+		ula.mul();
+		ula.read(1);
+		assertEquals(-1200000, bus.get());
+		assertEquals(5, ula.getCycles());
+	}
 }
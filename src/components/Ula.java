@@ -7,6 +7,8 @@ public class Ula {
 	private Bus extBus2;
 	private Register reg1;
 	private Register reg2;
+	private long cycles; //how many operations the ula performed
+	private boolean multiplyCompatibility; //mul counts the cycles of the repeated additions
 	
 	
 	public Ula(Bus extBus1, Bus extBus2) {
@@ -30,6 +32,7 @@ public class Ula {
 		res += intBus.get(); //the operation was performed
 		intBus.put(res);
 		reg2.internalStore(); //saves the result into internal store
+		cycles++;
 	}
 	
 	/**
@@ -46,7 +49,49 @@ public class Ula {
 		res -= intBus.get(); //the operation was performed
 		intBus.put(res);
 		reg2.internalStore(); //saves the result into internal store
-		
+		cycles++;
+	}
+	
+	/**
+	 * This method multiplies the reg1 and reg2 values, storing the result in reg2.
+	 * The multiplication takes a single operation; in the compatibility mode the
+	 * cycles count is increased by the additions (or subtractions) that the old
+	 * imul microprograms performed, once per unit of the multiplier (reg1)
+	 */
+	public void mul() {
+		int res=0;
+		intBus.put(0);
+		reg1.internalRead(); //puts its data into the internal bus
+		res = intBus.get(); //stored for operation
+		int multiplier = res;
+		reg2.internalRead(); //puts the internal data into the internal bus
+		res *= intBus.get(); //the operation was performed
+		intBus.put(res);
+		reg2.internalStore(); //saves the result into internal store
+		cycles += mulCycles(multiplier);
+	}
+	
+	/**
+	 * The fast engines multiply without the ULA and use this method to count the same cycles
+	 * @param multiplier the reg1 value
+	 * @return the cycles mul counts: 1, or the repeated additions in the compatibility mode
+	 */
+	public long mulCycles(int multiplier) {
+		return multiplyCompatibility ? repeatedAdditions(multiplier) : 1;
+	}
+	
+	/**
+	 * The old microprograms added the multiplicand n-1 times for a positive multiplier n
+	 * and subtracted it 1-n times for a negative one
+	 * @param multiplier
+	 * @return
+	 */
+	private static long repeatedAdditions(int multiplier) {
+		if (multiplier > 0)
+			return (long) multiplier - 1;
+		if (multiplier < 0)
+			return 1 - (long) multiplier;
+		return 0;
 	}
 	
 	/**
@@ -59,7 +104,7 @@ public class Ula {
 		res ++;
 		intBus.put(res);
 		reg2.internalStore();
-		
+		cycles++;
 	}
 	
 	/**
@@ -109,5 +154,44 @@ public class Ula {
 		extBus2.put(extBus1.get()); //moving the data from a bus to another
 	}
 	
+	/**
+	 * This method gives the internal registers, used to save and restore the machine state
+	 * @param reg 0 or 1
+	 * @return
+	 */
+	public Register getRegister(int reg) {
+		if (reg==0)
+			return reg1;
+		return reg2;
+	}
+	
+	public Bus getInternalBus() {
+		return intBus;
+	}
+	
+	/**
+	 * @return how many operations (add, sub, inc and mul) the ula performed
+	 */
+	public long getCycles() {
+		return cycles;
+	}
+	
+	public void resetCycles() {
+		cycles = 0;
+	}
+	
+	public boolean isMultiplyCompatibility() {
+		return multiplyCompatibility;
+	}
+	
+	/**
+	 * In the compatibility mode, mul reports the cycles the repeated additions would take,
+	 * so the cycles count stays comparable with the old imul microprograms
+	 * @param multiplyCompatibility
+	 */
+	public void setMultiplyCompatibility(boolean multiplyCompatibility) {
+		this.multiplyCompatibility = multiplyCompatibility;
+	}
+	
 	
 }
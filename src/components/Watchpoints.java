@@ -0,0 +1,235 @@
+package components;
+
+/**
+ * This class keeps the read and write watchpoints of a memory in a bitmap per page
+ * (pages of 4096 words, as the ones of PagedMemory): checking an access is a single bit test,
+ * and the pages with no watchpoint have no bitmap.
+ * The memory only consults it when it was set (see Memory.setWatchpoints), so
+ * without watchpoints the reads and stores cost nothing more.
+ *
+ * Each hit is given to the listener, which decides if the execution continues,
+ * pauses after the current instruction or is aborted (the hit is thrown as an Abort).
+ */
+public class Watchpoints {
+
+	private static final int PAGE_BITS = PagedMemory.PAGE_BITS;
+	private static final int WORDS_PER_PAGE = (1 << PAGE_BITS) / Long.SIZE;
+
+	public enum Kind {
+		READ,
+		WRITE
+	}
+
+	public enum Action {
+		CONTINUE,
+		PAUSE,
+		ABORT
+	}
+
+	/**
+	 * An access to a watched address
+	 */
+	public static class Hit {
+		private Kind kind;
+		private int address;
+		private int pc;
+		private int oldValue;
+		private int newValue;
+
+		public Hit(Kind kind, int address, int pc, int oldValue, int newValue) {
+			this.kind = kind;
+			this.address = address;
+			this.pc = pc;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public int getAddress() {
+			return address;
+		}
+
+		/**
+		 * @return the address of the instruction that made the access
+		 */
+		public int getPc() {
+			return pc;
+		}
+
+		/**
+		 * @return the value before the access (the value read, in a read)
+		 */
+		public int getOldValue() {
+			return oldValue;
+		}
+
+		/**
+		 * @return the value after the access (the value read, in a read)
+		 */
+		public int getNewValue() {
+			return newValue;
+		}
+
+		@Override
+		public String toString() {
+			return kind+" "+address+" at pc "+pc+": "+oldValue+" -> "+newValue;
+		}
+	}
+
+	/**
+	 * Receives the hits
+	 */
+	public interface Listener {
+		Action hit(Hit hit);
+	}
+
+	/**
+	 * The exception thrown when the listener aborts the execution
+	 */
+	public static class Abort extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		private Hit hit;
+
+		public Abort(Hit hit) {
+			super("Watchpoint "+hit);
+			this.hit = hit;
+		}
+
+		public Hit getHit() {
+			return hit;
+		}
+	}
+
+	private long readBits[][]; //[page][word of the bitmap]
+	private long writeBits[][];
+	private Listener listener;
+	private int pc;
+	private boolean paused;
+	private Hit lastHit;
+	private long hits;
+
+	/**
+	 * @param size of the memory
+	 * @param listener
+	 */
+	public Watchpoints(int size, Listener listener) {
+		int pages = (int) (((long) size + (1 << PAGE_BITS) - 1) >> PAGE_BITS);
+		readBits = new long[pages][];
+		writeBits = new long[pages][];
+		this.listener = listener;
+	}
+
+	public void watchRead(int address) {
+		set(readBits, address, true);
+	}
+
+	public void watchWrite(int address) {
+		set(writeBits, address, true);
+	}
+
+	/**
+	 * This method watches both the reads and the writes of the address
+	 * @param address
+	 */
+	public void watch(int address) {
+		watchRead(address);
+		watchWrite(address);
+	}
+
+	public void unwatch(int address) {
+		set(readBits, address, false);
+		set(writeBits, address, false);
+	}
+
+	private static void set(long bits[][], int address, boolean watched) {
+		long page[] = bits[address >>> PAGE_BITS];
+		if (page == null) {
+			if (!watched)
+				return;
+			page = new long[WORDS_PER_PAGE];
+			bits[address >>> PAGE_BITS] = page;
+		}
+		if (watched)
+			page[(address >>> 6) & (WORDS_PER_PAGE - 1)] |= 1L << address;
+		else
+			page[(address >>> 6) & (WORDS_PER_PAGE - 1)] &= ~(1L << address);
+	}
+
+	private static boolean test(long bits[][], int address) {
+		long page[] = bits[address >>> PAGE_BITS];
+		return page != null && (page[(address >>> 6) & (WORDS_PER_PAGE - 1)] & (1L << address)) != 0;
+	}
+
+	public boolean isWatchingRead(int address) {
+		return test(readBits, address);
+	}
+
+	public boolean isWatchingWrite(int address) {
+		return test(writeBits, address);
+	}
+
+	/**
+	 * This method is called by the memory after a read
+	 * @param address
+	 * @param value
+	 */
+	void read(int address, int value) {
+		if (test(readBits, address))
+			hit(new Hit(Kind.READ, address, pc, value, value));
+	}
+
+	/**
+	 * This method is called by the memory before a store
+	 * @param address
+	 * @param oldValue
+	 * @param newValue
+	 */
+	void write(int address, int oldValue, int newValue) {
+		if (test(writeBits, address))
+			hit(new Hit(Kind.WRITE, address, pc, oldValue, newValue));
+	}
+
+	private void hit(Hit hit) {
+		hits++;
+		lastHit = hit;
+		Action action = (listener == null) ? Action.PAUSE : listener.hit(hit);
+		if (action == Action.ABORT)
+			throw new Abort(hit);
+		if (action == Action.PAUSE)
+			paused = true;
+	}
+
+	/**
+	 * The architecture informs the address of the instruction being executed
+	 * @param pc
+	 */
+	public void setPc(int pc) {
+		this.pc = pc;
+	}
+
+	/**
+	 * @return true if a hit asked to pause the execution
+	 */
+	public boolean isPaused() {
+		return paused;
+	}
+
+	public void resume() {
+		paused = false;
+	}
+
+	/**
+	 * @return the last hit or null if there was none
+	 */
+	public Hit getLastHit() {
+		return lastHit;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+}